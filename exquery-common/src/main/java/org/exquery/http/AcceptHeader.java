@@ -29,7 +29,9 @@ package org.exquery.http;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 import org.exquery.InternetMediaType;
 
@@ -37,6 +39,10 @@ import org.exquery.InternetMediaType;
  * Representation of a HTTP Accept header
  * 
  * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html">RFC 2616</a>
+ * 
+ * The header value is parsed by hand in a single pass, the parsed
+ * Accepts of recently seen header values are cached and shared
+ * as clients typically send only a few distinct values.
  *
  * @author Adam Retter
  */
@@ -60,12 +66,51 @@ public class AcceptHeader {
     public final static String anySubtype_regExp = org.exquery.http.InternetMediaType.typeName_regExp + "\\" + InternetMediaType.SUBTYPE_DELIMITER + "\\" + InternetMediaType.WILDCARD;
     
     public final static String accept_regExp = "(?:(?:" + anyRange_regExp + ")|(?:" + anySubtype_regExp + ")|(?:" + org.exquery.http.InternetMediaType.mediaType_regExp + "))" + acceptParams_regExp;
+    
+    /**
+     * @deprecated No longer used to parse the header, which is parsed by hand
+     */
+    @Deprecated
     public final static Pattern ptnAccept = Pattern.compile(accept_regExp);
     
     public final static String accepts_regExp = "(" + accept_regExp + ")(,\\s?" + accept_regExp + ")*";
+    
+    /**
+     * @deprecated No longer used to parse the header, which is parsed by hand
+     */
+    @Deprecated
     public final static Pattern ptnAccepts = Pattern.compile(accepts_regExp);
     
-    private final List<Accept> accepts = new ArrayList<Accept>();
+    /**
+     * Maximum number of distinct header values whose parsed Accepts are cached
+     */
+    private final static int MAX_CACHED_HEADER_VALUES = 64;
+    
+    /**
+     * Parsed Accepts by header value, which is cleared when full
+     */
+    private final static ConcurrentMap<String, List<Accept>> PARSED_CACHE = new ConcurrentHashMap<String, List<Accept>>();
+    
+    /**
+     * tchar from RFC 7230, the characters of a token
+     */
+    private final static boolean[] TCHAR = new boolean[128];
+    static {
+        for(char c = '0'; c <= '9'; c++) {
+            TCHAR[c] = true;
+        }
+        for(char c = 'a'; c <= 'z'; c++) {
+            TCHAR[c] = true;
+        }
+        for(char c = 'A'; c <= 'Z'; c++) {
+            TCHAR[c] = true;
+        }
+        for(final char c : "!#$%&'*+-.^_`|~".toCharArray()) {
+            TCHAR[c] = true;
+        }
+    }
+    
+    private final List<Accept> accepts;
     
     /**
      * @param headerValue The value of the HTTP Accept header
@@ -73,53 +118,225 @@ public class AcceptHeader {
      * @throws IllegalArgumentException If the headerValue is not a valid value for an Accept header
      */
     public AcceptHeader(final String headerValue) {
-        final Matcher mtcAccepts = ptnAccepts.matcher(headerValue);
-        if(!mtcAccepts.matches()) {
-            throw new IllegalArgumentException("Invalid Accept Header Value: '" + headerValue + "' in respect to pattern: '" + ptnAccepts.pattern() + "'");
-        } else {
-            final Matcher mtcAccept = ptnAccept.matcher(headerValue);
-            while(mtcAccept.find()) {
-               final String acceptStr = mtcAccept.group();
-               if(acceptStr != null) {
-                    final Accept accept;
-                    if(acceptStr.indexOf(PARAMETER_SEPARATOR) == -1) {
-                        accept = new Accept(acceptStr.trim());
-                    } else {
-                        //break an accept group in the value of the accept header into parts
-                        final String parts[] = acceptStr.split(String.valueOf(PARAMETER_SEPARATOR));
-                        final String mediaRange = parts[0];
-
-                        //1st part will be the mediaRange
-                        //2nd part maybe the qualityFactor or extension
-                        if(parts[1].trim().startsWith(String.valueOf(QUALITY_PARAMETER) + PARAMETER_KEY_VALUE_SEPARATOR)) {
-                            //2nd part is qualityFactor
-                            final float qualityFactor = Float.parseFloat(parts[1].trim().substring(parts[1].trim().indexOf(PARAMETER_KEY_VALUE_SEPARATOR) + 1));
-
-                            //if 2nd part is qualityFactor, 3rd part maybe extension
-                            if(parts.length == 3) {
-                                final String extension[] = parts[2].trim().split(String.valueOf(PARAMETER_KEY_VALUE_SEPARATOR));
-                                accept = new Accept(mediaRange, qualityFactor, new Accept.Extension(extension[0], extension[1]));
-                            } else {
-                                accept = new Accept(mediaRange, qualityFactor);
-                            }
+        List<Accept> parsed = PARSED_CACHE.get(headerValue);
+        if(parsed == null) {
+            //a value parsed concurrently is simply parsed twice
+            parsed = parse(headerValue);
+            
+            //the few distinct values that clients send will quickly be cached again
+            if(PARSED_CACHE.size() >= MAX_CACHED_HEADER_VALUES) {
+                PARSED_CACHE.clear();
+            }
+            PARSED_CACHE.put(headerValue, parsed);
+        }
+        this.accepts = parsed;
+    }
 
-                        } else {
-                            //2nd part is extension
-                            final String extension[] = parts[1].trim().split(String.valueOf(PARAMETER_KEY_VALUE_SEPARATOR));
-                            accept = new Accept(mediaRange, new Accept.Extension(extension[0], extension[1]));
+    /**
+     * Gets the Accepts of the header
+     * 
+     * @return The Accepts ordered by descending quality factor,
+     * the list is immutable and may be shared by other AcceptHeaders
+     */
+    public List<Accept> getAccepts() {
+        return accepts;
+    }
+    
+    /**
+     * Parses the value of an Accept header in a single pass
+     * 
+     * Accept = #( media-range [ accept-params ] ) from
+     * <a href="https://tools.ietf.org/html/rfc7231#section-5.3.2">RFC 7231</a>,
+     * the type and subtype of the media-range are lower-cased
+     * as they are case-insensitive. Only the first parameter
+     * other than the quality factor is kept, as the Extension.
+     * 
+     * @param headerValue The value of the HTTP Accept header
+     * 
+     * @return The Accepts ordered by descending quality factor
+     * 
+     * @throws IllegalArgumentException If the headerValue is not a valid value for an Accept header
+     */
+    private static List<Accept> parse(final String headerValue) {
+        final List<Accept> parsed = new ArrayList<Accept>();
+        final int len = headerValue.length();
+        
+        int i = 0;
+        while(true) {
+            i = skipWhitespace(headerValue, i);
+            if(i == len) {
+                break;
+            }
+            
+            //empty list elements are permitted
+            if(headerValue.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            
+            //media-range
+            final int typeStart = i;
+            i = skipToken(headerValue, i);
+            final int typeEnd = i;
+            if(typeEnd == typeStart || i == len || headerValue.charAt(i) != InternetMediaType.SUBTYPE_DELIMITER) {
+                throw invalid(headerValue);
+            }
+            i = skipToken(headerValue, ++i);
+            if(i == typeEnd + 1) {
+                throw invalid(headerValue);
+            }
+            if(headerValue.charAt(typeStart) == InternetMediaType.WILDCARD && (typeEnd - typeStart != 1 || i - typeEnd != 2 || headerValue.charAt(typeEnd + 1) != InternetMediaType.WILDCARD)) {
+                //only */* may have a wildcard type
+                throw invalid(headerValue);
+            }
+            final String mediaRange = headerValue.substring(typeStart, i).toLowerCase(Locale.ENGLISH);
+            
+            //parameters and accept-params
+            float qualityFactor = Accept.DEFAULT_QUALITY_FACTOR;
+            boolean seenQualityFactor = false;
+            Accept.Extension extension = null;
+            while(true) {
+                final int p = skipWhitespace(headerValue, i);
+                if(p == len || headerValue.charAt(p) != PARAMETER_SEPARATOR) {
+                    i = p;
+                    break;
+                }
+                
+                final int nameStart = skipWhitespace(headerValue, p + 1);
+                i = skipToken(headerValue, nameStart);
+                if(i == nameStart) {
+                    throw invalid(headerValue);
+                }
+                final String name = headerValue.substring(nameStart, i);
+                
+                String value = null;
+                if(i < len && headerValue.charAt(i) == PARAMETER_KEY_VALUE_SEPARATOR) {
+                    i++;
+                    if(i < len && headerValue.charAt(i) == '"') {
+                        final StringBuilder quoted = new StringBuilder();
+                        i = readQuotedString(headerValue, i, quoted);
+                        value = quoted.toString();
+                    } else {
+                        final int valueStart = i;
+                        i = skipToken(headerValue, i);
+                        if(i == valueStart) {
+                            throw invalid(headerValue);
                         }
+                        value = headerValue.substring(valueStart, i);
                     }
-                    accepts.add(accept);
-               }
-           }
+                }
+                
+                if(!seenQualityFactor && name.length() == 1 && Character.toLowerCase(name.charAt(0)) == QUALITY_PARAMETER) {
+                    qualityFactor = parseQualityFactor(headerValue, value);
+                    seenQualityFactor = true;
+                } else if(extension == null) {
+                    extension = new Accept.Extension(name, value == null ? "" : value);
+                }
+            }
+            
+            parsed.add(new Accept(mediaRange, qualityFactor, extension));
+            
+            if(i == len) {
+                break;
+            }
+            if(headerValue.charAt(i) != ',') {
+                throw invalid(headerValue);
+            }
+            i++;
+        }
+        
+        if(parsed.isEmpty()) {
+            throw invalid(headerValue);
         }
         
         //sort accepts by qualityFactor
-        Collections.sort(accepts);
+        Collections.sort(parsed);
+        
+        return Collections.unmodifiableList(parsed);
     }
-
-    public List<Accept> getAccepts() {
-        return accepts;
+    
+    private static int skipWhitespace(final String headerValue, int i) {
+        while(i < headerValue.length() && (headerValue.charAt(i) == ' ' || headerValue.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static int skipToken(final String headerValue, int i) {
+        while(i < headerValue.length()) {
+            final char c = headerValue.charAt(i);
+            if(c >= TCHAR.length || !TCHAR[c]) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * Reads a quoted-string
+     * 
+     * @param headerValue The value of the HTTP Accept header
+     * @param i The position of the opening quote
+     * @param value Receives the unquoted value
+     * 
+     * @return The position after the closing quote
+     */
+    private static int readQuotedString(final String headerValue, int i, final StringBuilder value) {
+        i++;
+        while(i < headerValue.length()) {
+            final char c = headerValue.charAt(i++);
+            if(c == '"') {
+                return i;
+            } else if(c == '\\') {
+                if(i == headerValue.length()) {
+                    break;
+                }
+                value.append(headerValue.charAt(i++));
+            } else {
+                value.append(c);
+            }
+        }
+        throw invalid(headerValue);
+    }
+    
+    /**
+     * Parses a qvalue, i.e. ( "0" [ "." 0*3DIGIT ] ) / ( "1" [ "." 0*3("0") ] )
+     */
+    private static float parseQualityFactor(final String headerValue, final String qvalue) {
+        if(qvalue == null || qvalue.isEmpty() || qvalue.length() > 5) {
+            throw invalid(headerValue);
+        }
+        
+        final char unit = qvalue.charAt(0);
+        if(unit != '0' && unit != '1') {
+            throw invalid(headerValue);
+        }
+        
+        int thousandths = (unit - '0') * 1000;
+        if(qvalue.length() > 1) {
+            if(qvalue.charAt(1) != '.') {
+                throw invalid(headerValue);
+            }
+            int scale = 100;
+            for(int i = 2; i < qvalue.length(); i++) {
+                final char c = qvalue.charAt(i);
+                if(c < '0' || c > '9') {
+                    throw invalid(headerValue);
+                }
+                thousandths += (c - '0') * scale;
+                scale /= 10;
+            }
+            if(thousandths > 1000) {
+                throw invalid(headerValue);
+            }
+        }
+        
+        return thousandths / 1000f;
+    }
+    
+    private static IllegalArgumentException invalid(final String headerValue) {
+        return new IllegalArgumentException("Invalid Accept Header Value: '" + headerValue + "'");
     }
     
     public static class Accept implements Comparable<Accept> {
@@ -35,7 +35,16 @@ package org.exquery.http;
  */
 public enum HttpHeader {
     CONTENT_TYPE("Content-Type"),
-    ACCEPT("Accept");
+    ACCEPT("Accept"),
+    ALLOW("Allow"),
+    CONTENT_LENGTH("Content-Length"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    CONTENT_ENCODING("Content-Encoding"),
+    VARY("Vary"),
+    ETAG("ETag"),
+    LAST_MODIFIED("Last-Modified"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_MODIFIED_SINCE("If-Modified-Since");
 
     private final String headerName;
     
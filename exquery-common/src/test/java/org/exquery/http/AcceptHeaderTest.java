@@ -176,4 +176,64 @@ public class AcceptHeaderTest {
         
         assertEquals(appXmlStr + ";q=" + Float.toString(qualityFactor) + ";x=y", appXml.toString());
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void mediaRangeWithQualityFactorAndExtension() {
+        final AcceptHeader acceptHeader = new AcceptHeader("text/html;level=1, application/xml ; Q=0.5 ; charset=\"utf-8\", */*;q=0");
+        
+        assertEquals(3, acceptHeader.getAccepts().size());
+        assertEquals(new Accept("text/html", new Extension("level", "1")).toString(), acceptHeader.getAccepts().get(0).toString());
+        assertEquals("application/xml", acceptHeader.getAccepts().get(1).getMediaRange());
+        assertEquals(0.5f, acceptHeader.getAccepts().get(1).getQualityFactor(), 0);
+        assertEquals(new Extension("charset", "utf-8"), acceptHeader.getAccepts().get(1).getExtension());
+        assertEquals("*/*", acceptHeader.getAccepts().get(2).getMediaRange());
+        assertEquals(0f, acceptHeader.getAccepts().get(2).getQualityFactor(), 0);
+    }
+    
+    @Test
+    public void mediaRangeIsLowerCased() {
+        final AcceptHeader acceptHeader = new AcceptHeader("Application/XML");
+        
+        assertEquals(APPLICATION_XML.getMediaType(), acceptHeader.getAccepts().get(0).getMediaRange());
+    }
+    
+    @Test
+    public void sameHeaderValue_sharesAccepts() {
+        final String headerValue = "text/html, application/xhtml+xml, application/xml;q=0.9, */*;q=0.8";
+        
+        assertSame(new AcceptHeader(headerValue).getAccepts(), new AcceptHeader(headerValue).getAccepts());
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void accepts_areImmutable() {
+        new AcceptHeader("application/xml").getAccepts().clear();
+    }
+    
+    @Test
+    public void invalidHeaderValues() {
+        final String invalid[] = {
+            "",
+            " , ",
+            "application",
+            "application/",
+            "/xml",
+            "*/xml",
+            "application/xml;",
+            "application/xml;q=",
+            "application/xml;q=2",
+            "application/xml;q=1.5",
+            "application/xml;q=0.1234",
+            "application/xml;x=\"y",
+            "application/xml text/html"
+        };
+        
+        for(final String headerValue : invalid) {
+            try {
+                new AcceptHeader(headerValue);
+                fail("Expected IllegalArgumentException for: '" + headerValue + "'");
+            } catch(final IllegalArgumentException iae) {
+                //expected
+            }
+        }
+    }
+}
@@ -41,10 +41,13 @@ public interface ResourceFunctionExecuter {
      * Execute the Function
      * 
      * @param resourceFunction The Resource Function to execute
-     * @param arguments The arguments to the function
+     * @param arguments The arguments to the function, ordered by the position of the
+     * function argument that each is for
      * @param request The HTTP request that lead to the execution of this Resource Function
      * 
-     * @return The result of the function
+     * @return The result of the function, which may be a
+     * {@link org.exquery.xquery.StreamingSequence} so that a large
+     * result need not be buffered, it is closed once it has been serialized
      * 
      * @throws RestXqServiceException If an unexpected error occurred during processing
      */
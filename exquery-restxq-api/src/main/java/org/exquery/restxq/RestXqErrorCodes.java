@@ -103,6 +103,11 @@ public class RestXqErrorCodes extends ErrorCodes {
     public static RestXqErrorCode RQST0031 = new RestXqErrorCode("RQST0031", "It is a static error if a REST produces Annotation contains literals which are not strings");
     public static RestXqErrorCode RQST0032 = new RestXqErrorCode("RQST0032", "It is a static error if a REST produces Annotation contains string literals which are not valid Internet Media Types");
     
+    //cache annotation errors
+    public static RestXqErrorCode RQST0047 = new RestXqErrorCode("RQST0047", "It is a static error if a REST cache Annotation is empty");
+    public static RestXqErrorCode RQST0048 = new RestXqErrorCode("RQST0048", "It is a static error if a REST cache Annotations max-age is not a non-negative integer");
+    public static RestXqErrorCode RQST0049 = new RestXqErrorCode("RQST0049", "It is a static error if a REST cache Annotations vary header is not a literal String or is an empty literal String");
+    
     //restxq module xquery functions
     public static RestXqErrorCode RQDY0101 = new RestXqErrorCode("RQDY0101", "It is a dynamic error if a REST Module XQuery Function is invoked outside of the REST context");
     
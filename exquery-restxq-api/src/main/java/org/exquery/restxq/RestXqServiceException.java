@@ -37,19 +37,35 @@ import org.exquery.restxq.RestXqErrorCodes.RestXqErrorCode;
  */
 public class RestXqServiceException extends ExQueryException {
 
+    private final HttpStatus httpStatus;
+    
     public RestXqServiceException(final String message) {
         super(message);
+        this.httpStatus = null;
     }
     
     public RestXqServiceException(final String message, final HttpStatus httpStatus) {
         super(message);
+        this.httpStatus = httpStatus;
     }
 
     public RestXqServiceException(final String message, final Throwable cause) {
         super(message, cause);
+        this.httpStatus = null;
     }
     
     public RestXqServiceException(final RestXqErrorCode code, final Throwable cause) {
         super(code.toString(), cause);
+        this.httpStatus = null;
+    }
+    
+    /**
+     * Get the HTTP Status which should be sent to the client
+     * as a result of this exception
+     * 
+     * @return The HTTP Status, or null if none was specified
+     */
+    public HttpStatus getHttpStatus() {
+        return httpStatus;
     }
-}
\ No newline at end of file
+}
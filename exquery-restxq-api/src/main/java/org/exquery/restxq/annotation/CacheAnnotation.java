@@ -0,0 +1,58 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.annotation;
+
+import java.util.List;
+
+/**
+ * CacheAnnotation
+ * 
+ * Represents the XQuery RESTXQ Annotation %rest:cache
+ * e.g. %rest:cache(60, "Accept-Language")
+ * 
+ * The serialized responses of the Resource Function to GET requests
+ * may be cached for max-age seconds, the cached responses are distinct
+ * for each value of the arguments of the function and of the vary headers.
+ *
+ * @author Adam Retter
+ */
+public interface CacheAnnotation extends RestAnnotation {
+    
+    /**
+     * Gets the maximum time a response may be cached for
+     * 
+     * @return The maximum age in seconds
+     */
+    public int getMaxAge();
+    
+    /**
+     * Gets the names of the HTTP Request Headers which the response varies by
+     * 
+     * @return The names of the HTTP Request Headers, may be empty
+     */
+    public List<String> getVaryHeaders();
+}
@@ -50,7 +50,9 @@ public enum RestAnnotationName {
     formparam("form-param"),
     queryparam("query-param"),
     headerparam("header-param"),
-    cookieparam("cookie-param");
+    cookieparam("cookie-param"),
+    
+    cache;
 
     final QName name;
     RestAnnotationName() {
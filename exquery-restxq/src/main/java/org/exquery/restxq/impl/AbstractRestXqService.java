@@ -26,29 +26,40 @@
  */
 package org.exquery.restxq.impl;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
-import java.util.Map.Entry;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import org.exquery.http.AcceptHeader;
 import org.exquery.http.AcceptHeader.Accept;
+import org.exquery.http.HttpHeader;
 import org.exquery.http.HttpMethod;
 import org.exquery.http.HttpRequest;
 import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
 import org.exquery.restxq.ResourceFunction;
 import org.exquery.restxq.ResourceFunctionExecuter;
 import org.exquery.restxq.RestXqService;
 import org.exquery.restxq.RestXqServiceException;
 import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.annotation.CacheAnnotation;
 import org.exquery.restxq.annotation.ConsumesAnnotation;
 import org.exquery.restxq.annotation.HttpMethodAnnotation;
 import org.exquery.restxq.annotation.HttpMethodWithBodyAnnotation;
-import org.exquery.restxq.annotation.ParameterAnnotation;
+import org.exquery.restxq.annotation.PathAnnotation;
 import org.exquery.restxq.annotation.ProducesAnnotation;
-import org.exquery.xdm.type.SequenceImpl;
-import org.exquery.xdm.type.StringTypedValue;
+import org.exquery.restxq.impl.annotation.ConsumesAnnotationImpl;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+import org.exquery.restxq.impl.annotation.PathSegmentMatch;
+import org.exquery.restxq.impl.annotation.ProducesAnnotationImpl;
+import org.exquery.restxq.impl.serialization.AbstractRestXqServiceSerializer;
+import org.exquery.restxq.impl.serialization.SerializationTemplate;
 import org.exquery.xquery.FunctionSignature;
 import org.exquery.xquery.Sequence;
+import org.exquery.xquery.StreamingSequence;
 import org.exquery.xquery.TypedArgumentValue;
 
 /**
@@ -57,10 +68,42 @@ import org.exquery.xquery.TypedArgumentValue;
  */
 public abstract class AbstractRestXqService implements RestXqService {
 
+    /**
+     * A suitable maximum size of a body which is hashed to give its Entity Tag,
+     * for implementations which enable hashing, see {@link #getEntityTagBodyLimit()}
+     */
+    public final static int RECOMMENDED_ENTITY_TAG_BODY_LIMIT = 32 * 1024;
+
     private final ResourceFunction resourceFunction;
+    
+    //metadata of the resource function, computed once as it is consulted on every request
+    private final EnumSet<HttpMethod> servicedMethods;
+    private final Set<HttpMethodWithBodyAnnotation> bodyContentAnnotations;
+    private final boolean consumesAnything;
+    private final boolean producesAnything;
+    private final ArgumentBindingPlan argumentBindingPlan;
+    
+    //the serialization template, created on first use by the serializer which created it
+    private volatile SerializationTemplateHolder serializationTemplateHolder;
 
     public AbstractRestXqService(final ResourceFunction resourceFunction) {
         this.resourceFunction = resourceFunction;
+        
+        this.servicedMethods = EnumSet.noneOf(HttpMethod.class);
+        final Set<HttpMethodWithBodyAnnotation> bodyContentAnnotations = new HashSet<HttpMethodWithBodyAnnotation>();
+        for(final HttpMethodAnnotation httpMethodAnnotation : resourceFunction.getHttpMethodAnnotations()) {
+            servicedMethods.add(httpMethodAnnotation.getHttpMethod());
+            if(httpMethodAnnotation instanceof HttpMethodWithBodyAnnotation) {
+                bodyContentAnnotations.add((HttpMethodWithBodyAnnotation)httpMethodAnnotation);
+            }
+        }
+        this.bodyContentAnnotations = Collections.unmodifiableSet(bodyContentAnnotations);
+        
+        //if there are no constraints we can consume or produce anything
+        this.consumesAnything = resourceFunction.getConsumesAnnotations().isEmpty();
+        this.producesAnything = resourceFunction.getProducesAnnotations().isEmpty();
+        
+        this.argumentBindingPlan = new ArgumentBindingPlan(resourceFunction, this.bodyContentAnnotations);
     }
     
     /**
@@ -76,11 +119,8 @@ public abstract class AbstractRestXqService implements RestXqService {
      */
     @Override
     public EnumSet<HttpMethod> getServicedMethods() {
-        final EnumSet<HttpMethod> servicedMethods = EnumSet.noneOf(HttpMethod.class);
-        for(final HttpMethodAnnotation httpMethodAnnotation : getResourceFunction().getHttpMethodAnnotations()) {
-            servicedMethods.add(httpMethodAnnotation.getHttpMethod());
-        }
-        return servicedMethods;
+        //a copy, as the caller may modify it
+        return servicedMethods.clone();
     }
 
     /**
@@ -96,41 +136,90 @@ public abstract class AbstractRestXqService implements RestXqService {
      */
     @Override
     public boolean canService(final HttpRequest request) {
+        return canService(new NegotiationContext(request), null);
+    }
+    
+    /**
+     * Determines if this RESTXQ Service can service the request,
+     * capturing the parameters of the request path whilst
+     * checking the path
+     * 
+     * @param negotiation The Content Negotiation context of the HTTP Request
+     * @param pathMatch Receives the parameters captured from the request path,
+     * or null if they need not be captured
+     * 
+     * @return true if this Service can service the request
+     * 
+     * @see #canService(org.exquery.http.HttpRequest)
+     */
+    public boolean canService(final NegotiationContext negotiation, final PathSegmentMatch pathMatch) {
+        return negotiate(negotiation, pathMatch) == HttpStatus.OK;
+    }
+    
+    /**
+     * Determines if this RESTXQ Service can service the request,
+     * and if not, the reason why it cannot
+     * 
+     * Rules are checked in the same order as {@link #canService(org.exquery.http.HttpRequest)}
+     * 
+     * @param negotiation The Content Negotiation context of the HTTP Request
+     * @param pathMatch Receives the parameters captured from the request path,
+     * or null if they need not be captured
+     * 
+     * @return HttpStatus.OK if this Service can service the request, otherwise
+     * 405 Method Not Allowed, 404 Not Found, 415 Unsupported Media Type or 406 Not Acceptable
+     * for the first rule which does not apply
+     */
+    public HttpStatus negotiate(final NegotiationContext negotiation, final PathSegmentMatch pathMatch) {
+        final HttpRequest request = negotiation.getRequest();
         
         //1) check the method matches
-        if(getServicedMethods().contains(request.getMethod())) {
-            
-            //2) check the path matches
-            if(getResourceFunction().getPathAnnotation() != null && !getResourceFunction().getPathAnnotation().matchesPath(request.getPath())) {
-                return false;
-            }
+        if(!servicedMethods.contains(request.getMethod())) {
+            return HttpStatus.Method_Not_Allowed;
+        }
             
-            //3) check we can consume the request
-            if(!canServiceConsume(request)) {
-                //TODO HTTP 415 - in RESTXQServiceRegistry.findService, if no service matches we should be able to return a HTTP reason!
-                return false;
-            }
-                
-            //4) check we can produce the request
-            if(!canServiceProduce(request)) {
-                //TODO HTTP 406 - in RESTXQServiceRegistry.findService, if no service matches we should be able to return a HTTP reason!
-                return false;
-            }
-                
+        //2) check the path matches
+        if(!matchesPath(request.getPath(), pathMatch)) {
+            return HttpStatus.Not_Found;
+        }
+
+        //3) check we can consume the request
+        if(!canServiceConsume(negotiation)) {
+            return HttpStatus.Unsupported_Media_Type;
+        }
+
+        //4) check we can produce the request
+        if(!canServiceProduce(negotiation)) {
+            return HttpStatus.Not_Acceptable;
+        }
+
+        return HttpStatus.OK;
+    }
+    
+    private boolean matchesPath(final String path, final PathSegmentMatch pathMatch) {
+        final PathAnnotation pathAnnotation = getResourceFunction().getPathAnnotation();
+        if(pathAnnotation == null) {
             return true;
+        } else if(pathMatch != null && pathAnnotation instanceof PathAnnotationImpl) {
+            return ((PathAnnotationImpl)pathAnnotation).getPathSegmentMatcher().match(path, pathMatch);
+        } else {
+            return pathAnnotation.matchesPath(path);
         }
-        
-        return false;
     }
 
-    private boolean canServiceConsume(final HttpRequest request) {
-        if(getResourceFunction().getConsumesAnnotations().isEmpty()) {
-            
-            //if there are no constraints we can consume anything
+    private boolean canServiceConsume(final NegotiationContext negotiation) {
+        if(consumesAnything) {
             return true;
         } else {
             for(final ConsumesAnnotation consumesAnnotation : getResourceFunction().getConsumesAnnotations()) {
-                if(consumesAnnotation.matchesMediaType(request)) {
+                final boolean matches;
+                if(consumesAnnotation instanceof ConsumesAnnotationImpl) {
+                    matches = ((ConsumesAnnotationImpl)consumesAnnotation).matchesMediaType(negotiation.getContentTypeHeader());
+                } else {
+                    matches = consumesAnnotation.matchesMediaType(negotiation.getRequest());
+                }
+                
+                if(matches) {
                     return true;
                 }
             }
@@ -139,14 +228,19 @@ public abstract class AbstractRestXqService implements RestXqService {
         return false;
     }
     
-    private boolean canServiceProduce(final HttpRequest request) {
-        if(getResourceFunction().getProducesAnnotations().isEmpty()) {
-            
-            //if there are no constraints we can produce anything
+    private boolean canServiceProduce(final NegotiationContext negotiation) {
+        if(producesAnything) {
             return true;
         } else {
             for(final ProducesAnnotation producesAnnotation : getResourceFunction().getProducesAnnotations()) {
-                if(producesAnnotation.matchesMediaType(request)) {
+                final boolean matches;
+                if(producesAnnotation instanceof ProducesAnnotationImpl) {
+                    matches = ((ProducesAnnotationImpl)producesAnnotation).matchesMediaType(negotiation.getAcceptHeader());
+                } else {
+                    matches = producesAnnotation.matchesMediaType(negotiation.getRequest());
+                }
+                
+                if(matches) {
                     return true;
                 }
             }
@@ -177,6 +271,44 @@ public abstract class AbstractRestXqService implements RestXqService {
         return max;
     }
     
+    /**
+     * Calculates the maximum quality factor which the Accept header of the
+     * request gives to the Internet Media Types of the Produces Annotations
+     * 
+     * The quality factor of each Internet Media Type is only
+     * calculated once per request, and is shared between Services.
+     * 
+     * @param negotiation The Content Negotiation context of the HTTP Request
+     * 
+     * @return The maximum quality factor of the Produced Internet Media Types
+     * 
+     * @see #maxProducesQualityFactor(org.exquery.http.AcceptHeader)
+     */
+    public float maxProducesQualityFactor(final NegotiationContext negotiation) {
+        
+        //if there are no produces annotations, the quality factor is zero
+        float max = 0;
+        
+        for(final ProducesAnnotation producesAnnotation : getResourceFunction().getProducesAnnotations()) {
+            if(producesAnnotation instanceof ProducesAnnotationImpl) {
+                for(final String internetMediaType : ((ProducesAnnotationImpl)producesAnnotation).getInternetMediaTypes()) {
+                    final float qualityFactor = negotiation.getQualityFactor(internetMediaType);
+                    if(qualityFactor > max) {
+                        max = qualityFactor;
+                    }
+                }
+            } else if(negotiation.getAcceptHeader() != null) {
+                for(final Accept accept : negotiation.getAcceptHeader().getAccepts()) {
+                    if(accept.getQualityFactor() > max && producesAnnotation.matchesMediaType(accept.getMediaRange())) {
+                        max = accept.getQualityFactor();
+                    }
+                }
+            }
+        }
+        
+        return max;
+    }
+    
     /**
      * Service the request and send the response
      * 
@@ -184,26 +316,217 @@ public abstract class AbstractRestXqService implements RestXqService {
      */
     @Override
     public void service(final HttpRequest request, final HttpResponse response, final ResourceFunctionExecuter resourceFunctionExecuter, final RestXqServiceSerializer restXqServiceSerializer) throws RestXqServiceException {
+        service(request, response, resourceFunctionExecuter, restXqServiceSerializer, null);
+    }
+    
+    /**
+     * Service the request and send the response, using the
+     * parameters which were captured from the request path whilst routing
+     * 
+     * @param request The request to service
+     * @param response The response to write the service result to
+     * @param resourceFunctionExecuter The Executer to execute the Resource Function
+     * @param restXqServiceSerializer Serializer for serializing the response of the service
+     * @param pathMatch The parameters captured from the request path by {@link #canService(NegotiationContext, PathSegmentMatch)},
+     * or null if the parameters should be extracted from the request path
+     * 
+     * @throws RestXqServiceException If an unexpected error occured whilst processing the request
+     */
+    public void service(final HttpRequest request, final HttpResponse response, final ResourceFunctionExecuter resourceFunctionExecuter, final RestXqServiceSerializer restXqServiceSerializer, final PathSegmentMatch pathMatch) throws RestXqServiceException {
+        
+        final List<TypedArgumentValue> typedArgumentValues;
+        try {
+            typedArgumentValues = bindArguments(request, pathMatch);
+        } catch(final RestXqServiceException rqse) {
+            if(rqse.getHttpStatus() == HttpStatus.Bad_Request) {
+                //the request values do not suit the function, so do not invoke it
+                response.setStatus(HttpStatus.Bad_Request, rqse.getMessage());
+                return;
+            }
+            throw rqse;
+        }
         
-        final Set<TypedArgumentValue> typedArgumentValues = extractParameters(request);
+        //answer a conditional GET from cheap validators, before the resource function is executed
+        final boolean conditionalMethod = request.getMethod() == HttpMethod.GET || request.getMethod() == HttpMethod.HEAD;
+        ResourceValidators validators = null;
+        if(conditionalMethod) {
+            final ResourceFunctionValidator validator = getResourceFunctionValidator();
+            if(validator != null) {
+                validators = validator.getValidators(getResourceFunction(), request);
+                if(validators != null) {
+                    setValidatorHeaders(validators, response);
+                    if(ConditionalRequest.isNotModified(request, validators.getEntityTag(), validators.getLastModified())) {
+                        response.setStatus(HttpStatus.Not_Modified);
+                        return;
+                    }
+                }
+            }
+        }
+        
+        //otherwise the entity tag of a GET is the hash of its body
+        final int entityTagBodyLimit = getEntityTagBodyLimit();
+        final EntityTagHttpResponse entityTagResponse;
+        if(validators == null && request.getMethod() == HttpMethod.GET && entityTagBodyLimit > 0) {
+            entityTagResponse = new EntityTagHttpResponse(request, response, entityTagBodyLimit);
+        } else {
+            entityTagResponse = null;
+        }
+        final HttpResponse serviceResponse = entityTagResponse != null ? entityTagResponse : response;
+        
+        //the response of a GET to a function with %rest:cache may come from the response cache
+        final CacheAnnotation cacheAnnotation = request.getMethod() == HttpMethod.GET ? getCacheAnnotation() : null;
+        final RestXqResponseCache responseCache = cacheAnnotation != null ? getResponseCache() : null;
+        final RestXqResponseCache.Key cacheKey = responseCache != null ? responseCache.key(getResourceFunction(), cacheAnnotation, typedArgumentValues, request) : null;
+        if(cacheKey != null) {
+            responseCache.service(cacheKey, serviceResponse, new RestXqResponseCache.ResponseProducer() {
+                @Override
+                public void produce(final HttpResponse producerResponse) throws RestXqServiceException {
+                    executeAndSerialize(typedArgumentValues, request, producerResponse, resourceFunctionExecuter, restXqServiceSerializer);
+                }
+            });
+        } else {
+            executeAndSerialize(typedArgumentValues, request, serviceResponse, resourceFunctionExecuter, restXqServiceSerializer);
+        }
         
+        if(entityTagResponse != null) {
+            try {
+                entityTagResponse.finish();
+            } catch(final IOException ioe) {
+                throw new RestXqServiceException("Error while writing response: " + ioe.toString(), ioe);
+            }
+        }
+    }
+    
+    private void executeAndSerialize(final List<TypedArgumentValue> typedArgumentValues, final HttpRequest request, final HttpResponse response, final ResourceFunctionExecuter resourceFunctionExecuter, final RestXqServiceSerializer restXqServiceSerializer) throws RestXqServiceException {
         final Sequence result = resourceFunctionExecuter.execute(getResourceFunction(), typedArgumentValues, request);
         
-        restXqServiceSerializer.serialize(result, getResourceFunction().getSerializationAnnotations(), response);
+        try {
+            serialize(result, request, response, restXqServiceSerializer);
+        } finally {
+            //release a streaming result, even if it was not fully serialized
+            if(result instanceof StreamingSequence) {
+                ((StreamingSequence)result).close();
+            }
+        }
+    }
+    
+    private void serialize(final Sequence result, final HttpRequest request, final HttpResponse response, final RestXqServiceSerializer restXqServiceSerializer) throws RestXqServiceException {
+        if(restXqServiceSerializer instanceof AbstractRestXqServiceSerializer) {
+            final AbstractRestXqServiceSerializer serializer = (AbstractRestXqServiceSerializer)restXqServiceSerializer;
+            serializer.serialize(result, getSerializationTemplate(serializer), request, response);
+        } else {
+            restXqServiceSerializer.serialize(result, getResourceFunction().getSerializationAnnotations(), response);
+        }
+    }
+    
+    private void setValidatorHeaders(final ResourceValidators validators, final HttpResponse response) {
+        if(validators.getEntityTag() != null) {
+            response.setHeader(HttpHeader.ETAG.getHeaderName(), validators.getEntityTag());
+        }
+        if(validators.getLastModified() > -1) {
+            response.setHeader(HttpHeader.LAST_MODIFIED.getHeaderName(), ConditionalRequest.formatHttpDate(validators.getLastModified()));
+        }
+    }
+    
+    /**
+     * Gets the cheap validators of the Resource Function, which are consulted
+     * to answer a conditional GET before the Resource Function is executed
+     * 
+     * (can be overridden!)
+     * 
+     * @return The validator, or null if the Resource Function has no cheap validators,
+     * which is the default
+     * 
+     * @see ModuleVersionValidator
+     */
+    protected ResourceFunctionValidator getResourceFunctionValidator() {
+        return null;
+    }
+    
+    /**
+     * Gets the Cache Annotation of the Resource Function
+     * 
+     * Cache Annotations are only known to {@link ResourceFunctionImpl},
+     * other implementations of Resource Function are never cached.
+     * 
+     * @return The Cache Annotation, or null if the Resource Function has none
+     */
+    private CacheAnnotation getCacheAnnotation() {
+        if(getResourceFunction() instanceof ResourceFunctionImpl) {
+            return ((ResourceFunctionImpl)getResourceFunction()).getCacheAnnotation();
+        }
+        return null;
+    }
+    
+    /**
+     * Gets the cache of the responses of Resource Functions
+     * which have a Cache Annotation, i.e. %rest:cache
+     * 
+     * (can be overridden!)
+     * 
+     * @return The response cache, or null if responses are not cached,
+     * which is the default
+     */
+    protected RestXqResponseCache getResponseCache() {
+        return null;
+    }
+    
+    /**
+     * Gets the maximum size of the body of a GET response which is hashed
+     * to give its Entity Tag, when there are no cheap validators
+     * 
+     * Bodies up to this size are held back until they are complete,
+     * so that 304 Not Modified can be sent instead if they are unchanged,
+     * which delays the first byte of the response and every body is hashed.
+     * Hashing is therefore disabled by default, implementations enable it
+     * by overriding this to return a limit, for example
+     * {@link #RECOMMENDED_ENTITY_TAG_BODY_LIMIT}.
+     * 
+     * (can be overridden!)
+     * 
+     * @return The maximum size in bytes, or 0 to disable hashing the body,
+     * which is the default
+     */
+    protected int getEntityTagBodyLimit() {
+        return 0;
+    }
+
+    /**
+     * Gets the Serialization Template of the Resource Function
+     * 
+     * The template is created once by the serializer and then reused, so that
+     * the Serialization Annotations are not processed for every request.
+     * 
+     * @param serializer The serializer which will serialize the result of the Resource Function
+     * 
+     * @return The Serialization Template for the serializer
+     */
+    protected SerializationTemplate getSerializationTemplate(final AbstractRestXqServiceSerializer serializer) {
+        SerializationTemplateHolder holder = serializationTemplateHolder;
+        if(holder == null || holder.serializer != serializer) {
+            //the default serialization properties may differ between serializers
+            holder = new SerializationTemplateHolder(serializer, serializer.createSerializationTemplate(getResourceFunction().getSerializationAnnotations()));
+            serializationTemplateHolder = holder;
+        }
+        return holder.serializationTemplate;
+    }
+    
+    private final static class SerializationTemplateHolder {
+        private final AbstractRestXqServiceSerializer serializer;
+        private final SerializationTemplate serializationTemplate;
+
+        public SerializationTemplateHolder(final AbstractRestXqServiceSerializer serializer, final SerializationTemplate serializationTemplate) {
+            this.serializer = serializer;
+            this.serializationTemplate = serializationTemplate;
+        }
     }
 
     /**
      * Gets the HTTP Method Annotations which potentially have Body Content
      * 
-     * @return The HTTP Method Annotations with a potential body parameter
+     * @return The immutable set of HTTP Method Annotations with a potential body parameter
      */
     protected Set<HttpMethodWithBodyAnnotation> getBodyContentAnnotations() {
-        final Set<HttpMethodWithBodyAnnotation> bodyContentAnnotations = new HashSet<HttpMethodWithBodyAnnotation>();
-        for(final HttpMethodAnnotation methodAnnotation : getResourceFunction().getHttpMethodAnnotations()) {
-            if(methodAnnotation instanceof HttpMethodWithBodyAnnotation) {
-                bodyContentAnnotations.add((HttpMethodWithBodyAnnotation)methodAnnotation);
-            }
-        }
         return bodyContentAnnotations;
     }
     
@@ -211,75 +534,46 @@ public abstract class AbstractRestXqService implements RestXqService {
     /**
      * Extract Annotated Parameters from the Request
      * 
+     * This is no longer called by {@link #service(HttpRequest, HttpResponse, ResourceFunctionExecuter, RestXqServiceSerializer)},
+     * so overriding it has no effect on the arguments passed to the Resource Function.
+     * 
      * @param request The HTTP Request to process
      *
      * @return The Map of Parameters to values, the key is the parameter
      * name and the value is the sequence of values extracted from the request
      *
      * @throws RestXqServiceException If an error occurred whilst processing the request
+     * 
+     * @deprecated Override {@link #bindArguments(HttpRequest, PathSegmentMatch)} instead
      */
+    @Deprecated
     protected Set<TypedArgumentValue> extractParameters(final HttpRequest request) throws RestXqServiceException {
-        
-        final Set<TypedArgumentValue> paramNameValues = new HashSet<TypedArgumentValue>();
-        
-        //extract the param mappings for the Path Annotation
-        if(getResourceFunction().getPathAnnotation() != null) {
-            for(final Entry<String, String> pathParameter : getResourceFunction().getPathAnnotation().extractPathParameters(request.getPath()).entrySet()) {
-
-                paramNameValues.add(new TypedArgumentValue<String>(){
-                    @Override
-                    public String getArgumentName() {
-                        return pathParameter.getKey();
-                    }
-
-                    @Override
-                    public Sequence<String> getTypedValue() {
-                        return new SequenceImpl<String>(new StringTypedValue(pathParameter.getValue()));
-                    }
-                });
-            }
-        }
-        
-        //extract the param mappings for the Body Content Annotations
-        if(!getBodyContentAnnotations().isEmpty()) {
-            final Sequence requestBody = extractRequestBody(request);
-            for(final HttpMethodWithBodyAnnotation bodyContentAnnotation : getBodyContentAnnotations()) {
-                paramNameValues.add(new TypedArgumentValue(){
-                    @Override
-                    public String getArgumentName() {
-                        return bodyContentAnnotation.getBodyParameterName();
-                    }
-
-                    @Override
-                    public Sequence getTypedValue() {
-                        if(requestBody != null) {
-                            return requestBody;
-                        } else {
-                            return Sequence.EMPTY_SEQUENCE;
-                        }
-                    }
-                });
-            }
-        }
-        
-        //extract the param mappings for Param Annotations
-        for(final ParameterAnnotation parameterAnnotation : getResourceFunction().getParameterAnnotations()) {
-            final TypedArgumentValue typedArgumentValue = parameterAnnotation.extractParameter(request);
-            paramNameValues.add(new TypedArgumentValue(){
-
-                @Override
-                public String getArgumentName() {
-                    return typedArgumentValue.getArgumentName();
-                }
-
-                @Override
-                public Sequence getTypedValue() {
-                    return typedArgumentValue.getTypedValue();
-                }
-            });
-        }
-        
-        return paramNameValues;
+        return new LinkedHashSet<TypedArgumentValue>(bindArguments(request, null));
+    }
+    
+    /**
+     * Binds the Annotated Parameters from the Request to the
+     * arguments of the Resource Function
+     * 
+     * Uses the binding plan compiled when this Service was constructed,
+     * when every argument of the Resource Function is annotated, the value
+     * at index i is for the argument at position i of the Function Signature.
+     * 
+     * This is how {@link #service(HttpRequest, HttpResponse, ResourceFunctionExecuter, RestXqServiceSerializer)}
+     * obtains the arguments of the Resource Function for every request.
+     * 
+     * (can be overridden!)
+     * 
+     * @param request The HTTP Request to process
+     * @param pathMatch The parameters captured from the request path whilst routing,
+     * or null if the parameters should be extracted from the request path
+     *
+     * @return The values of the arguments, ordered by the position of their argument
+     *
+     * @throws RestXqServiceException If an error occurred whilst processing the request
+     */
+    protected List<TypedArgumentValue> bindArguments(final HttpRequest request, final PathSegmentMatch pathMatch) throws RestXqServiceException {
+        return argumentBindingPlan.bind(this, request, pathMatch);
     }
     
     /**
@@ -0,0 +1,282 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.annotation.HttpMethodWithBodyAnnotation;
+import org.exquery.restxq.annotation.ParameterAnnotation;
+import org.exquery.restxq.annotation.PathAnnotation;
+import org.exquery.restxq.impl.annotation.AbstractParameterAnnotation;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+import org.exquery.restxq.impl.annotation.PathSegmentMatch;
+import org.exquery.restxq.impl.annotation.PathSegmentMatcher;
+import org.exquery.xdm.type.SingletonSequence;
+import org.exquery.xdm.type.StringTypedValue;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.TypedArgumentValue;
+
+/**
+ * Plan for binding the values extracted from a HTTP Request
+ * to the arguments of a Resource Function
+ * 
+ * The plan is compiled once for a Resource Function, it holds a slot for each
+ * annotated argument describing where its value is extracted from. The slots are
+ * ordered by the position of the argument in the Function Signature, so that
+ * when every argument is annotated the value at index i is for argument i.
+ * Each request then fills a fixed-size array of values in that order,
+ * coercing each value to the declared type of its argument.
+ * 
+ * Instances are immutable and thread-safe.
+ *
+ * @author Adam Retter
+ */
+class ArgumentBindingPlan {
+    
+    private final static int PATH_PARAMETER = 0;
+    private final static int REQUEST_BODY = 1;
+    private final static int PARAMETER_ANNOTATION = 2;
+    
+    private final PathAnnotation pathAnnotation;
+    private final PathSegmentMatcher pathSegmentMatcher;
+    private final Slot[] slots;
+    private final Map<String, ArgumentCoercion> coercions = new HashMap<String, ArgumentCoercion>();
+
+    /**
+     * @param resourceFunction The Resource Function to bind arguments for
+     * @param bodyContentAnnotations The HTTP Method Annotations of the Resource Function with a body parameter
+     */
+    public ArgumentBindingPlan(final ResourceFunction resourceFunction, final Set<HttpMethodWithBodyAnnotation> bodyContentAnnotations) {
+        
+        //position of each argument in the function signature, and the coercion to its declared type
+        final Map<String, Integer> argumentPositions = new HashMap<String, Integer>();
+        if(resourceFunction.getFunctionSignature() != null && resourceFunction.getFunctionSignature().getArguments() != null) {
+            final FunctionArgument[] arguments = resourceFunction.getFunctionSignature().getArguments();
+            for(int i = 0; i < arguments.length; i++) {
+                argumentPositions.put(arguments[i].getName(), i);
+                
+                final ArgumentCoercion coercion = ArgumentCoercion.forArgument(arguments[i]);
+                if(coercion != null) {
+                    coercions.put(arguments[i].getName(), coercion);
+                }
+            }
+        }
+        
+        final List<Slot> slotList = new ArrayList<Slot>();
+        
+        //the Path Annotation
+        this.pathAnnotation = resourceFunction.getPathAnnotation();
+        if(pathAnnotation instanceof PathAnnotationImpl) {
+            this.pathSegmentMatcher = ((PathAnnotationImpl)pathAnnotation).getPathSegmentMatcher();
+            for(int i = 0; i < pathSegmentMatcher.getParameterCount(); i++) {
+                final String argumentName = pathSegmentMatcher.getParameterName(i);
+                slotList.add(new Slot(position(argumentPositions, argumentName), PATH_PARAMETER, argumentName, i, null, coercions.get(argumentName)));
+            }
+        } else {
+            //path parameters of other path annotations can only be found by name when the request is bound
+            this.pathSegmentMatcher = null;
+        }
+        
+        //the Body Content Annotations
+        for(final HttpMethodWithBodyAnnotation bodyContentAnnotation : bodyContentAnnotations) {
+            final String argumentName = bodyContentAnnotation.getBodyParameterName();
+            //the request body is passed as is
+            slotList.add(new Slot(position(argumentPositions, argumentName), REQUEST_BODY, argumentName, -1, null, null));
+        }
+        
+        //the Param Annotations
+        for(final ParameterAnnotation parameterAnnotation : resourceFunction.getParameterAnnotations()) {
+            final int position;
+            final ArgumentCoercion coercion;
+            if(parameterAnnotation instanceof AbstractParameterAnnotation) {
+                final String argumentName = ((AbstractParameterAnnotation)parameterAnnotation).getFunctionArgumentName();
+                position = position(argumentPositions, argumentName);
+                coercion = coercions.get(argumentName);
+            } else {
+                position = Integer.MAX_VALUE;
+                coercion = null;
+            }
+            slotList.add(new Slot(position, PARAMETER_ANNOTATION, null, -1, parameterAnnotation, coercion));
+        }
+        
+        //order by argument position, slots of unknown position are last
+        Collections.sort(slotList);
+        this.slots = slotList.toArray(new Slot[slotList.size()]);
+    }
+    
+    private static int position(final Map<String, Integer> argumentPositions, final String argumentName) {
+        final Integer position = argumentPositions.get(argumentName);
+        return position == null ? Integer.MAX_VALUE : position;
+    }
+    
+    /**
+     * Binds the values extracted from the HTTP Request to the arguments
+     * 
+     * @param service The Service whose Resource Function is being executed
+     * @param request The HTTP Request to extract the values from
+     * @param pathMatch The parameters captured from the request path whilst routing,
+     * or null if the parameters should be extracted from the request path
+     * 
+     * @return The argument values, ordered by the position of their argument
+     * and coerced to the declared type of their argument
+     * 
+     * @throws RestXqServiceException If an error occurred whilst extracting the values,
+     * or with the HTTP Status 400 (Bad Request) if a value could not be coerced
+     */
+    public List<TypedArgumentValue> bind(final AbstractRestXqService service, final HttpRequest request, final PathSegmentMatch pathMatch) throws RestXqServiceException {
+        
+        //captures of the path, if they were not made whilst routing
+        PathSegmentMatch captures = pathMatch;
+        if(captures == null && pathSegmentMatcher != null) {
+            captures = new PathSegmentMatch();
+            if(!pathSegmentMatcher.match(request.getPath(), captures)) {
+                //the path does not apply, so there are no path parameters
+                captures = null;
+            }
+        }
+        
+        final TypedArgumentValue[] values = new TypedArgumentValue[slots.length];
+        int bound = 0;
+        Sequence<?> requestBody = null;
+        
+        for(final Slot slot : slots) {
+            switch(slot.kind) {
+                case PATH_PARAMETER:
+                    if(captures != null) {
+                        final StringTypedValue pathParameterValue = new StringTypedValue(captures.getParameterValue(slot.pathParameter));
+                        if(slot.coercion == null) {
+                            values[bound++] = new ArgumentValue<String>(slot.argumentName, new SingletonSequence<String>(pathParameterValue));
+                        } else {
+                            values[bound++] = argumentValue(slot.argumentName, slot.coercion.coerce(pathParameterValue));
+                        }
+                    }
+                    break;
+                    
+                case REQUEST_BODY:
+                    if(requestBody == null) {
+                        //extracted once for all body parameters
+                        final Sequence extractedRequestBody = service.extractRequestBody(request);
+                        requestBody = extractedRequestBody != null ? extractedRequestBody : Sequence.EMPTY_SEQUENCE;
+                    }
+                    values[bound++] = argumentValue(slot.argumentName, requestBody);
+                    break;
+                    
+                case PARAMETER_ANNOTATION:
+                    final TypedArgumentValue parameterValue = slot.parameterAnnotation.extractParameter(request);
+                    if(slot.coercion == null) {
+                        values[bound++] = parameterValue;
+                    } else {
+                        values[bound++] = argumentValue(parameterValue.getArgumentName(), slot.coercion.coerce(parameterValue.getTypedValue()));
+                    }
+                    break;
+            }
+        }
+        
+        final List<TypedArgumentValue> arguments = Arrays.asList(bound == values.length ? values : Arrays.copyOf(values, bound));
+        
+        if(pathAnnotation == null || pathSegmentMatcher != null) {
+            return arguments;
+        } else {
+            //path parameters of another path annotation implementation
+            final List<TypedArgumentValue> allArguments = new ArrayList<TypedArgumentValue>();
+            for(final Entry<String, String> pathParameter : pathAnnotation.extractPathParameters(request.getPath()).entrySet()) {
+                final StringTypedValue pathParameterValue = new StringTypedValue(pathParameter.getValue());
+                final ArgumentCoercion coercion = coercions.get(pathParameter.getKey());
+                if(coercion == null) {
+                    allArguments.add(new ArgumentValue<String>(pathParameter.getKey(), new SingletonSequence<String>(pathParameterValue)));
+                } else {
+                    allArguments.add(argumentValue(pathParameter.getKey(), coercion.coerce(pathParameterValue)));
+                }
+            }
+            allArguments.addAll(arguments);
+            return allArguments;
+        }
+    }
+    
+    /**
+     * Where the value for an argument is extracted from
+     */
+    private static class Slot implements Comparable<Slot> {
+        final int position;
+        final int kind;
+        final String argumentName;
+        final int pathParameter;
+        final ParameterAnnotation parameterAnnotation;
+        final ArgumentCoercion coercion;
+
+        public Slot(final int position, final int kind, final String argumentName, final int pathParameter, final ParameterAnnotation parameterAnnotation, final ArgumentCoercion coercion) {
+            this.position = position;
+            this.kind = kind;
+            this.argumentName = argumentName;
+            this.pathParameter = pathParameter;
+            this.parameterAnnotation = parameterAnnotation;
+            this.coercion = coercion;
+        }
+
+        @Override
+        public int compareTo(final Slot other) {
+            return position < other.position ? -1 : (position == other.position ? 0 : 1);
+        }
+    }
+    
+    private static <T> TypedArgumentValue<T> argumentValue(final String argumentName, final Sequence<T> typedValue) {
+        return new ArgumentValue<T>(argumentName, typedValue);
+    }
+    
+    /**
+     * A value extracted from the request for a function argument
+     */
+    private static class ArgumentValue<T> implements TypedArgumentValue<T> {
+        private final String argumentName;
+        private final Sequence<T> typedValue;
+
+        public ArgumentValue(final String argumentName, final Sequence<T> typedValue) {
+            this.argumentName = argumentName;
+            this.typedValue = typedValue;
+        }
+
+        @Override
+        public String getArgumentName() {
+            return argumentName;
+        }
+
+        @Override
+        public Sequence<T> getTypedValue() {
+            return typedValue;
+        }
+    }
+}
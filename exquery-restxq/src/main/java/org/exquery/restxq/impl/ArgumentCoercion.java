@@ -0,0 +1,192 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.xdm.type.AtomicValueConverter;
+import org.exquery.xdm.type.ArraySequence;
+import org.exquery.xdm.type.SingletonSequence;
+import org.exquery.xdm.type.TypeConversionException;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Coerces the values extracted from a HTTP Request to the
+ * declared Type and Cardinality of a Function Argument
+ * 
+ * The converter for the declared Type is chosen once, when
+ * the argument binding plan is compiled. String values are converted,
+ * values of any other type (e.g. binary form fields) are passed as is.
+ * 
+ * Instances are immutable and thread-safe.
+ *
+ * @author Adam Retter
+ */
+class ArgumentCoercion {
+    
+    private final String argumentName;
+    private final Cardinality cardinality;
+    private final AtomicValueConverter converter;
+
+    private ArgumentCoercion(final String argumentName, final Cardinality cardinality, final AtomicValueConverter converter) {
+        this.argumentName = argumentName;
+        this.cardinality = cardinality;
+        this.converter = converter;
+    }
+    
+    /**
+     * Gets the Coercion for a Function Argument
+     * 
+     * @param argument The Function Argument
+     * 
+     * @return The Coercion, or null if values need
+     * not be coerced for the Function Argument
+     */
+    public static ArgumentCoercion forArgument(final FunctionArgument argument) {
+        AtomicValueConverter converter = AtomicValueConverter.forArgument(argument);
+        if(converter != null && converter.getType() == Type.STRING) {
+            //the extracted values are already strings
+            converter = null;
+        }
+        
+        final Cardinality cardinality = argument.getCardinality();
+        if(converter == null && (cardinality == null || cardinality == Cardinality.ZERO_OR_MORE)) {
+            return null;
+        }
+        
+        return new ArgumentCoercion(argument.getName(), cardinality, converter);
+    }
+    
+    /**
+     * Coerces the values for the Function Argument
+     * 
+     * @param values The values extracted from the HTTP Request
+     * 
+     * @return The coerced values
+     * 
+     * @throws RestXqServiceException with the HTTP Status 400 (Bad Request),
+     * if the values cannot be coerced to the Type or Cardinality of the Function Argument
+     */
+    public Sequence<?> coerce(final Sequence<?> values) throws RestXqServiceException {
+        final Sequence<?> extracted = values == null ? Sequence.EMPTY_SEQUENCE : values;
+        
+        final Sequence<?> coerced;
+        final int count;
+        if(converter == null) {
+            count = count(extracted);
+            coerced = extracted;
+        } else {
+            final ArraySequence.Builder<Object> builder = new ArraySequence.Builder<Object>(cardinality == null ? Cardinality.ZERO_OR_MORE : cardinality);
+            int i = 0;
+            for(final TypedValue<?> value : extracted) {
+                builder.add(asObjectValue(convert(value)));
+                i++;
+            }
+            count = i;
+            coerced = builder.build();
+        }
+        
+        if(cardinality != null && !cardinality.hasRequiredCardinality(cardinalityOf(count))) {
+            throw new RestXqServiceException("The function argument $" + argumentName + " requires the cardinality " + cardinality + ", but " + count + " value(s) were provided", HttpStatus.Bad_Request);
+        }
+        
+        return coerced;
+    }
+    
+    /**
+     * Coerces a single value for the Function Argument
+     * 
+     * @param value The value extracted from the HTTP Request
+     * 
+     * @return The coerced value
+     * 
+     * @throws RestXqServiceException with the HTTP Status 400 (Bad Request),
+     * if the value cannot be coerced to the Type or Cardinality of the Function Argument
+     */
+    public Sequence<?> coerce(final TypedValue<String> value) throws RestXqServiceException {
+        if(cardinality != null && !cardinality.hasRequiredCardinality(Cardinality.ONE)) {
+            throw new RestXqServiceException("The function argument $" + argumentName + " requires the cardinality " + cardinality + ", but 1 value(s) were provided", HttpStatus.Bad_Request);
+        }
+        
+        if(converter == null) {
+            return new SingletonSequence<String>(value);
+        } else {
+            return singleton(convert(value));
+        }
+    }
+    
+    private static <T> Sequence<T> singleton(final TypedValue<T> value) {
+        return new SingletonSequence<T>(value);
+    }
+    
+    /**
+     * Views a value as a value of Object, so that values whose
+     * type is only known at runtime can be built into one Sequence
+     */
+    @SuppressWarnings("unchecked")
+    private static TypedValue<Object> asObjectValue(final TypedValue<?> value) {
+        //safe, as a TypedValue only ever produces its value
+        return (TypedValue<Object>)value;
+    }
+    
+    private TypedValue<?> convert(final TypedValue<?> value) throws RestXqServiceException {
+        if(value.getType() != Type.STRING || !(value.getValue() instanceof String)) {
+            return value;
+        }
+        
+        try {
+            return converter.convert((String)value.getValue());
+        } catch(final TypeConversionException tce) {
+            throw new RestXqServiceException("The function argument $" + argumentName + " requires the type " + converter.getType() + ": " + tce.getMessage(), HttpStatus.Bad_Request);
+        }
+    }
+    
+    private static int count(final Sequence<?> sequence) {
+        int count = 0;
+        for(final TypedValue<?> value : sequence) {
+            count++;
+        }
+        return count;
+    }
+    
+    private static Cardinality cardinalityOf(final int count) {
+        switch(count) {
+            case 0:
+                return Cardinality.ZERO;
+            
+            case 1:
+                return Cardinality.ONE;
+                
+            default:
+                return Cardinality.MANY;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+
+/**
+ * HTTP Response which records what is written to it,
+ * so that it can be stored in the {@link RestXqResponseCache}
+ * 
+ * Everything is passed through to the underlying response as it is written.
+ * The response is not recorded if its status is not 200 OK, if it sets
+ * a cookie, or if its body is larger than the limit.
+ *
+ * @author Adam Retter
+ */
+class CachingHttpResponse implements HttpResponse {
+    
+    private final static String SET_COOKIE = "Set-Cookie";
+    
+    private final HttpResponse response;
+    private final int limit;
+    
+    private final List<String[]> headers = new ArrayList<String[]>();
+    private String contentType = null;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean cacheable = true;
+    private OutputStream os = null;
+    
+    /**
+     * @param response The HTTP Response to pass everything through to
+     * @param limit The maximum size in bytes of a body which is recorded
+     */
+    public CachingHttpResponse(final HttpResponse response, final int limit) {
+        this.response = response;
+        this.limit = limit;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if(os == null) {
+            os = new RecordingOutputStream(response.getOutputStream());
+        }
+        return os;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return response.isCommitted();
+    }
+
+    @Override
+    public void setHeader(final String httpHeaderName, final String value) {
+        if(httpHeaderName.equalsIgnoreCase(SET_COOKIE)) {
+            cacheable = false;
+        }
+        headers.add(new String[] { httpHeaderName, value });
+        response.setHeader(httpHeaderName, value);
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status, final String reason) {
+        if(status != HttpStatus.OK) {
+            cacheable = false;
+        }
+        response.setStatus(status, reason);
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status) {
+        if(status != HttpStatus.OK) {
+            cacheable = false;
+        }
+        response.setStatus(status);
+    }
+
+    @Override
+    public boolean containsHeader(final String httpHeaderName) {
+        return response.containsHeader(httpHeaderName);
+    }
+
+    @Override
+    public void setContentType(final String contentType) {
+        this.contentType = contentType;
+        response.setContentType(contentType);
+    }
+    
+    /**
+     * Gets the recorded response
+     * 
+     * @param expires The time at which the recorded response expires
+     * 
+     * @return The recorded response, or null if the response cannot be cached
+     */
+    public RestXqResponseCache.CachedResponse toCachedResponse(final long expires) {
+        if(!cacheable || (os == null && response.isCommitted())) {
+            //a response written directly to the underlying response was not recorded
+            return null;
+        }
+        return new RestXqResponseCache.CachedResponse(headers, contentType, body.toByteArray(), expires);
+    }
+    
+    private class RecordingOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        public RecordingOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            
+            if(cacheable) {
+                if(body.size() + len > limit) {
+                    cacheable = false;
+                    body.reset();
+                } else {
+                    body.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
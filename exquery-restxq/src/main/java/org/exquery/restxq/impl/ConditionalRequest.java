@@ -0,0 +1,145 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
+
+/**
+ * Evaluation of the preconditions of a conditional GET,
+ * i.e. If-None-Match and If-Modified-Since
+ *
+ * @author Adam Retter
+ */
+final class ConditionalRequest {
+    
+    private final static String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private final static TimeZone GMT = TimeZone.getTimeZone("GMT");
+    private final static String WEAK_PREFIX = "W/";
+    
+    private ConditionalRequest() {
+    }
+    
+    /**
+     * Determines if the representation held by the client is still current
+     * 
+     * If-None-Match takes precedence over If-Modified-Since
+     * 
+     * @param request The HTTP Request
+     * @param entityTag The Entity Tag of the current representation, or null
+     * @param lastModified The Last Modified time of the current representation, or -1
+     * 
+     * @return true if the request can be answered with 304 Not Modified
+     */
+    static boolean isNotModified(final HttpRequest request, final String entityTag, final long lastModified) {
+        final String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH.getHeaderName());
+        if(ifNoneMatch != null) {
+            return entityTag != null && matchesEntityTag(ifNoneMatch, entityTag);
+        }
+        
+        if(lastModified > -1) {
+            final String ifModifiedSince = request.getHeader(HttpHeader.IF_MODIFIED_SINCE.getHeaderName());
+            if(ifModifiedSince != null) {
+                final long since = parseHttpDate(ifModifiedSince);
+                
+                //http dates have a resolution of one second
+                return since > -1 && lastModified / 1000 <= since / 1000;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Determines if an If-None-Match header matches an Entity Tag
+     * using the weak comparison function
+     * 
+     * @param ifNoneMatch The value of the If-None-Match header
+     * @param entityTag The Entity Tag
+     * 
+     * @return true if the Entity Tag matches
+     */
+    static boolean matchesEntityTag(final String ifNoneMatch, final String entityTag) {
+        if(ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        
+        final String opaqueTag = opaqueTag(entityTag);
+        for(final String candidate : ifNoneMatch.split(",")) {
+            if(opaqueTag(candidate.trim()).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String opaqueTag(final String entityTag) {
+        if(entityTag.startsWith(WEAK_PREFIX)) {
+            return entityTag.substring(WEAK_PREFIX.length());
+        } else {
+            return entityTag;
+        }
+    }
+    
+    /**
+     * Formats a time as a HTTP date
+     * 
+     * @param time The time in milliseconds since the epoch
+     * 
+     * @return The HTTP date, e.g. Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    static String formatHttpDate(final long time) {
+        return httpDateFormat().format(new Date(time));
+    }
+    
+    /**
+     * Parses a HTTP date
+     * 
+     * @param httpDate The HTTP date, e.g. Sun, 06 Nov 1994 08:49:37 GMT
+     * 
+     * @return The time in milliseconds since the epoch, or -1 if the date is invalid
+     */
+    static long parseHttpDate(final String httpDate) {
+        try {
+            return httpDateFormat().parse(httpDate.trim()).getTime();
+        } catch(final ParseException pe) {
+            return -1;
+        }
+    }
+    
+    private static SimpleDateFormat httpDateFormat() {
+        //SimpleDateFormat is not thread safe
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(GMT);
+        return format;
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+
+/**
+ * HTTP Response whose Entity Tag is the hash of its body
+ * 
+ * The body is hashed whilst it is written and is held back until
+ * {@link #finish()}, if the body then matches the If-None-Match header of
+ * the request, 304 Not Modified is sent instead of the body. Bodies larger
+ * than the limit are sent as they are written and are given no Entity Tag,
+ * as are responses whose status is not 200 OK. An Entity Tag set by the
+ * Resource Function, for example by rest:response, is used instead of the hash.
+ *
+ * @author Adam Retter
+ */
+class EntityTagHttpResponse implements HttpResponse {
+    
+    private final static String DIGEST_ALGORITHM = "SHA-1";
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private final HttpRequest request;
+    private final HttpResponse response;
+    private final int limit;
+    
+    private final MessageDigest digest;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private HttpStatus status = null;
+    private String contentLength = null;
+    private String entityTag = null;
+    private boolean finished = false;
+    
+    private OutputStream out = null;
+    private OutputStream os = null;
+    
+    /**
+     * @param request The HTTP Request
+     * @param response The HTTP Response to write the body to
+     * @param limit The maximum size in bytes of a body which is hashed
+     */
+    public EntityTagHttpResponse(final HttpRequest request, final HttpResponse response, final int limit) {
+        this.request = request;
+        this.response = response;
+        this.limit = limit;
+        try {
+            this.digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch(final NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae.getMessage(), nsae);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if(os == null) {
+            os = new HashingOutputStream();
+        }
+        return os;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return response.isCommitted();
+    }
+
+    @Override
+    public void setHeader(final String httpHeaderName, final String value) {
+        if(httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_LENGTH.getHeaderName()) && out == null) {
+            contentLength = value;
+        } else {
+            if(httpHeaderName.equalsIgnoreCase(HttpHeader.ETAG.getHeaderName())) {
+                entityTag = value;
+            }
+            response.setHeader(httpHeaderName, value);
+        }
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status, final String reason) {
+        this.status = status;
+        response.setStatus(status, reason);
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status) {
+        this.status = status;
+        response.setStatus(status);
+    }
+
+    @Override
+    public boolean containsHeader(final String httpHeaderName) {
+        if(contentLength != null && httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_LENGTH.getHeaderName())) {
+            return true;
+        }
+        return response.containsHeader(httpHeaderName);
+    }
+
+    @Override
+    public void setContentType(final String contentType) {
+        response.setContentType(contentType);
+    }
+    
+    /**
+     * Sets the Entity Tag and sends either the body
+     * or 304 Not Modified if the body has not changed
+     * 
+     * @throws IOException If the body cannot be written
+     */
+    public void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        
+        if(out != null) {
+            //the body was too large and has already been sent
+            return;
+        }
+        
+        if(buffer.size() == 0 && response.isCommitted()) {
+            //the Resource Function wrote directly to the response
+            return;
+        }
+        
+        if(status == null || status == HttpStatus.OK) {
+            if(entityTag == null) {
+                entityTag = "W/\"" + toHex(digest.digest()) + "\"";
+                response.setHeader(HttpHeader.ETAG.getHeaderName(), entityTag);
+            }
+            
+            if(ConditionalRequest.isNotModified(request, entityTag, -1)) {
+                response.setStatus(HttpStatus.Not_Modified);
+                return;
+            }
+        }
+        
+        sendBuffer();
+    }
+    
+    private void sendBuffer() throws IOException {
+        if(contentLength != null) {
+            response.setHeader(HttpHeader.CONTENT_LENGTH.getHeaderName(), contentLength);
+        }
+        out = response.getOutputStream();
+        buffer.writeTo(out);
+        buffer.reset();
+    }
+    
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+    
+    private class HashingOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if(out == null && buffer.size() + len > limit) {
+                //too large to hold back, send without an Entity Tag
+                sendBuffer();
+            }
+            
+            if(out != null) {
+                out.write(b, off, len);
+            } else {
+                buffer.write(b, off, len);
+                digest.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            //a held back body stays buffered
+            if(out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            if(out != null) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceRegistryListener;
+
+/**
+ * Validators tied to the version of the XQuery Module of a Resource Function
+ * 
+ * Suitable for Resource Functions whose result depends only on their
+ * module and their arguments. The version of a module changes whenever
+ * its Services are registered or deregistered, when this is added
+ * as a listener to the Registry, or when {@link #moduleChanged(URI)} is called,
+ * for example when data which the module reads is updated.
+ * 
+ * Entity Tags are weak, and include the time at which this validator was
+ * created, so that they are not reused after a restart.
+ *
+ * @author Adam Retter
+ */
+public class ModuleVersionValidator implements ResourceFunctionValidator, RestXqServiceRegistryListener {
+    
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+    private final AtomicLong nextVersion = new AtomicLong();
+    private final ConcurrentMap<URI, ModuleVersion> versions = new ConcurrentHashMap<URI, ModuleVersion>();
+
+    @Override
+    public ResourceValidators getValidators(final ResourceFunction resourceFunction, final HttpRequest request) {
+        final URI xqueryLocation = resourceFunction.getXQueryLocation();
+        
+        ModuleVersion version = versions.get(xqueryLocation);
+        if(version == null) {
+            final ModuleVersion newVersion = new ModuleVersion(nextVersion.incrementAndGet(), System.currentTimeMillis());
+            version = versions.putIfAbsent(xqueryLocation, newVersion);
+            if(version == null) {
+                version = newVersion;
+            }
+        }
+        
+        return new ResourceValidators("W/\"" + epoch + "-" + Long.toHexString(version.version) + "\"", version.lastModified);
+    }
+    
+    /**
+     * Changes the version of an XQuery Module
+     * 
+     * @param xqueryLocation The location of the XQuery Module
+     */
+    public void moduleChanged(final URI xqueryLocation) {
+        versions.put(xqueryLocation, new ModuleVersion(nextVersion.incrementAndGet(), System.currentTimeMillis()));
+    }
+
+    @Override
+    public void registered(final RestXqService service) {
+        moduleChanged(service.getResourceFunction().getXQueryLocation());
+    }
+
+    @Override
+    public void deregistered(final RestXqService service) {
+        moduleChanged(service.getResourceFunction().getXQueryLocation());
+    }
+    
+    private final static class ModuleVersion {
+        private final long version;
+        private final long lastModified;
+
+        public ModuleVersion(final long version, final long lastModified) {
+            this.version = version;
+            this.lastModified = lastModified;
+        }
+    }
+}
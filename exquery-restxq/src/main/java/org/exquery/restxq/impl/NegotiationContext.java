@@ -0,0 +1,144 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.exquery.http.AcceptHeader;
+import org.exquery.http.AcceptHeader.Accept;
+import org.exquery.http.ContentTypeHeader;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.impl.annotation.MediaTypeMatcher;
+
+/**
+ * Content Negotiation state for a single HTTP Request
+ * 
+ * Created once when finding the Service for a request and shared by
+ * all of the candidate Services, so that the Accept and Content-Type
+ * headers are each parsed at most once, and the quality factor of
+ * each Internet Media Type is calculated at most once.
+ * 
+ * Instances are not thread-safe.
+ *
+ * @author Adam Retter
+ */
+public class NegotiationContext {
+    
+    private final HttpRequest request;
+    
+    private boolean acceptHeaderParsed = false;
+    private AcceptHeader acceptHeader = null;
+    
+    private boolean contentTypeHeaderParsed = false;
+    private ContentTypeHeader contentTypeHeader = null;
+    
+    private Map<String, Float> qualityFactors = null;
+
+    /**
+     * @param request The HTTP Request being negotiated
+     */
+    public NegotiationContext(final HttpRequest request) {
+        this.request = request;
+    }
+    
+    /**
+     * Gets the HTTP Request being negotiated
+     * 
+     * @return The HTTP Request
+     */
+    public HttpRequest getRequest() {
+        return request;
+    }
+    
+    /**
+     * Gets the parsed Accept header of the request
+     * 
+     * @return The Accept header, or null if the request has no Accept header
+     * 
+     * @throws IllegalArgumentException If the Accept header of the request is invalid
+     */
+    public AcceptHeader getAcceptHeader() {
+        if(!acceptHeaderParsed) {
+            final String acceptHeaderValue = request.getHeader(HttpHeader.ACCEPT.getHeaderName());
+            if(acceptHeaderValue != null) {
+                acceptHeader = new AcceptHeader(acceptHeaderValue);
+            }
+            acceptHeaderParsed = true;
+        }
+        return acceptHeader;
+    }
+    
+    /**
+     * Gets the parsed Content-Type header of the request
+     * 
+     * @return The Content-Type header, or null if the request has no Content-Type
+     * 
+     * @throws IllegalArgumentException If the Content-Type of the request is invalid
+     */
+    public ContentTypeHeader getContentTypeHeader() {
+        if(!contentTypeHeaderParsed) {
+            final String contentType = request.getContentType();
+            if(contentType != null) {
+                contentTypeHeader = new ContentTypeHeader(contentType);
+            }
+            contentTypeHeaderParsed = true;
+        }
+        return contentTypeHeader;
+    }
+    
+    /**
+     * Gets the highest quality factor given by the Accept header
+     * of the request to a media range which matches an Internet Media Type
+     * 
+     * @param internetMediaType The Internet Media Type
+     * 
+     * @return The quality factor, or zero if there is no Accept header
+     * or no media range in it matches the Internet Media Type
+     */
+    public float getQualityFactor(final String internetMediaType) {
+        if(qualityFactors == null) {
+            qualityFactors = new HashMap<String, Float>();
+        }
+        
+        Float qualityFactor = qualityFactors.get(internetMediaType);
+        if(qualityFactor == null) {
+            float max = 0;
+            if(getAcceptHeader() != null) {
+                for(final Accept accept : getAcceptHeader().getAccepts()) {
+                    if(accept.getQualityFactor() > max && MediaTypeMatcher.matches(accept.getMediaRange(), internetMediaType)) {
+                        max = accept.getQualityFactor();
+                    }
+                }
+            }
+            qualityFactor = max;
+            qualityFactors.put(internetMediaType, qualityFactor);
+        }
+        
+        return qualityFactor;
+    }
+}
@@ -32,6 +32,7 @@ import javax.xml.namespace.QName;
 import org.exquery.ExQueryException;
 import org.exquery.restxq.Namespace;
 import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.annotation.CacheAnnotation;
 import org.exquery.restxq.annotation.ConsumesAnnotation;
 import org.exquery.restxq.annotation.HttpMethodAnnotation;
 import org.exquery.restxq.annotation.ParameterAnnotation;
@@ -87,6 +88,8 @@ public class ResourceFunctionFactory {
                 resourceFunction.getParameterAnnotations().add((ParameterAnnotation)annotation);
             } else if(annotation instanceof SerializationAnnotation) {
                 resourceFunction.getSerializationAnnotations().add((SerializationAnnotation)annotation);
+            } else if(annotation instanceof CacheAnnotation) {
+                resourceFunction.setCacheAnnotation((CacheAnnotation)annotation);
             }
         }
         
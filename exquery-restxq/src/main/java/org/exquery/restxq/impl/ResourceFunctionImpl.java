@@ -30,6 +30,7 @@ import java.net.URI;
 import java.util.HashSet;
 import java.util.Set;
 import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.annotation.CacheAnnotation;
 import org.exquery.restxq.annotation.ConsumesAnnotation;
 import org.exquery.restxq.annotation.HttpMethodAnnotation;
 import org.exquery.restxq.annotation.ParameterAnnotation;
@@ -53,6 +54,7 @@ public class ResourceFunctionImpl implements ResourceFunction {
     private Set<ProducesAnnotation> producesAnnotations = new HashSet<ProducesAnnotation>();
     private Set<ParameterAnnotation> parameterAnnotations = new HashSet<ParameterAnnotation>();
     private Set<SerializationAnnotation> serializationAnnotations = new HashSet<SerializationAnnotation>();
+    private CacheAnnotation cacheAnnotation;
     
     @Override
     public URI getXQueryLocation() {
@@ -105,4 +107,18 @@ public class ResourceFunctionImpl implements ResourceFunction {
     public Set<SerializationAnnotation> getSerializationAnnotations() {
         return serializationAnnotations;
     }
+    
+    /**
+     * Returns the Cache Annotation applied to the Resource Function
+     * 
+     * @return The Cache Annotation of the Resource Function,
+     * or null if the Resource Function has no Cache Annotation
+     */
+    public CacheAnnotation getCacheAnnotation() {
+        return cacheAnnotation;
+    }
+    
+    void setCacheAnnotation(final CacheAnnotation cacheAnnotation) {
+        this.cacheAnnotation = cacheAnnotation;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqServiceException;
+
+/**
+ * Provides cheap validators of the result of a Resource Function
+ * 
+ * The validators are consulted before the Resource Function is executed,
+ * so that a conditional GET whose representation has not changed can be
+ * answered with 304 Not Modified without executing the Resource Function.
+ * 
+ * @see AbstractRestXqService#getResourceFunctionValidator()
+ *
+ * @author Adam Retter
+ */
+public interface ResourceFunctionValidator {
+    
+    /**
+     * Gets the validators of the result of a Resource Function
+     * 
+     * @param resourceFunction The Resource Function
+     * @param request The HTTP Request which the Resource Function would service
+     * 
+     * @return The validators, or null if the Resource Function has no cheap validators
+     * 
+     * @throws RestXqServiceException If the validators cannot be determined
+     */
+    public ResourceValidators getValidators(final ResourceFunction resourceFunction, final HttpRequest request) throws RestXqServiceException;
+}
@@ -0,0 +1,469 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceRegistryListener;
+import org.exquery.restxq.annotation.CacheAnnotation;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedArgumentValue;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Bounded cache of the serialized responses of Resource Functions
+ * which have a Cache Annotation, i.e. %rest:cache
+ * 
+ * A response is keyed on its Resource Function, the values of the arguments
+ * of the function, the vary headers of the Cache Annotation and the Accept-Encoding
+ * header, as the body may be compressed. The cache is bounded by the total size
+ * of the responses, evicting the least recently used responses when full.
+ * 
+ * Whilst a response is being produced, other requests for the same key wait for
+ * it rather than also executing the Resource Function. The cache listens to the
+ * Registry and invalidates the responses of a module whenever its Services are
+ * registered or deregistered, the host should also call {@link #invalidate(URI)}
+ * or {@link #invalidate()} when data which the Resource Functions read is updated,
+ * a response which was produced whilst the cache was invalidated is never cached.
+ *
+ * @author Adam Retter
+ */
+public class RestXqResponseCache implements RestXqServiceRegistryListener {
+    
+    public final static long DEFAULT_SINGLE_FLIGHT_TIMEOUT = 30000;
+    
+    /**
+     * Approximate size of a response in addition to its body and headers
+     */
+    private final static int ENTRY_OVERHEAD = 128;
+    
+    private final long maxSize;
+    private final int maxResponseSize;
+    private final long singleFlightTimeout;
+    
+    private final Map<Key, CachedResponse> responses = new LinkedHashMap<Key, CachedResponse>(16, 0.75f, true);
+    private long size = 0;
+    
+    private final ConcurrentMap<Key, CountDownLatch> inFlight = new ConcurrentHashMap<Key, CountDownLatch>();
+    
+    /**
+     * Incremented on every invalidation
+     */
+    private final AtomicLong generation = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    /**
+     * @param maxSize The maximum total size in bytes of the cached responses
+     */
+    public RestXqResponseCache(final long maxSize) {
+        this(maxSize, (int)Math.min(Integer.MAX_VALUE, maxSize / 8), DEFAULT_SINGLE_FLIGHT_TIMEOUT);
+    }
+    
+    /**
+     * @param maxSize The maximum total size in bytes of the cached responses
+     * @param maxResponseSize The maximum size in bytes of the body of a cached response
+     * @param singleFlightTimeout The maximum time in milliseconds to wait for another
+     * request which is producing the same response
+     */
+    public RestXqResponseCache(final long maxSize, final int maxResponseSize, final long singleFlightTimeout) {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        this.maxResponseSize = maxResponseSize;
+        this.singleFlightTimeout = singleFlightTimeout;
+    }
+    
+    /**
+     * Produces the response from the cache, or by the producer
+     * and stores it in the cache
+     * 
+     * @param key The key of the response, see {@link #key(ResourceFunction, CacheAnnotation, Iterable, HttpRequest)}
+     * @param response The HTTP Response to write the response to
+     * @param producer Produces the response on a cache miss
+     * 
+     * @throws RestXqServiceException If the response cannot be produced
+     */
+    public void service(final Key key, final HttpResponse response, final ResponseProducer producer) throws RestXqServiceException {
+        if(key.maxAge == 0) {
+            producer.produce(response);
+            return;
+        }
+        
+        CachedResponse cached = get(key);
+        if(cached != null) {
+            hits.incrementAndGet();
+            cached.replay(response);
+            return;
+        }
+        
+        final CountDownLatch flight = new CountDownLatch(1);
+        final CountDownLatch otherFlight = inFlight.putIfAbsent(key, flight);
+        if(otherFlight != null) {
+            //another request is producing the response, wait for it
+            try {
+                otherFlight.await(singleFlightTimeout, TimeUnit.MILLISECONDS);
+            } catch(final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            
+            cached = get(key);
+            if(cached != null) {
+                hits.incrementAndGet();
+                cached.replay(response);
+            } else {
+                //the other response could not be cached
+                misses.incrementAndGet();
+                producer.produce(response);
+            }
+            return;
+        }
+        
+        misses.incrementAndGet();
+        try {
+            final long expectedGeneration = generation.get();
+            final CachingHttpResponse cachingResponse = new CachingHttpResponse(response, maxResponseSize);
+            producer.produce(cachingResponse);
+            
+            final CachedResponse produced = cachingResponse.toCachedResponse(System.currentTimeMillis() + key.maxAge * 1000l);
+            if(produced != null) {
+                put(key, produced, expectedGeneration);
+            }
+        } finally {
+            inFlight.remove(key, flight);
+            flight.countDown();
+        }
+    }
+    
+    /**
+     * Gets the key of the response of a Resource Function to a request
+     * 
+     * @param resourceFunction The Resource Function
+     * @param cacheAnnotation The Cache Annotation of the Resource Function
+     * @param arguments The values of the arguments of the Resource Function
+     * @param request The HTTP Request
+     * 
+     * @return The key, or null if the response cannot be cached
+     * as an argument is a node or binary
+     */
+    public Key key(final ResourceFunction resourceFunction, final CacheAnnotation cacheAnnotation, final Iterable<TypedArgumentValue> arguments, final HttpRequest request) {
+        final StringBuilder builder = new StringBuilder();
+        for(final TypedArgumentValue argument : arguments) {
+            appendPart(builder, argument.getArgumentName());
+            for(final TypedValue value : (Sequence<?>)argument.getTypedValue()) {
+                final Type type = value.getType();
+                if(!type.isSubTypeOf(Type.ANY_ATOMIC_TYPE) || type == Type.BASE64_BINARY || type == Type.HEX_BINARY) {
+                    return null;
+                }
+                appendPart(builder, type.name());
+                appendPart(builder, String.valueOf(value.getValue()));
+            }
+            builder.append(';');
+        }
+        
+        for(final String varyHeader : cacheAnnotation.getVaryHeaders()) {
+            appendPart(builder, request.getHeader(varyHeader));
+        }
+        appendPart(builder, request.getHeader(HttpHeader.ACCEPT_ENCODING.getHeaderName()));
+        
+        return new Key(resourceFunction, cacheAnnotation.getMaxAge(), builder.toString());
+    }
+    
+    private void appendPart(final StringBuilder builder, final String part) {
+        //length prefixed, so that the parts are unambiguous
+        if(part == null) {
+            builder.append("-1:");
+        } else {
+            builder.append(part.length()).append(':').append(part);
+        }
+    }
+    
+    private synchronized CachedResponse get(final Key key) {
+        final CachedResponse cached = responses.get(key);
+        if(cached != null && cached.expires < System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        return cached;
+    }
+    
+    private synchronized void put(final Key key, final CachedResponse cached, final long expectedGeneration) {
+        //do not cache a response that may have been produced before an invalidation
+        if(generation.get() != expectedGeneration) {
+            return;
+        }
+        
+        remove(key);
+        cached.weight = key.weight() + cached.weight();
+        responses.put(key, cached);
+        size += cached.weight;
+        
+        //evict the least recently used responses
+        final Iterator<CachedResponse> itResponses = responses.values().iterator();
+        while(size > maxSize && itResponses.hasNext()) {
+            size -= itResponses.next().weight;
+            itResponses.remove();
+            evictions.incrementAndGet();
+        }
+    }
+    
+    private void remove(final Key key) {
+        final CachedResponse removed = responses.remove(key);
+        if(removed != null) {
+            size -= removed.weight;
+        }
+    }
+    
+    /**
+     * Removes all responses from the cache
+     */
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        responses.clear();
+        size = 0;
+    }
+    
+    /**
+     * Removes the responses of the Resource Functions of an XQuery Module from the cache
+     * 
+     * @param xqueryLocation The location of the XQuery Module
+     */
+    public synchronized void invalidate(final URI xqueryLocation) {
+        generation.incrementAndGet();
+        final Iterator<Map.Entry<Key, CachedResponse>> itResponses = responses.entrySet().iterator();
+        while(itResponses.hasNext()) {
+            final Map.Entry<Key, CachedResponse> response = itResponses.next();
+            if(xqueryLocation.equals(response.getKey().resourceFunction.getXQueryLocation())) {
+                size -= response.getValue().weight;
+                itResponses.remove();
+            }
+        }
+    }
+    
+    /**
+     * Removes the responses of a Resource Function from the cache
+     * 
+     * @param resourceFunction The Resource Function
+     */
+    public synchronized void invalidate(final ResourceFunction resourceFunction) {
+        generation.incrementAndGet();
+        final Iterator<Map.Entry<Key, CachedResponse>> itResponses = responses.entrySet().iterator();
+        while(itResponses.hasNext()) {
+            final Map.Entry<Key, CachedResponse> response = itResponses.next();
+            if(response.getKey().resourceFunction == resourceFunction) {
+                size -= response.getValue().weight;
+                itResponses.remove();
+            }
+        }
+    }
+    
+    @Override
+    public void registered(final RestXqService service) {
+        invalidate(service.getResourceFunction().getXQueryLocation());
+    }
+
+    @Override
+    public void deregistered(final RestXqService service) {
+        invalidate(service.getResourceFunction().getXQueryLocation());
+    }
+    
+    /**
+     * Gets the maximum total size of the cached responses
+     * 
+     * @return The maximum size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Gets the approximate total size of the cached responses
+     * 
+     * @return The size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    /**
+     * Gets the number of cached responses
+     * 
+     * @return The number of responses
+     */
+    public synchronized int getCount() {
+        return responses.size();
+    }
+    
+    /**
+     * Gets the number of responses which were answered from the cache
+     * 
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * Gets the number of responses which were not answered from the cache
+     * 
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    /**
+     * Gets the number of responses which were evicted to bound the size of the cache
+     * 
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    /**
+     * Produces the response of a Resource Function on a cache miss
+     */
+    public interface ResponseProducer {
+        
+        /**
+         * Executes the Resource Function and serializes its result
+         * 
+         * @param response The HTTP Response to serialize the result to
+         * 
+         * @throws RestXqServiceException If the response cannot be produced
+         */
+        public void produce(final HttpResponse response) throws RestXqServiceException;
+    }
+    
+    /**
+     * The key of a cached response
+     */
+    public final static class Key {
+        private final ResourceFunction resourceFunction;
+        private final int maxAge;
+        private final String discriminator;
+        private final int hashCode;
+
+        private Key(final ResourceFunction resourceFunction, final int maxAge, final String discriminator) {
+            this.resourceFunction = resourceFunction;
+            this.maxAge = maxAge;
+            this.discriminator = discriminator;
+            this.hashCode = 31 * System.identityHashCode(resourceFunction) + discriminator.hashCode();
+        }
+        
+        private int weight() {
+            return discriminator.length() * 2;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            
+            final Key other = (Key)obj;
+            return hashCode == other.hashCode
+                && resourceFunction == other.resourceFunction
+                && discriminator.equals(other.discriminator);
+        }
+    }
+    
+    /**
+     * A recorded response
+     */
+    final static class CachedResponse {
+        private final List<String[]> headers;
+        private final String contentType;
+        private final byte[] body;
+        private final long expires;
+        private int weight;
+
+        CachedResponse(final List<String[]> headers, final String contentType, final byte[] body, final long expires) {
+            this.headers = Collections.unmodifiableList(new ArrayList<String[]>(headers));
+            this.contentType = contentType;
+            this.body = body;
+            this.expires = expires;
+        }
+        
+        private int weight() {
+            int weight = ENTRY_OVERHEAD + body.length;
+            for(final String[] header : headers) {
+                weight += (header[0].length() + (header[1] == null ? 0 : header[1].length())) * 2;
+            }
+            if(contentType != null) {
+                weight += contentType.length() * 2;
+            }
+            return weight;
+        }
+        
+        private void replay(final HttpResponse response) throws RestXqServiceException {
+            for(final String[] header : headers) {
+                response.setHeader(header[0], header[1]);
+            }
+            if(contentType != null) {
+                response.setContentType(contentType);
+            }
+            
+            if(body.length > 0) {
+                try {
+                    final OutputStream os = response.getOutputStream();
+                    os.write(body);
+                } catch(final IOException ioe) {
+                    throw new RestXqServiceException("Error while writing cached response: " + ioe.toString(), ioe);
+                }
+            }
+        }
+    }
+}
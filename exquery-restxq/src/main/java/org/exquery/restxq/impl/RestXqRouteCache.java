@@ -0,0 +1,261 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+
+/**
+ * Bounded cache of the results of routing requests to RESTXQ Services
+ * 
+ * The routing of a request depends only on its HTTP Method, Path, Accept
+ * header and Content-Type, so these form the key of the cache. Each cached
+ * route holds the chosen Service and the parameters captured from the path.
+ * 
+ * The key is the exact request path, not the path template of the Service,
+ * as the template is only known once the request has been routed. A
+ * template such as /items/{id} is therefore cached once per distinct id,
+ * and the cache is most effective when requests concentrate on relatively
+ * few distinct paths. Entries beyond the maximum size are evicted, so a
+ * wide range of paths lowers the hit rate but never grows the cache.
+ * 
+ * The cache is split into segments which each evict their least
+ * recently used entry when full. The cache is invalidated by the Registry
+ * whenever a Service is registered or deregistered, a lookup which
+ * started before an invalidation is never cached.
+ *
+ * @author Adam Retter
+ */
+public class RestXqRouteCache {
+    
+    private final static int MAX_SEGMENTS = 16;
+    
+    private final Segment[] segments;
+    private final int maxSize;
+    
+    /**
+     * Incremented on every invalidation
+     */
+    private final AtomicLong generation = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    /**
+     * @param maxSize The maximum number of routes to cache
+     */
+    public RestXqRouteCache(final int maxSize) {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        
+        //a power of two number of segments, which share maxSize between them
+        int segmentCount = 1;
+        while(segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maxSize) {
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+    }
+    
+    /**
+     * Gets the route for a request from the cache, or
+     * routes the request and caches the result
+     * 
+     * @param negotiation The Content Negotiation context of the HTTP Request
+     * @param services The Services to route the request with on a cache miss
+     * 
+     * @return The result of routing the request
+     */
+    public RestXqRoutingResult get(final NegotiationContext negotiation, final RestXqServicesMap services) {
+        final HttpRequest request = negotiation.getRequest();
+        final RouteKey key = new RouteKey(request.getMethod(), request.getPath(), request.getHeader(HttpHeader.ACCEPT.getHeaderName()), request.getContentType());
+        final Segment segment = segmentFor(key);
+        
+        final long expectedGeneration = generation.get();
+        RestXqRoutingResult route = segment.get(key);
+        if(route != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            route = services.route(request.getMethod(), negotiation);
+            
+            //requests which cannot be serviced are not cached, as their paths are unbounded
+            if(route.isFound()) {
+                segment.put(key, route, expectedGeneration);
+            }
+        }
+        
+        return route;
+    }
+    
+    /**
+     * Removes all routes from the cache
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        for(final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+    
+    /**
+     * Gets the maximum number of routes held in the cache
+     * 
+     * @return The maximum size of the cache
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Gets the number of routes currently held in the cache
+     * 
+     * @return The size of the cache
+     */
+    public int size() {
+        int size = 0;
+        for(final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Gets the number of lookups which were answered from the cache
+     * 
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * Gets the number of lookups which were not answered from the cache
+     * 
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    private Segment segmentFor(final RouteKey key) {
+        //spread the hash bits, as the hashes of similar paths differ mostly in their low bits
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+    
+    /**
+     * A segment of the cache, which evicts its least recently used entry
+     */
+    private class Segment {
+        private final Map<RouteKey, RestXqRoutingResult> entries;
+
+        public Segment(final int segmentSize) {
+            this.entries = new LinkedHashMap<RouteKey, RestXqRoutingResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<RouteKey, RestXqRoutingResult> eldest) {
+                    return size() > segmentSize;
+                }
+            };
+        }
+        
+        public synchronized RestXqRoutingResult get(final RouteKey key) {
+            return entries.get(key);
+        }
+        
+        public synchronized void put(final RouteKey key, final RestXqRoutingResult route, final long expectedGeneration) {
+            //do not cache a route that may have been found before an invalidation
+            if(generation.get() == expectedGeneration) {
+                entries.put(key, route);
+            }
+        }
+        
+        public synchronized void clear() {
+            entries.clear();
+        }
+        
+        public synchronized int size() {
+            return entries.size();
+        }
+    }
+    
+    /**
+     * The parts of a request which determine its route
+     */
+    private final static class RouteKey {
+        private final HttpMethod method;
+        private final String path;
+        private final String accept;
+        private final String contentType;
+        private final int hashCode;
+
+        public RouteKey(final HttpMethod method, final String path, final String accept, final String contentType) {
+            this.method = method;
+            this.path = path;
+            this.accept = accept;
+            this.contentType = contentType;
+            
+            int h = method == null ? 0 : method.hashCode();
+            h = 31 * h + (path == null ? 0 : path.hashCode());
+            h = 31 * h + (accept == null ? 0 : accept.hashCode());
+            h = 31 * h + (contentType == null ? 0 : contentType.hashCode());
+            this.hashCode = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof RouteKey)) {
+                return false;
+            }
+            
+            final RouteKey other = (RouteKey)obj;
+            return hashCode == other.hashCode
+                && method == other.method
+                && equal(path, other.path)
+                && equal(accept, other.accept)
+                && equal(contentType, other.contentType);
+        }
+        
+        private static boolean equal(final String a, final String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
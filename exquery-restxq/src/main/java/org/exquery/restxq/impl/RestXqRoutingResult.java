@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+
+/**
+ * The outcome of routing a HTTP Request to the RESTXQ Services
+ * 
+ * Either the request was matched to a Service, or the
+ * reason that no Service could service the request is given
+ * as a HTTP Status, so that an error response can be
+ * sent without routing the request again:
+ * 
+ * 404 Not Found - no Service matches the path of the request
+ * 405 Method Not Allowed - Services match the path, but not the method
+ * 415 Unsupported Media Type - no Service can consume the request
+ * 406 Not Acceptable - no Service can produce a response the client accepts
+ *
+ * @author Adam Retter
+ */
+public class RestXqRoutingResult {
+    
+    private final static RestXqRoutingResult NOT_FOUND = new RestXqRoutingResult(HttpStatus.Not_Found, null, Collections.<HttpMethod>emptySet());
+    private final static RestXqRoutingResult UNSUPPORTED_MEDIA_TYPE = new RestXqRoutingResult(HttpStatus.Unsupported_Media_Type, null, Collections.<HttpMethod>emptySet());
+    private final static RestXqRoutingResult NOT_ACCEPTABLE = new RestXqRoutingResult(HttpStatus.Not_Acceptable, null, Collections.<HttpMethod>emptySet());
+    
+    private final HttpStatus status;
+    private final RestXqServiceMatch serviceMatch;
+    private final Set<HttpMethod> allowedMethods;
+
+    private RestXqRoutingResult(final HttpStatus status, final RestXqServiceMatch serviceMatch, final Set<HttpMethod> allowedMethods) {
+        this.status = status;
+        this.serviceMatch = serviceMatch;
+        this.allowedMethods = allowedMethods;
+    }
+    
+    /**
+     * @param serviceMatch The match of the Service which can service the request
+     * 
+     * @return The result of routing to a Service
+     */
+    public static RestXqRoutingResult found(final RestXqServiceMatch serviceMatch) {
+        return new RestXqRoutingResult(HttpStatus.OK, serviceMatch, Collections.<HttpMethod>emptySet());
+    }
+    
+    /**
+     * @param allowedMethods The methods of the Services which match the path of the request
+     * 
+     * @return The result of routing when Services match the path, but not the method
+     */
+    public static RestXqRoutingResult methodNotAllowed(final EnumSet<HttpMethod> allowedMethods) {
+        return new RestXqRoutingResult(HttpStatus.Method_Not_Allowed, null, Collections.unmodifiableSet(allowedMethods));
+    }
+    
+    /**
+     * @param status The reason that no Service can service the request,
+     * one of 404 Not Found, 415 Unsupported Media Type or 406 Not Acceptable
+     * 
+     * @return The result of routing when no Service can service the request
+     * 
+     * @throws IllegalArgumentException If the status is not one of the expected reasons
+     */
+    public static RestXqRoutingResult failed(final HttpStatus status) {
+        switch(status) {
+            case Not_Found:
+                return NOT_FOUND;
+                
+            case Unsupported_Media_Type:
+                return UNSUPPORTED_MEDIA_TYPE;
+                
+            case Not_Acceptable:
+                return NOT_ACCEPTABLE;
+                
+            default:
+                throw new IllegalArgumentException("Not a routing failure: " + status);
+        }
+    }
+    
+    /**
+     * Determines if a Service was found for the request
+     * 
+     * @return true if a Service was found
+     */
+    public boolean isFound() {
+        return serviceMatch != null;
+    }
+    
+    /**
+     * Gets the HTTP Status of routing the request
+     * 
+     * @return HttpStatus.OK if a Service was found, otherwise
+     * the HTTP Status describing why no Service was found
+     */
+    public HttpStatus getStatus() {
+        return status;
+    }
+    
+    /**
+     * Gets the match of the Service which was found
+     * 
+     * @return The match of the Service, or null if no Service was found
+     */
+    public RestXqServiceMatch getServiceMatch() {
+        return serviceMatch;
+    }
+    
+    /**
+     * Gets the HTTP Methods for which there are Services matching
+     * the path of the request, when the method of the request is not allowed
+     * 
+     * @return The allowed HTTP Methods, empty unless the status is 405 Method Not Allowed
+     */
+    public Set<HttpMethod> getAllowedMethods() {
+        return allowedMethods;
+    }
+    
+    /**
+     * Sends the error response for a request to which no Service was found,
+     * including the Allow header for 405 Method Not Allowed
+     * 
+     * @param response The HTTP Response to send the error to
+     * 
+     * @throws IllegalStateException If a Service was found
+     */
+    public void sendError(final HttpResponse response) {
+        if(isFound()) {
+            throw new IllegalStateException("A Service was found for the request");
+        }
+        
+        if(!allowedMethods.isEmpty()) {
+            final StringBuilder allow = new StringBuilder();
+            for(final HttpMethod allowedMethod : allowedMethods) {
+                if(allow.length() > 0) {
+                    allow.append(", ");
+                }
+                allow.append(allowedMethod.name());
+            }
+            response.setHeader(HttpHeader.ALLOW.getHeaderName(), allow.toString());
+        }
+        response.setStatus(status);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.restxq.ResourceFunctionExecuter;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.impl.annotation.PathSegmentMatch;
+
+/**
+ * The result of routing a HTTP Request to a RESTXQ Service
+ * 
+ * Carries the chosen Service along with the parameters
+ * that were captured from the request path whilst routing,
+ * so that the path does not need to be matched again
+ * when the Service is invoked.
+ *
+ * @author Adam Retter
+ */
+public class RestXqServiceMatch {
+    
+    private final RestXqService service;
+    private final PathSegmentMatch pathMatch;
+
+    /**
+     * @param service The RESTXQ Service which can service the request
+     * @param pathMatch The parameters captured from the request path by the Service,
+     * or null if they were not captured whilst routing
+     */
+    public RestXqServiceMatch(final RestXqService service, final PathSegmentMatch pathMatch) {
+        this.service = service;
+        this.pathMatch = pathMatch;
+    }
+    
+    /**
+     * Gets the RESTXQ Service which can service the request
+     * 
+     * @return The RESTXQ Service
+     */
+    public RestXqService getService() {
+        return service;
+    }
+    
+    /**
+     * Gets the parameters captured from the request path
+     * 
+     * @return The captured path parameters, or null if
+     * they were not captured whilst routing
+     */
+    public PathSegmentMatch getPathMatch() {
+        return pathMatch;
+    }
+    
+    /**
+     * Service the request with the matched RESTXQ Service
+     * and write the response to the HttpResponse
+     * 
+     * @param request The request to service
+     * @param response The response to write the service result to
+     * @param resourceFunctionExecuter The Executer to execute the Resource Function
+     * @param restXqServiceSerializer Serializer for serializing the response of the service
+     * 
+     * @throws RestXqServiceException If an unexpected error occured whilst processing the request
+     * 
+     * @see org.exquery.restxq.RestXqService#service(org.exquery.http.HttpRequest, org.exquery.http.HttpResponse, org.exquery.restxq.ResourceFunctionExecuter, org.exquery.restxq.RestXqServiceSerializer)
+     */
+    public void service(final HttpRequest request, final HttpResponse response, final ResourceFunctionExecuter resourceFunctionExecuter, final RestXqServiceSerializer restXqServiceSerializer) throws RestXqServiceException {
+        if(service instanceof AbstractRestXqService) {
+            ((AbstractRestXqService)service).service(request, response, resourceFunctionExecuter, restXqServiceSerializer, pathMatch);
+        } else {
+            service.service(request, response, resourceFunctionExecuter, restXqServiceSerializer);
+        }
+    }
+}
@@ -27,12 +27,12 @@
 package org.exquery.restxq.impl;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.exquery.http.HttpMethod;
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqService;
@@ -42,13 +42,34 @@ import org.exquery.restxq.impl.RestXqServicesMap.RestXqServiceMapVisitor;
 
 /**
  * Simple Implementation of a Registry of RESTXQ Services
+ * 
+ * Finding a service for a request takes no locks, see {@link RestXqServicesMap}
  *
  * @author Adam Retter
  */
 public class RestXqServiceRegistryImpl implements RestXqServiceRegistry {
 
     private final RestXqServicesMap services = new RestXqServicesMap();
-    private final List<RestXqServiceRegistryListener> listeners = new ArrayList<RestXqServiceRegistryListener>();
+    private final List<RestXqServiceRegistryListener> listeners = new CopyOnWriteArrayList<RestXqServiceRegistryListener>();
+    private final RestXqRouteCache routeCache;
+    
+    public RestXqServiceRegistryImpl() {
+        this(0);
+    }
+    
+    /**
+     * @param routeCacheSize The maximum number of routes to cache
+     * when finding Services, or 0 to disable the route cache
+     * 
+     * @see RestXqRouteCache
+     */
+    public RestXqServiceRegistryImpl(final int routeCacheSize) {
+        if(routeCacheSize > 0) {
+            this.routeCache = new RestXqRouteCache(routeCacheSize);
+        } else {
+            this.routeCache = null;
+        }
+    }
     
     private RestXqServicesMap getServices() {
         return services;
@@ -56,27 +77,38 @@ public class RestXqServiceRegistryImpl implements RestXqServiceRegistry {
     
     @Override
     public void register(final RestXqService service) {
-        final EnumSet<HttpMethod> servicedMethods = service.getServicedMethods();
-
-        if(servicedMethods.isEmpty()) {
-            
-            //TODO future work - if no method annotation, this service could apply to ANY method!
-
-        } else {
-            for(final HttpMethod servicedMethod : servicedMethods) {
-                getServices().put(servicedMethod, service);
-                for(final RestXqServiceRegistryListener listener : listeners) {
-                    listener.registered(service);
-                }
-            }
-        }
+        register(Collections.singletonList(service));
     }
 
+    /**
+     * Registers the Services in bulk, the Services for each
+     * HTTP Method are sorted only once and are published
+     * atomically, Listeners are then notified.
+     * 
+     * @see org.exquery.restxq.RestXqServiceRegistry#register(java.lang.Iterable)
+     */
     @Override
     public void register(final Iterable<RestXqService> services) {
-        for(final RestXqService service : services) {
-            register(service);
-        }
+        getServices().putAll(services, listeners);
+        invalidateRouteCache();
+    }
+    
+    /**
+     * Replace the RESTXQ Services from an XQuery in the registry
+     * 
+     * Services previously registered from the XQuery which
+     * are not provided are de-registered, typically used
+     * when an XQuery module is reloaded.
+     * 
+     * The Services for each HTTP Method are sorted only once
+     * and are published atomically, Listeners are then notified.
+     *
+     * @param xqueryLocation The URI of the XQuery from which the Services came
+     * @param services The Services from the XQuery to register with the registry
+     */
+    public void replace(final URI xqueryLocation, final Iterable<RestXqService> services) {
+        getServices().replaceAll(xqueryLocation, services, listeners);
+        invalidateRouteCache();
     }
 
     @Override
@@ -89,26 +121,92 @@ public class RestXqServiceRegistryImpl implements RestXqServiceRegistry {
                     uniqueServices.addAll(restXqServices);
                 }
             };
-        getServices().iterate(visitor, true);
+        getServices().iterate(visitor);
         
         return uniqueServices.iterator();
     }
     
     @Override
     public RestXqService findService(final HttpRequest request) {
-        return getServices().get(request.getMethod(), request);
+        final RestXqServiceMatch match = findServiceMatch(request);
+        if(match == null) {
+            return null;
+        } else {
+            return match.getService();
+        }
         
         //TODO future work - else consult the ANY METHOD bucket?
     }
     
+    /**
+     * Finds the RESTXQ Service which can service the request,
+     * along with the parameters captured from the request path
+     * 
+     * The returned match should be used to service the request,
+     * so that the request path is not matched a second time.
+     * 
+     * @param request The HTTP Request
+     * 
+     * @return The match of the RESTXQ Service for the request,
+     * or null if no Service can service the request
+     */
+    public RestXqServiceMatch findServiceMatch(final HttpRequest request) {
+        return route(request).getServiceMatch();
+    }
+    
+    /**
+     * Routes the request to the RESTXQ Service which can service it
+     * 
+     * If no Service can service the request, the result gives the reason
+     * as a HTTP Status (404, 405, 406 or 415) and for 405 the allowed methods,
+     * so that an error response can be sent without routing the request again.
+     * 
+     * @param request The HTTP Request
+     * 
+     * @return The result of routing the request
+     */
+    public RestXqRoutingResult route(final HttpRequest request) {
+        
+        //headers are parsed at most once whilst finding the service
+        final NegotiationContext negotiation = new NegotiationContext(request);
+        
+        if(routeCache != null) {
+            return routeCache.get(negotiation, getServices());
+        } else {
+            return getServices().route(request.getMethod(), negotiation);
+        }
+    }
+    
+    /**
+     * Gets the cache of routes used when finding Services
+     * 
+     * @return The route cache, or null if the route cache is disabled
+     */
+    public RestXqRouteCache getRouteCache() {
+        return routeCache;
+    }
+    
     @Override
     public void deregister(final URI xqueryLocation) {
         getServices().removeAll(xqueryLocation, listeners);
+        invalidateRouteCache();
     }
     
     @Override
     public void deregister(final RestXqService service) {
         getServices().remove(service, listeners);
+        invalidateRouteCache();
+    }
+    
+    /**
+     * The route cache is invalidated directly by the registry after
+     * every change to the Services, rather than as a Listener, so
+     * that it cannot be removed by {@link #clearListeners()}
+     */
+    private void invalidateRouteCache() {
+        if(routeCache != null) {
+            routeCache.invalidate();
+        }
     }
     
     /**
@@ -134,6 +232,8 @@ public class RestXqServiceRegistryImpl implements RestXqServiceRegistry {
     
     /**
      * Remove all Registry Listeners from receiving notifications from this Registry
+     * 
+     * The route cache, if enabled, is still invalidated when the Services change
      */
     public void clearListeners() {
         listeners.clear();
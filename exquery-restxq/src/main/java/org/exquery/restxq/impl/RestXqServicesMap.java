@@ -28,24 +28,39 @@ package org.exquery.restxq.impl;
 
 import java.net.URI;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import org.exquery.http.AcceptHeader;
-import org.exquery.http.HttpHeader;
 import org.exquery.http.HttpMethod;
 import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpStatus;
 import org.exquery.restxq.RestXqService;
 import org.exquery.restxq.RestXqServiceRegistryListener;
+import org.exquery.restxq.annotation.PathAnnotation;
+import org.exquery.restxq.impl.annotation.PathSegmentMatch;
 
 /**
  * Simple Thread-Safe Map that maintains the association between HttpMethods
  * and RestXqServices
+ * 
+ * Reads are lock-free, they work against an immutable snapshot
+ * of the routing information which is published through a volatile
+ * reference. Modifications are serialized, each builds and publishes
+ * a new snapshot (copy-on-write). This favours the lookup of services
+ * for requests, which is far more frequent than (de)registration.
  *
  * @author Adam Retter
  */
 public class RestXqServicesMap {
-        
-    private final Map<HttpMethod, List<RestXqService>> orderedServices = new EnumMap<HttpMethod, List<RestXqService>>(HttpMethod.class);
-    private final Map<HttpMethod, ReentrantReadWriteLock> methodLocks = new EnumMap<HttpMethod, ReentrantReadWriteLock>(HttpMethod.class);
+    
+    private final static Map<HttpMethod, RestXqServicesTrie> EMPTY_SNAPSHOT = Collections.unmodifiableMap(new EnumMap<HttpMethod, RestXqServicesTrie>(HttpMethod.class));
+    
+    /**
+     * Immutable snapshot of the ordered services for each method
+     */
+    private volatile Map<HttpMethod, RestXqServicesTrie> snapshot = EMPTY_SNAPSHOT;
+    
+    /**
+     * Serializes modifications of the snapshot
+     */
+    private final Object writeLock = new Object();
 
     /**
      * Put a RESTXQ Service in the Map
@@ -58,15 +73,8 @@ public class RestXqServicesMap {
      */
     public RestXqService put(final HttpMethod method, final RestXqService service) {
 
-        final ReentrantReadWriteLock lock = getOrCreateMethodLock(method);
-        
-        try {
-            lock.writeLock().lock();
-
-            List<RestXqService> list = orderedServices.get(method);
-            if(list == null) {
-                list = new ArrayList<RestXqService>();
-            }
+        synchronized(writeLock) {
+            final List<RestXqService> list = getServicesCopy(snapshot, method);
 
             RestXqService oldValue = null;
             int oldIndex = list.indexOf(service);
@@ -77,75 +85,181 @@ public class RestXqServicesMap {
             list.add(service);
             Collections.sort(list);
 
-            orderedServices.put(method, list);
+            final Map<HttpMethod, RestXqServicesTrie> newSnapshot = copySnapshot();
+            newSnapshot.put(method, new RestXqServicesTrie(list));
+            publish(newSnapshot);
 
             return oldValue;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
     
     /**
-     * Visitor Interface for iterating over the RESTXQ Services Map
+     * Put several RESTXQ Services in the Map
+     * 
+     * Each Service is associated with each of the HttpMethods that it services,
+     * a Service which is equal to one already in the Map replaces it. The
+     * Services for each HttpMethod are sorted once and the Map is updated
+     * atomically.
+     * 
+     * @param services The RESTXQ Services to put in the Map
+     * @param listeners Any Listeners that should be notified when a
+     * Service is added, they are notified once the Map has been updated
      */
-    protected interface RestXqServiceMapVisitor {
-
-        /**
-         * Visits a HTTP Method in the RestXQ Services Map
-         * 
-         * @param method The HTTP Method for which the services are registered
-         * @param restXqServices The services registered against the HTTP Method
-         */
-        public void visit(final HttpMethod method, final List<RestXqService> restXqServices);
+    public void putAll(final Iterable<RestXqService> services, final List<RestXqServiceRegistryListener> listeners) {
+        update(null, services, listeners);
     }
     
     /**
-     * Iterate over the Services Map
+     * Replaces all of the RESTXQ Services in the Map that come from the XQuery
+     * located at the URI xqueryLocation with the provided RESTXQ Services
      * 
-     * @param visitor The visitor which visits the services map
-     * @param eagerLockAll true if all methods should be locked before visiting anything, false to lock methods as they are visited
+     * Existing Services from the XQuery which are not provided are removed,
+     * the Services for each HttpMethod are sorted once and the Map is updated
+     * atomically.
      * 
+     * @param xqueryLocation The location of the XQuery
+     * @param services The RESTXQ Services from the XQuery to put in the Map
+     * @param listeners Any Listeners that should be notified when a
+     * Service is added or removed, they are notified once the Map has been updated
      */
-    public void iterate(final RestXqServiceMapVisitor visitor, final boolean eagerLockAll) {
+    public void replaceAll(final URI xqueryLocation, final Iterable<RestXqService> services, final List<RestXqServiceRegistryListener> listeners) {
+        update(xqueryLocation, services, listeners);
+    }
+    
+    /**
+     * Adds Services to the Map and optionally removes
+     * existing Services of an XQuery, publishing a single new snapshot
+     * 
+     * @param removeXQueryLocation The location of an XQuery whose existing
+     * Services should be removed, or null if no Services should be removed
+     * @param services The RESTXQ Services to put in the Map
+     * @param listeners Any Listeners that should be notified of changes
+     */
+    private void update(final URI removeXQueryLocation, final Iterable<RestXqService> services, final List<RestXqServiceRegistryListener> listeners) {
         
-        try {
+        //group the new services by method
+        final Set<RestXqService> added = new LinkedHashSet<RestXqService>();
+        final Map<HttpMethod, List<RestXqService>> addedByMethod = new EnumMap<HttpMethod, List<RestXqService>>(HttpMethod.class);
+        for(final RestXqService service : services) {
+            final Set<HttpMethod> servicedMethods = service.getServicedMethods();
             
-            if(eagerLockAll) {
-                for(final HttpMethod method : HttpMethod.values()) {
-                    final ReentrantReadWriteLock lock = getOrCreateMethodLock(method);
-                    lock.readLock().lock();
-
+            //TODO future work - if no method annotation, this service could apply to ANY method!
+            if(!servicedMethods.isEmpty() && added.add(service)) {
+                for(final HttpMethod servicedMethod : servicedMethods) {
+                    List<RestXqService> methodServices = addedByMethod.get(servicedMethod);
+                    if(methodServices == null) {
+                        methodServices = new ArrayList<RestXqService>();
+                        addedByMethod.put(servicedMethod, methodServices);
+                    }
+                    methodServices.add(service);
                 }
+            }
+        }
+        
+        synchronized(writeLock) {
+            final Map<HttpMethod, RestXqServicesTrie> newSnapshot = copySnapshot();
+            final Set<RestXqService> removed = new LinkedHashSet<RestXqService>();
+            
+            for(final HttpMethod method : HttpMethod.values()) {
+                final List<RestXqService> methodAdded = addedByMethod.get(method);
+                final RestXqServicesTrie trie = snapshot.get(method);
                 
-                for(final HttpMethod method : HttpMethod.values()) {
-                    final List<RestXqService> services = orderedServices.get(method);
-                    if(services != null) {
-                        visitor.visit(method, services);
+                if(methodAdded == null && (trie == null || removeXQueryLocation == null)) {
+                    //nothing can change for this method
+                    continue;
+                }
+                
+                final List<RestXqService> serviceList = new ArrayList<RestXqService>();
+                boolean changed = false;
+                if(trie != null) {
+                    for(final RestXqService existing : trie.getServices()) {
+                        if(added.contains(existing)) {
+                            //replaced by the new service
+                            changed = true;
+                        } else if(removeXQueryLocation != null && existing.getResourceFunction().getXQueryLocation().equals(removeXQueryLocation)) {
+                            removed.add(existing);
+                            changed = true;
+                        } else {
+                            serviceList.add(existing);
+                        }
                     }
                 }
-            } else {
-            
-                for(final HttpMethod method : HttpMethod.values()) {
-                    final ReentrantReadWriteLock lock = getOrCreateMethodLock(method);
-                    
-                    lock.readLock().lock();
+                
+                if(methodAdded != null) {
+                    serviceList.addAll(methodAdded);
+                    changed = true;
+                }
+                
+                if(changed) {
+                    //sort once
+                    Collections.sort(serviceList);
                     
-                    final List<RestXqService> services = orderedServices.get(method);
-                    if(services != null) {
-                        visitor.visit(method, services);
+                    if(serviceList.isEmpty()) {
+                        newSnapshot.remove(method);
+                    } else {
+                        newSnapshot.put(method, new RestXqServicesTrie(serviceList));
                     }
                 }
             }
             
-        } finally {
-            for(final HttpMethod method : HttpMethod.values()) {
-                final ReentrantReadWriteLock lock = getOrCreateMethodLock(method);
-                lock.readLock().unlock();
-
+            //a service which has moved methods has not been removed
+            removed.removeAll(added);
+            
+            publish(newSnapshot);
+            
+            //update the listeners
+            for(final RestXqServiceRegistryListener listener : listeners) {
+                for(final RestXqService service : removed) {
+                    listener.deregistered(service);
+                }
+                for(final RestXqService service : added) {
+                    listener.registered(service);
+                }
             }
         }
     }
     
+    /**
+     * Visitor Interface for iterating over the RESTXQ Services Map
+     */
+    protected interface RestXqServiceMapVisitor {
+
+        /**
+         * Visits a HTTP Method in the RestXQ Services Map
+         * 
+         * @param method The HTTP Method for which the services are registered
+         * @param restXqServices The services registered against the HTTP Method
+         */
+        public void visit(final HttpMethod method, final List<RestXqService> restXqServices);
+    }
+    
+    /**
+     * Iterate over the Services Map
+     * 
+     * All methods are visited from the same consistent snapshot
+     * of the Services Map
+     * 
+     * @param visitor The visitor which visits the services map
+     */
+    public void iterate(final RestXqServiceMapVisitor visitor) {
+        for(final Map.Entry<HttpMethod, RestXqServicesTrie> methodServices : snapshot.entrySet()) {
+            visitor.visit(methodServices.getKey(), methodServices.getValue().getServices());
+        }
+    }
+    
+    /**
+     * Iterate over the Services Map
+     * 
+     * @param visitor The visitor which visits the services map
+     * @param eagerLockAll Ignored, iteration always works against a consistent snapshot
+     * 
+     * @deprecated Use {@link #iterate(RestXqServiceMapVisitor)}
+     */
+    @Deprecated
+    public void iterate(final RestXqServiceMapVisitor visitor, final boolean eagerLockAll) {
+        iterate(visitor);
+    }
+    
     
     /**
      * Gets the RESTXQ Service from the Map
@@ -157,40 +271,195 @@ public class RestXqServicesMap {
      * or null if there is no service that matches the request
      */
     public RestXqService get(final HttpMethod method, final HttpRequest request) {
-        final ReentrantReadWriteLock lock = getOrCreateMethodLock(method);
+        final RestXqServiceMatch match = getMatch(method, request);
+        if(match == null) {
+            return null;
+        } else {
+            return match.getService();
+        }
+    }
+    
+    /**
+     * Gets the match of a RESTXQ Service from the Map
+     * 
+     * The parameters of the request path are captured
+     * whilst the Services are matched against the request,
+     * so the path is only matched once per candidate Service.
+     * 
+     * @param method The HTTP Method to get the Service for
+     * @param request The HTTP Request to get the Service for
+     * 
+     * @return The match of the RESTXQ Service for the method and request
+     * or null if there is no service that matches the request
+     */
+    public RestXqServiceMatch getMatch(final HttpMethod method, final HttpRequest request) {
+        return getMatch(method, new NegotiationContext(request));
+    }
+    
+    /**
+     * Gets the match of a RESTXQ Service from the Map
+     * 
+     * @param method The HTTP Method to get the Service for
+     * @param negotiation The Content Negotiation context of the HTTP Request to get the Service for
+     * 
+     * @return The match of the RESTXQ Service for the method and request
+     * or null if there is no service that matches the request
+     * 
+     * @see #route(org.exquery.http.HttpMethod, org.exquery.restxq.impl.NegotiationContext)
+     */
+    public RestXqServiceMatch getMatch(final HttpMethod method, final NegotiationContext negotiation) {
+        return route(method, negotiation).getServiceMatch();
+    }
+    
+    /**
+     * Routes a request to a RESTXQ Service in the Map
+     * 
+     * The parameters of the request path are captured
+     * whilst the Services are matched against the request,
+     * so the path is only matched once per candidate Service.
+     * The Content Negotiation context is shared by all of
+     * the candidate Services. If no Service can service the request
+     * then the reason is determined in the same pass.
+     * 
+     * @param method The HTTP Method to get the Service for
+     * @param negotiation The Content Negotiation context of the HTTP Request to get the Service for
+     * 
+     * @return The result of routing the request, either the match of the
+     * RESTXQ Service or the reason that no Service can service the request
+     */
+    public RestXqRoutingResult route(final HttpMethod method, final NegotiationContext negotiation) {
+        
+        //work against a single snapshot
+        final Map<HttpMethod, RestXqServicesTrie> snapshot = this.snapshot;
         
+        final HttpRequest request = negotiation.getRequest();
         RestXqService result = null;
-        try {
-            lock.readLock().lock();
+        PathSegmentMatch resultPathMatch = null;
+        
+        //the reason for failure from the candidate which got furthest
+        HttpStatus failure = HttpStatus.Not_Found;
             
-            final List<RestXqService> services = orderedServices.get(method);
-            if(services != null) {
-                
-                final String acceptHeaderValue = request.getHeader(HttpHeader.ACCEPT.getHeaderName());
-                final AcceptHeader acceptHeader = acceptHeaderValue != null ? new AcceptHeader(acceptHeaderValue) : null;
-                
-                for(final RestXqService service : services) {
-                    if(service.canService(request)) {
-                        if(acceptHeader != null && result != null) {
-                            /* Does this service Produce an Internet Media Type
-                             * which has a higher Quality Factor in the Accept header
-                             * that the last result?
-                             */
-                            if(service.maxProducesQualityFactor(acceptHeader) > result.maxProducesQualityFactor(acceptHeader)) {
-                                //yes, so this service has preference over the last result
-                                result = service;
-                            }
-                        } else {
+        final RestXqServicesTrie trie = snapshot.get(method);
+        if(trie != null) {
+
+            //only consider the services whose path could match the request
+            final List<RestXqService> services = trie.getCandidates(request.getPath());
+
+            final boolean hasAcceptHeader = negotiation.getAcceptHeader() != null;
+            float resultQualityFactor = 0;
+
+            //captures are swapped with the result, so at most two are needed
+            PathSegmentMatch candidatePathMatch = new PathSegmentMatch();
+            resultPathMatch = new PathSegmentMatch();
+            
+            for(final RestXqService service : services) {
+                final HttpStatus status = negotiate(service, negotiation, candidatePathMatch);
+                if(status == HttpStatus.OK) {
+                    if(hasAcceptHeader && result != null) {
+                        /* Does this service Produce an Internet Media Type
+                         * which has a higher Quality Factor in the Accept header
+                         * that the last result?
+                         */
+                        final float qualityFactor = maxProducesQualityFactor(service, negotiation);
+                        if(qualityFactor > resultQualityFactor) {
+                            //yes, so this service has preference over the last result
                             result = service;
+                            resultQualityFactor = qualityFactor;
+                        } else {
+                            continue;
+                        }
+                    } else {
+                        result = service;
+                        if(hasAcceptHeader) {
+                            resultQualityFactor = maxProducesQualityFactor(service, negotiation);
+                        }
+                    }
+                    
+                    final PathSegmentMatch previousPathMatch = resultPathMatch;
+                    resultPathMatch = candidatePathMatch;
+                    candidatePathMatch = previousPathMatch;
+                    
+                } else if(result == null && failurePrecedence(status) > failurePrecedence(failure)) {
+                    failure = status;
+                }
+            }
+        }
+        
+        if(result != null) {
+            if(result instanceof AbstractRestXqService) {
+                return RestXqRoutingResult.found(new RestXqServiceMatch(result, resultPathMatch));
+            } else {
+                return RestXqRoutingResult.found(new RestXqServiceMatch(result, null));
+            }
+        }
+        
+        if(failure == HttpStatus.Not_Found) {
+            //is the path serviced for other methods?
+            final EnumSet<HttpMethod> allowedMethods = EnumSet.noneOf(HttpMethod.class);
+            for(final Map.Entry<HttpMethod, RestXqServicesTrie> otherMethod : snapshot.entrySet()) {
+                if(otherMethod.getKey() != method) {
+                    for(final RestXqService service : otherMethod.getValue().getCandidates(request.getPath())) {
+                        final PathAnnotation pathAnnotation = service.getResourceFunction().getPathAnnotation();
+                        if(pathAnnotation == null || pathAnnotation.matchesPath(request.getPath())) {
+                            allowedMethods.add(otherMethod.getKey());
+                            break;
                         }
-
                     }
                 }
             }
-            return result;
             
-        } finally {
-            lock.readLock().unlock();
+            if(!allowedMethods.isEmpty()) {
+                return RestXqRoutingResult.methodNotAllowed(allowedMethods);
+            }
+        }
+        
+        return RestXqRoutingResult.failed(failure);
+    }
+    
+    /**
+     * Gives the precedence of the reasons that a Service cannot service a
+     * request, a higher precedence means the Service got further in matching
+     * the request
+     */
+    private static int failurePrecedence(final HttpStatus status) {
+        switch(status) {
+            case Not_Acceptable:
+                return 3;
+            case Unsupported_Media_Type:
+                return 2;
+            case Not_Found:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * Determines if a Service can service the request,
+     * capturing the parameters of the request path where possible
+     * 
+     * @param service The RESTXQ Service
+     * @param negotiation The Content Negotiation context of the HTTP Request
+     * @param pathMatch Receives the parameters of the request path
+     * 
+     * @return HttpStatus.OK if the Service can service the request,
+     * otherwise the reason that it cannot
+     */
+    private HttpStatus negotiate(final RestXqService service, final NegotiationContext negotiation, final PathSegmentMatch pathMatch) {
+        if(service instanceof AbstractRestXqService) {
+            return ((AbstractRestXqService)service).negotiate(negotiation, pathMatch);
+        } else if(service.canService(negotiation.getRequest())) {
+            return HttpStatus.OK;
+        } else {
+            return HttpStatus.Not_Found;
+        }
+    }
+    
+    private float maxProducesQualityFactor(final RestXqService service, final NegotiationContext negotiation) {
+        if(service instanceof AbstractRestXqService) {
+            return ((AbstractRestXqService)service).maxProducesQualityFactor(negotiation);
+        } else {
+            return service.maxProducesQualityFactor(negotiation.getAcceptHeader());
         }
     }
     
@@ -203,16 +472,15 @@ public class RestXqServicesMap {
      * Service is removed
      */
     public void removeAll(final URI xqueryLocation, final List<RestXqServiceRegistryListener> listeners) {
+        
+        synchronized(writeLock) {
+            final Map<HttpMethod, RestXqServicesTrie> newSnapshot = copySnapshot();
+            final Map<HttpMethod, List<RestXqService>> removed = new EnumMap<HttpMethod, List<RestXqService>>(HttpMethod.class);
             
-        for(final HttpMethod key : orderedServices.keySet()) {
-            
-            final ReentrantReadWriteLock lock = getOrCreateMethodLock(key);
-            try {
-                lock.writeLock().lock();
-                
+            for(final HttpMethod key : snapshot.keySet()) {
 
                 final List<RestXqService> servicesToRemove = new ArrayList<RestXqService>();
-                final List<RestXqService> serviceList = orderedServices.get(key);
+                final List<RestXqService> serviceList = getServicesCopy(snapshot, key);
                 
                 for(final RestXqService service : serviceList) {
                     if(service.getResourceFunction().getXQueryLocation().equals(xqueryLocation)) {
@@ -223,22 +491,25 @@ public class RestXqServicesMap {
 
                 if(!servicesToRemove.isEmpty()) {
                     //remove the labelled service
-                    for(final RestXqService serviceToRemove : servicesToRemove) {
-                        serviceList.remove(serviceToRemove);
-                    }
+                    serviceList.removeAll(servicesToRemove);
 
                     //update the service list
-                    orderedServices.put(key, serviceList);
-                    
-                    //update the listeners
+                    newSnapshot.put(key, new RestXqServicesTrie(serviceList));
+                    removed.put(key, servicesToRemove);
+                }
+            }
+            
+            if(!removed.isEmpty()) {
+                publish(newSnapshot);
+
+                //update the listeners
+                for(final List<RestXqService> servicesRemoved : removed.values()) {
                     for(final RestXqServiceRegistryListener listener : listeners) {
-                        for(final RestXqService service : servicesToRemove) {
+                        for(final RestXqService service : servicesRemoved) {
                             listener.deregistered(service);
                         }
                     }
                 }
-            } finally {
-                lock.writeLock().unlock();
             }
         }
     }
@@ -251,15 +522,15 @@ public class RestXqServicesMap {
      * Service is removed
      */
     public void remove(final RestXqService service, final List<RestXqServiceRegistryListener> listeners) {
-        for(final HttpMethod key : orderedServices.keySet()) {
+        
+        synchronized(writeLock) {
+            final Map<HttpMethod, RestXqServicesTrie> newSnapshot = copySnapshot();
+            final List<RestXqService> removed = new ArrayList<RestXqService>();
             
-            final ReentrantReadWriteLock lock = getOrCreateMethodLock(key);
-            try {
-                lock.writeLock().lock();
-                
+            for(final HttpMethod key : snapshot.keySet()) {
 
                 RestXqService serviceToRemove = null;
-                final List<RestXqService> serviceList = orderedServices.get(key);
+                final List<RestXqService> serviceList = getServicesCopy(snapshot, key);
                 
                 for(final RestXqService orderedService : serviceList) {
                     if(orderedService.equals(service)) {
@@ -274,34 +545,59 @@ public class RestXqServicesMap {
                     serviceList.remove(serviceToRemove);
 
                     //update the service list
-                    orderedServices.put(key, serviceList);
-                    
-                    //update the listeners
+                    newSnapshot.put(key, new RestXqServicesTrie(serviceList));
+                    removed.add(serviceToRemove);
+                }
+            }
+            
+            if(!removed.isEmpty()) {
+                publish(newSnapshot);
+                
+                //update the listeners
+                for(final RestXqService serviceRemoved : removed) {
                     for(final RestXqServiceRegistryListener listener : listeners) {
-                        listener.deregistered(serviceToRemove);
+                        listener.deregistered(serviceRemoved);
                     }
                 }
-            } finally {
-                lock.writeLock().unlock();
             }
         }
     }
-
+    
     /**
-     * Gets of Creates a Lock for a specific HTTP Method
+     * Gets a modifiable copy of the Services for a HTTP Method
      * 
-     * @param method The HTTP Method to Get a lock object for
+     * @param snapshot The snapshot to copy the Services from
+     * @param method The HTTP Method to copy the Services for
      * 
-     * @return The Lock to use for the HTTP Method
+     * @return A copy of the ordered Services for the HTTP Method
      */
-    private ReentrantReadWriteLock getOrCreateMethodLock(final HttpMethod method) {
-        synchronized(methodLocks) {
-            ReentrantReadWriteLock lock = methodLocks.get(method);
-            if(lock == null) {
-                lock = new ReentrantReadWriteLock();
-                methodLocks.put(method, lock);
-            }
-            return lock;
+    private List<RestXqService> getServicesCopy(final Map<HttpMethod, RestXqServicesTrie> snapshot, final HttpMethod method) {
+        final RestXqServicesTrie trie = snapshot.get(method);
+        if(trie == null) {
+            return new ArrayList<RestXqService>();
+        } else {
+            return new ArrayList<RestXqService>(trie.getServices());
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Gets a modifiable copy of the current snapshot
+     * 
+     * @return A copy of the ordered services for each method
+     */
+    private Map<HttpMethod, RestXqServicesTrie> copySnapshot() {
+        final Map<HttpMethod, RestXqServicesTrie> copy = new EnumMap<HttpMethod, RestXqServicesTrie>(HttpMethod.class);
+        copy.putAll(snapshot);
+        return copy;
+    }
+    
+    /**
+     * Publishes a new snapshot for readers,
+     * must only be called whilst holding the writeLock
+     * 
+     * @param newSnapshot The new snapshot of the ordered services for each method
+     */
+    private void publish(final Map<HttpMethod, RestXqServicesTrie> newSnapshot) {
+        this.snapshot = Collections.unmodifiableMap(newSnapshot);
+    }
+}
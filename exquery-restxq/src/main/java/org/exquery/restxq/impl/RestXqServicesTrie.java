@@ -0,0 +1,225 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.exquery.http.URI;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.annotation.PathAnnotation;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+
+/**
+ * Immutable Trie of RESTXQ Services keyed on the segments
+ * of the Path Annotation of each Service's Resource Function
+ * 
+ * Concrete path segments are children keyed by their literal
+ * value, templated path segments are wildcard children. Looking
+ * up the candidate Services for a request path therefore costs
+ * in the order of the depth of the path rather than the number
+ * of registered Services.
+ * 
+ * The Trie only narrows down the Services whose path could
+ * match, each candidate must still be asked if it can service
+ * the request.
+ *
+ * @author Adam Retter
+ */
+public class RestXqServicesTrie {
+    
+    private final RestXqService[] services;
+    private final Node root = new Node();
+    
+    /**
+     * Services which cannot be placed in the Trie,
+     * i.e. those without a Path Annotation which match any path,
+     * they are always candidates
+     */
+    private final BitSet unrouted;
+    
+    /**
+     * @param orderedServices The Services ordered by Path Specificity,
+     * the order is preserved in the candidates returned from the Trie
+     */
+    public RestXqServicesTrie(final List<RestXqService> orderedServices) {
+        this.services = orderedServices.toArray(new RestXqService[orderedServices.size()]);
+        this.unrouted = new BitSet(services.length);
+        
+        for(int rank = 0; rank < services.length; rank++) {
+            final String[] segmentLiterals = getPathSegmentLiterals(services[rank]);
+            if(segmentLiterals == null) {
+                unrouted.set(rank);
+            } else {
+                Node node = root;
+                for(final String segmentLiteral : segmentLiterals) {
+                    node = node.getOrCreateChild(segmentLiteral);
+                }
+                node.ranks.add(rank);
+            }
+        }
+    }
+    
+    /**
+     * Gets all of the Services in the Trie
+     * 
+     * @return The Services in the same order
+     * as the Services that the Trie was constructed from
+     */
+    public List<RestXqService> getServices() {
+        return Collections.unmodifiableList(Arrays.asList(services));
+    }
+    
+    /**
+     * Gets the Services whose Path could match the request path
+     * 
+     * @param path The path of the HTTP Request
+     * 
+     * @return The candidate Services in the same order
+     * as the Services that the Trie was constructed from
+     */
+    public List<RestXqService> getCandidates(final String path) {
+        final BitSet candidates = (BitSet)unrouted.clone();
+        
+        final String[] segments = splitPath(path);
+        if(segments != null) {
+            collect(root, segments, 0, candidates);
+        }
+        
+        final List<RestXqService> result = new ArrayList<RestXqService>(candidates.cardinality());
+        for(int rank = candidates.nextSetBit(0); rank >= 0; rank = candidates.nextSetBit(rank + 1)) {
+            result.add(services[rank]);
+        }
+        return result;
+    }
+    
+    /**
+     * Walks the Trie collecting the ranks of the Services
+     * whose path segments match the request path segments
+     */
+    private void collect(final Node node, final String[] segments, final int depth, final BitSet candidates) {
+        if(depth == segments.length) {
+            for(final Integer rank : node.ranks) {
+                candidates.set(rank);
+            }
+            return;
+        }
+        
+        final String segment = segments[depth];
+        
+        final Node literalChild = node.literalChildren.get(segment);
+        if(literalChild != null) {
+            collect(literalChild, segments, depth + 1, candidates);
+        }
+        
+        //a templated segment never matches an empty path segment
+        if(node.templateChild != null && !segment.isEmpty()) {
+            collect(node.templateChild, segments, depth + 1, candidates);
+        }
+    }
+    
+    /**
+     * Splits a request path into its segments
+     * 
+     * @param path The request path
+     * 
+     * @return The segments of the path, or null if the path
+     * is not absolute and so cannot match any Path Annotation
+     */
+    static String[] splitPath(final String path) {
+        if(path == null || path.isEmpty() || path.charAt(0) != URI.PATH_SEGMENT_DELIMITER) {
+            return null;
+        }
+        
+        int count = 0;
+        for(int i = 0; i < path.length(); i++) {
+            if(path.charAt(i) == URI.PATH_SEGMENT_DELIMITER) {
+                count++;
+            }
+        }
+        
+        final String[] segments = new String[count];
+        int start = 1;
+        for(int i = 0; i < count; i++) {
+            int end = path.indexOf(URI.PATH_SEGMENT_DELIMITER, start);
+            if(end == -1) {
+                end = path.length();
+            }
+            segments[i] = path.substring(start, end);
+            start = end + 1;
+        }
+        return segments;
+    }
+    
+    /**
+     * Gets the segment literals of the Path Annotation of a Service
+     * 
+     * @return The segment literals, or null if the service
+     * cannot be placed in the Trie
+     */
+    private static String[] getPathSegmentLiterals(final RestXqService service) {
+        final PathAnnotation pathAnnotation = service.getResourceFunction().getPathAnnotation();
+        if(pathAnnotation instanceof PathAnnotationImpl) {
+            return ((PathAnnotationImpl)pathAnnotation).getPathSegmentLiterals();
+        } else {
+            return null;
+        }
+    }
+    
+    private static class Node {
+        private final Map<String, Node> literalChildren = new HashMap<String, Node>();
+        private Node templateChild = null;
+        
+        /**
+         * Ranks of the Services whose path terminates at this node
+         */
+        private final List<Integer> ranks = new ArrayList<Integer>();
+        
+        /**
+         * @param segmentLiteral The literal value of a path segment, or null for a templated segment
+         */
+        private Node getOrCreateChild(final String segmentLiteral) {
+            if(segmentLiteral == null) {
+                if(templateChild == null) {
+                    templateChild = new Node();
+                }
+                return templateChild;
+            } else {
+                Node child = literalChildren.get(segmentLiteral);
+                if(child == null) {
+                    child = new Node();
+                    literalChildren.put(segmentLiteral, child);
+                }
+                return child;
+            }
+        }
+    }
+}
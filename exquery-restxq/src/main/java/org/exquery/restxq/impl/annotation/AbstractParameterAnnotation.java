@@ -32,7 +32,7 @@ import org.exquery.restxq.RestXqErrorCodes;
 import org.exquery.restxq.RestXqErrorCodes.RestXqErrorCode;
 import org.exquery.restxq.annotation.ParameterAnnotation;
 import org.exquery.restxq.annotation.RestAnnotationException;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.ArraySequence;
 import org.exquery.xdm.type.StringTypedValue;
 import org.exquery.xquery.Cardinality;
 import org.exquery.xquery.Literal;
@@ -69,6 +69,15 @@ public abstract class AbstractParameterAnnotation extends AbstractRestAnnotation
         return parameterAnnotationMapping;
     }
     
+    /**
+     * Get the name of the Function Argument to which the Parameter is mapped
+     * 
+     * @return The name of the Function Argument
+     */
+    public String getFunctionArgumentName() {
+        return parameterAnnotationMapping.getFunctionArgumentName();
+    }
+    
     /**
      * Parses the Parameter Annotation Value
      * 
@@ -130,11 +139,11 @@ public abstract class AbstractParameterAnnotation extends AbstractRestAnnotation
     }
     
     protected Sequence<String> collectionToSequence(final Collection<String> collection) {
-        final SequenceImpl<String> sequence = new SequenceImpl<String>();
+        final ArraySequence.Builder<String> builder = new ArraySequence.Builder<String>(collection.size());
         for(final String value : collection) {
-            sequence.add(new StringTypedValue(value));
+            builder.add(new StringTypedValue(value));
         }
-        return sequence;
+        return builder.build();
     }
 
     @Override
@@ -28,7 +28,7 @@ package org.exquery.restxq.impl.annotation;
 
 import java.util.Arrays;
 import org.exquery.restxq.annotation.RestAnnotationException;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.ArraySequence;
 import org.exquery.xdm.type.StringTypedValue;
 import org.exquery.xquery.Cardinality;
 import org.exquery.xquery.Literal;
@@ -43,6 +43,39 @@ import org.exquery.xquery.Type;
  */
 public abstract class AbstractParameterWithDefaultAnnotation extends AbstractParameterAnnotation {
     
+    private Sequence defaultValues = Sequence.EMPTY_SEQUENCE;
+    
+    /**
+     * Checks that the Parameter Annotation is compatible
+     * with the function which it annotates, and converts
+     * any default values into a Sequence
+     *
+     * @throws RestAnnotationException if the Parameter could not be parsed
+     */
+    @Override
+    public void initialise() throws RestAnnotationException {
+        super.initialise();
+        
+        final Literal[] defaultLiterals = getParameterAnnotationMapping().getDefaultValues();
+        if(defaultLiterals.length > 0) {
+            this.defaultValues = literalsToSequence(defaultLiterals);
+        } else {
+            this.defaultValues = Sequence.EMPTY_SEQUENCE;
+        }
+    }
+    
+    /**
+     * Get the default value(s) of the Parameter
+     * 
+     * The Sequence is immutable and is shared between requests
+     * 
+     * @return The default values, or the empty sequence if
+     * no default values were specified
+     */
+    protected Sequence getDefaultValues() {
+        return defaultValues;
+    }
+    
     /**
      * @see AbstractParameterAnnotation#parseAnnotationValue()
      */
@@ -124,16 +157,16 @@ public abstract class AbstractParameterWithDefaultAnnotation extends AbstractPar
      * 
      * @param literals The literals
      * 
-     * @return The equivalent Sequence
+     * @return The equivalent immutable Sequence
      */
     protected Sequence literalsToSequence(final Literal[] literals) {
         //TODO cope with non-string literal types
         
-        final SequenceImpl<String> sequence = new SequenceImpl<String>();
-        for(final Literal literal : literals) {
-            sequence.add(new StringTypedValue(literal.getValue()));
+        final StringTypedValue[] values = new StringTypedValue[literals.length];
+        for(int i = 0; i < literals.length; i++) {
+            values[i] = new StringTypedValue(literals[i].getValue());
         }
         
-        return sequence;
+        return new ArraySequence<String>(values);
     }
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.exquery.restxq.RestXqErrorCodes;
+import org.exquery.restxq.RestXqErrorCodes.RestXqErrorCode;
+import org.exquery.restxq.annotation.CacheAnnotation;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Type;
+
+/**
+ * Implementation of RESTXQ Cache Annotation
+ * i.e. %rest:cache
+ * 
+ * The first literal is the max-age in seconds, any
+ * further literals are the names of the vary headers.
+ *
+ * @author Adam Retter
+ */
+public class CacheAnnotationImpl extends AbstractRestAnnotation implements CacheAnnotation {
+    
+    private int maxAge;
+    private List<String> varyHeaders;
+    
+    /**
+     * Checks that the Cache Annotation is valid
+     *
+     * @throws RestAnnotationException if the Cache Annotation could not be parsed
+     */
+    @Override
+    public void initialise() throws RestAnnotationException {
+        super.initialise();
+        
+        final Literal[] annotationLiterals = getLiterals();
+        if(annotationLiterals.length == 0) {
+            throw new RestAnnotationException(RestXqErrorCodes.RQST0047);
+        }
+        
+        this.maxAge = parseMaxAge(annotationLiterals[0]);
+        
+        final List<String> varyHeaders = new ArrayList<String>(annotationLiterals.length - 1);
+        for(int i = 1; i < annotationLiterals.length; i++) {
+            final Literal varyHeaderLiteral = annotationLiterals[i];
+            if(varyHeaderLiteral.getType() != Type.STRING || varyHeaderLiteral.getValue().isEmpty()) {
+                throw new RestAnnotationException(RestXqErrorCodes.RQST0049);
+            }
+            varyHeaders.add(varyHeaderLiteral.getValue());
+        }
+        this.varyHeaders = Collections.unmodifiableList(varyHeaders);
+    }
+    
+    private int parseMaxAge(final Literal maxAgeLiteral) throws RestAnnotationException {
+        try {
+            final int maxAge = Integer.parseInt(maxAgeLiteral.getValue().trim());
+            if(maxAge < 0) {
+                throw new RestAnnotationException(RestXqErrorCodes.RQST0048);
+            }
+            return maxAge;
+        } catch(final NumberFormatException nfe) {
+            throw new RestAnnotationException(RestXqErrorCodes.RQST0048, nfe);
+        }
+    }
+
+    @Override
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    @Override
+    public List<String> getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    @Override
+    protected Cardinality getRequiredFunctionParameterCardinality() {
+        throw new UnsupportedOperationException("Not required.");
+    }
+
+    @Override
+    protected RestXqErrorCode getInvalidFunctionParameterCardinalityErr() {
+        throw new UnsupportedOperationException("Not required.");
+    }
+
+    @Override
+    protected Type getRequiredFunctionParameterType() {
+        throw new UnsupportedOperationException("Not required.");
+    }
+
+    @Override
+    protected RestXqErrorCode getInvalidFunctionParameterTypeErr() {
+        throw new UnsupportedOperationException("Not required.");
+    }
+}
@@ -26,6 +26,8 @@
  */
 package org.exquery.restxq.impl.annotation;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.exquery.http.ContentTypeHeader;
@@ -49,7 +51,7 @@ public class ConsumesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     //Regular Expression to match any Internet Media Type
     private final static Pattern ptnMediaType = Pattern.compile("(?:" + InternetMediaType.mediaType_regExp + ")|(?:" + InternetMediaType.typeName_regExp + "\\" + org.exquery.InternetMediaType.SUBTYPE_DELIMITER + "\\" + org.exquery.InternetMediaType.WILDCARD + ")");
     
-    private Pattern ptnMatchMediaTypes;
+    private MediaTypeMatcher mediaTypeMatcher;
     
     /**
      * Checks that the Parameter Annotation is compatible
@@ -60,20 +62,20 @@ public class ConsumesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     @Override
     public void initialise() throws RestAnnotationException {
         super.initialise();
-        this.ptnMatchMediaTypes = parseAnnotationValue();
+        this.mediaTypeMatcher = new MediaTypeMatcher(parseAnnotationValue());
     }
     
-    protected Pattern getMediaTypesPatternMatcher() {
-        return ptnMatchMediaTypes;
+    protected MediaTypeMatcher getMediaTypeMatcher() {
+        return mediaTypeMatcher;
     }
     
     /**
      * Parses the Media Type Annotation Value
      * 
-     * @return The RegularExpression describing the media types against which a media type may be matched
+     * @return The media types against which a media type may be matched
      * @throws RestAnnotationException if the media type annotations values are invalid
      */
-    protected Pattern parseAnnotationValue() throws RestAnnotationException {
+    protected Set<String> parseAnnotationValue() throws RestAnnotationException {
         final Literal[] annotationLiterals = getLiterals();
         
         if(annotationLiterals.length == 0) {
@@ -88,15 +90,15 @@ public class ConsumesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
      * 
      * @param mediaTypesLiterals The literals of the Media Type annotation
      * 
-     * @return The RegularExpression describing the media types against which a media type may be matched
+     * @return The media types against which a media type may be matched
      * 
      * @throws RestAnnotationException if the media type annotations values are invalid
      */
-    protected Pattern parseAnnotationLiterals(final Literal mediaTypesLiterals[]) throws RestAnnotationException {
+    protected Set<String> parseAnnotationLiterals(final Literal mediaTypesLiterals[]) throws RestAnnotationException {
 
         Matcher mtcMediaType = null;
         
-        final StringBuilder builder = new StringBuilder();
+        final Set<String> mediaTypes = new LinkedHashSet<String>();
         
         for(final Literal mediaTypeLiteral : mediaTypesLiterals) {
         
@@ -119,16 +121,10 @@ public class ConsumesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
                 throw new RestAnnotationException(getInvalidMediaTypeErr());
             }
             
-            //add to match pattern
-            if(builder.length() != 0) {
-                builder.append("|");
-            }
-            builder.append("(?:");
-            builder.append(encodeAsRegExp(mediaType));
-            builder.append(")");
+            mediaTypes.add(mediaType);
         }
         
-        return Pattern.compile(builder.toString());
+        return mediaTypes;
     }
     
     @Override
@@ -145,9 +141,24 @@ public class ConsumesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     
     @Override
     public boolean matchesMediaType(final String mediaType) {
-        final ContentTypeHeader contentTypeHeader = new ContentTypeHeader(mediaType);
+        return matchesMediaType(new ContentTypeHeader(mediaType));
+    }
+    
+    /**
+     * Determines whether a Content-Type header matches
+     * the Media Type Annotation
+     * 
+     * @param contentTypeHeader The parsed Content-Type header, or null
+     * if the request has no Content-Type and so cannot be consumed
+     * 
+     * @return true if the Internet Media Type of the Content-Type header matches
+     */
+    public boolean matchesMediaType(final ContentTypeHeader contentTypeHeader) {
+        if(contentTypeHeader == null) {
+            return false;
+        }
         
-        return getMediaTypesPatternMatcher().matcher(contentTypeHeader.getInternetMediaType()).matches();
+        return getMediaTypeMatcher().matches(contentTypeHeader.getInternetMediaType());
     }
     
     @Override
@@ -28,10 +28,9 @@ package org.exquery.restxq.impl.annotation;
 
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqErrorCodes;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.SingletonSequence;
 import org.exquery.xdm.type.StringTypedValue;
 import org.exquery.xquery.Cardinality;
-import org.exquery.xquery.Literal;
 import org.exquery.xquery.Sequence;
 import org.exquery.xquery.TypedArgumentValue;
 
@@ -59,15 +58,9 @@ public class CookieParameterAnnotation extends AbstractParameterWithDefaultAnnot
             public Sequence<String> getTypedValue() {
                 final Object queryParam = request.getCookieValue(getParameterAnnotationMapping().getParameterName());
                 if(queryParam == null) {
-                    
-                    final Literal defaultLiterals[] = getParameterAnnotationMapping().getDefaultValues();
-                    if(defaultLiterals.length > 0) {
-                        return literalsToSequence(defaultLiterals);
-                    } else {
-                        return Sequence.EMPTY_SEQUENCE;
-                    }
+                    return getDefaultValues();
                 } else if(queryParam instanceof String) {
-                    return new SequenceImpl<String>(new StringTypedValue((String)queryParam));
+                    return new SingletonSequence<String>(new StringTypedValue((String)queryParam));
                 }
                 return null;
             }
@@ -32,9 +32,8 @@ import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqErrorCodes;
 import org.exquery.restxq.RestXqErrorCodes.RestXqErrorCode;
 import org.exquery.xdm.type.Base64BinaryTypedValue;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.SingletonSequence;
 import org.exquery.xdm.type.StringTypedValue;
-import org.exquery.xquery.Literal;
 import org.exquery.xquery.Sequence;
 import org.exquery.xquery.TypedArgumentValue;
 
@@ -73,12 +72,11 @@ public class FormParameterAnnotation extends AbstractParameterWithDefaultAnnotat
             public Sequence getTypedValue() {
                 final Object formParam = request.getFormParam(getParameterAnnotationMapping().getParameterName());
                 if(formParam == null) {
-                    final Literal defaultLiterals[] = getParameterAnnotationMapping().getDefaultValues();
-                    return literalsToSequence(defaultLiterals);
+                    return getDefaultValues();
                 }
                 
                 if(formParam instanceof String) {
-                    return new SequenceImpl(new StringTypedValue((String)formParam));
+                    return new SingletonSequence<String>(new StringTypedValue((String)formParam));
                 } else if(formParam instanceof List) {
                     final List<String> formFieldValues = (List<String>)formParam;
                     return collectionToSequence(formFieldValues);
@@ -89,7 +87,7 @@ public class FormParameterAnnotation extends AbstractParameterWithDefaultAnnotat
                         //TODO log
                         return null;
                     }*/
-                    return new SequenceImpl<InputStream>(new Base64BinaryTypedValue((InputStream)formParam));
+                    return new SingletonSequence<InputStream>(new Base64BinaryTypedValue((InputStream)formParam));
                 }
                 
                 return null;
@@ -30,9 +30,8 @@ import java.util.Arrays;
 import java.util.List;
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqErrorCodes;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.SingletonSequence;
 import org.exquery.xdm.type.StringTypedValue;
-import org.exquery.xquery.Literal;
 import org.exquery.xquery.Sequence;
 import org.exquery.xquery.TypedArgumentValue;
 
@@ -60,19 +59,13 @@ public class HeaderParameterAnnotation extends AbstractParameterWithDefaultAnnot
             public Sequence<String> getTypedValue() {
                 final Object queryParam = request.getHeader(getParameterAnnotationMapping().getParameterName());
                 if(queryParam == null) {
-                    
-                    final Literal defaultLiterals[] = getParameterAnnotationMapping().getDefaultValues();
-                    if(defaultLiterals.length > 0) {
-                        return literalsToSequence(defaultLiterals);
-                    } else {
-                        return Sequence.EMPTY_SEQUENCE;
-                    }
+                    return getDefaultValues();
                 } else if(queryParam instanceof String) {
                     if(queryParam.toString().indexOf(',') > -1) {
                         final List<String> queryParamValues = Arrays.asList(queryParam.toString().split(","));
                         return collectionToSequence(queryParamValues);
                     } else {
-                        return new SequenceImpl<String>(new StringTypedValue((String)queryParam));
+                        return new SingletonSequence<String>(new StringTypedValue((String)queryParam));
                     }
                 }
                 return null;
@@ -0,0 +1,153 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.Collection;
+
+/**
+ * Matches Internet Media Types against a set of Internet Media Types
+ * which were given in a Media Type annotation
+ * 
+ * The type and subtype of each Media Type are split once
+ * when the matcher is constructed, matching is then by direct
+ * comparison of the type and subtype, where a wildcard type or
+ * subtype on either side matches any. No regular expression is used.
+ * 
+ * The type and subtype are compared ignoring case, as they are
+ * case-insensitive (RFC 7231), whereas the regular expressions
+ * previously used by the Media Type Annotations were case-sensitive.
+ * 
+ * Instances are immutable and thread-safe.
+ *
+ * @author Adam Retter
+ */
+public class MediaTypeMatcher {
+    
+    private final static char SUBTYPE_DELIMITER = org.exquery.InternetMediaType.SUBTYPE_DELIMITER;
+    private final static char WILDCARD = org.exquery.InternetMediaType.WILDCARD;
+    
+    /**
+     * The type of each media type, or null for a wildcard
+     */
+    private final String[] types;
+    
+    /**
+     * The subtype of each media type, or null for a wildcard
+     */
+    private final String[] subtypes;
+
+    /**
+     * @param mediaTypes The Internet Media Types to match against,
+     * each is either type/subtype, type/* or *&#47;*
+     * 
+     * @throws IllegalArgumentException If a Media Type does not have a type and subtype
+     */
+    public MediaTypeMatcher(final Collection<String> mediaTypes) {
+        this.types = new String[mediaTypes.size()];
+        this.subtypes = new String[mediaTypes.size()];
+        
+        int i = 0;
+        for(final String mediaType : mediaTypes) {
+            final int delimiter = mediaType.indexOf(SUBTYPE_DELIMITER);
+            if(delimiter < 1 || delimiter == mediaType.length() - 1) {
+                throw new IllegalArgumentException("Invalid Internet Media Type: '" + mediaType + "'");
+            }
+            
+            final String type = mediaType.substring(0, delimiter);
+            final String subtype = mediaType.substring(delimiter + 1);
+            types[i] = isWildcard(type) ? null : type;
+            subtypes[i] = isWildcard(subtype) ? null : subtype;
+            i++;
+        }
+    }
+    
+    /**
+     * Determines whether a Media Type matches any of the Media Types of this matcher
+     * 
+     * @param mediaType An Internet Media Type or Media Range,
+     * i.e. type/subtype, type/* or *&#47;*, without parameters
+     * 
+     * @return true if the Media Type matches
+     */
+    public boolean matches(final String mediaType) {
+        final int delimiter = mediaType.indexOf(SUBTYPE_DELIMITER);
+        if(delimiter < 1) {
+            return false;
+        }
+        
+        final int subtypeLength = mediaType.length() - delimiter - 1;
+        final boolean anyType = delimiter == 1 && mediaType.charAt(0) == WILDCARD;
+        final boolean anySubtype = subtypeLength == 1 && mediaType.charAt(delimiter + 1) == WILDCARD;
+        
+        for(int i = 0; i < types.length; i++) {
+            final String type = types[i];
+            if(!anyType && type != null && !(type.length() == delimiter && mediaType.regionMatches(true, 0, type, 0, delimiter))) {
+                continue;
+            }
+            
+            final String subtype = subtypes[i];
+            if(anySubtype || subtype == null || (subtype.length() == subtypeLength && mediaType.regionMatches(true, delimiter + 1, subtype, 0, subtypeLength))) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Determines whether two Media Types match each other
+     * 
+     * @param mediaType An Internet Media Type or Media Range, without parameters
+     * @param otherMediaType Another Internet Media Type or Media Range, without parameters
+     * 
+     * @return true if the Media Types match
+     */
+    public static boolean matches(final String mediaType, final String otherMediaType) {
+        final int delimiter = mediaType.indexOf(SUBTYPE_DELIMITER);
+        final int otherDelimiter = otherMediaType.indexOf(SUBTYPE_DELIMITER);
+        if(delimiter < 1 || otherDelimiter < 1) {
+            return false;
+        }
+        
+        final boolean typeMatches = (delimiter == 1 && mediaType.charAt(0) == WILDCARD)
+                || (otherDelimiter == 1 && otherMediaType.charAt(0) == WILDCARD)
+                || (delimiter == otherDelimiter && mediaType.regionMatches(true, 0, otherMediaType, 0, delimiter));
+        if(!typeMatches) {
+            return false;
+        }
+        
+        final int subtypeLength = mediaType.length() - delimiter - 1;
+        final int otherSubtypeLength = otherMediaType.length() - otherDelimiter - 1;
+        return (subtypeLength == 1 && mediaType.charAt(delimiter + 1) == WILDCARD)
+                || (otherSubtypeLength == 1 && otherMediaType.charAt(otherDelimiter + 1) == WILDCARD)
+                || (subtypeLength == otherSubtypeLength && mediaType.regionMatches(true, delimiter + 1, otherMediaType, otherDelimiter + 1, subtypeLength));
+    }
+    
+    private static boolean isWildcard(final String s) {
+        return s.length() == 1 && s.charAt(0) == WILDCARD;
+    }
+}
@@ -84,26 +84,27 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
 
     @Override
     public boolean matchesPath(final String path) {
-        final Matcher m = getPathInformation().getPathMatcher(path);
-        return m.matches();
+        return getPathSegmentMatcher().matches(path);
     }
 
     @Override
     public Map<String, String> extractPathParameters(final String uriPath) {
-        
-        final Map<String, String> pathParamNameAndValues = new HashMap<String, String>();        
-        final Matcher m = getPathInformation().getPathMatcher(uriPath);        
-
-        if(m.matches()) {
-            for(int i = 1 ; i <= m.groupCount(); i++) {
-
-                final String paramName = getPathInformation().getFnParamNameForGroup(i);
-                final String paramValue = m.group(i);
-
-                pathParamNameAndValues.put(paramName, paramValue);
-            }
+        final PathSegmentMatch match = new PathSegmentMatch();
+        if(getPathSegmentMatcher().match(uriPath, match)) {
+            return match.toMap();
+        } else {
+            return new HashMap<String, String>();
         }
-        return pathParamNameAndValues;
+    }
+    
+    /**
+     * Gets the compiled matcher for the path
+     * 
+     * @return The matcher which matches request paths and
+     * captures the values of templated path segments in a single pass
+     */
+    public PathSegmentMatcher getPathSegmentMatcher() {
+        return getPathInformation().getPathSegmentMatcher();
     }
 
     /**
@@ -121,6 +122,18 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
         return getPathInformation().getPathSpecificityMetric();
     }
     
+    /**
+     * Gets the literal values of the segments of the path
+     * 
+     * @return An array with one entry for each segment of the path,
+     * in the order they appear in the path. A concrete path segment
+     * is represented by its literal value and a templated path
+     * segment is represented by null.
+     */
+    public String[] getPathSegmentLiterals() {
+        return getPathInformation().getSegmentLiterals().clone();
+    }
+    
     /**
      * Get the Path Information
      * 
@@ -169,6 +182,8 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
 
         final Map<Integer, String> groupParamNames = new HashMap<Integer, String>();
         int groupCount = 0;
+        
+        final List<String> segmentLiterals = new ArrayList<String>();
 
         long pathSpecificityMetric = 0;
         
@@ -207,6 +222,9 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
                 //record the position of the param in the path
                 groupParamNames.put(++groupCount, fnParamName);
                 
+                //templated segments have no literal value
+                segmentLiterals.add(null);
+                
                 //record the specifity of this path segment
                 pathSpecificityMetric ^= PATH_SEGMENT_PARAM_SPECIFICITY;
             } else {
@@ -215,6 +233,8 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
                 thisPathExprRegExp.append(Pattern.quote(pathSegment));
                 thisPathExprRegExp.append(")");
                 
+                segmentLiterals.add(pathSegment);
+                
                 //record the specifity of this path segment
                 pathSpecificityMetric ^= PATH_SEGMENT_SOLID_SPECIFICITY;
             }
@@ -226,7 +246,10 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
         //we now have a pattern for matching the URI path!
         final Pattern ptnThisPath = Pattern.compile(thisPathExprRegExp.toString());
 
-        return new PathInformation(pathStr, ptnThisPath, groupParamNames, pathSpecificityMetric);
+        final String[] pathSegmentLiterals = segmentLiterals.toArray(new String[segmentLiterals.size()]);
+        final PathSegmentMatcher pathSegmentMatcher = new PathSegmentMatcher(pathSegmentLiterals, pathFnParams.toArray(new String[pathFnParams.size()]));
+        
+        return new PathInformation(pathStr, ptnThisPath, groupParamNames, pathSegmentLiterals, pathSegmentMatcher, pathSpecificityMetric);
     }
 
     //TODO enforcing that annotations other than path annotations have optional parameters is not the right thing to do here!
@@ -300,6 +323,16 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
          */
         private final Map<Integer, String> groupParamNames;
         
+        /**
+         * Literal values of each path segment, null for a templated segment
+         */
+        private final String[] segmentLiterals;
+        
+        /**
+         * Matcher which matches a corresponding path and captures the Parameters of the Path
+         */
+        private final PathSegmentMatcher pathSegmentMatcher;
+        
         /**
          * Metric describing the path Specificity
          */
@@ -310,12 +343,16 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
          * @param pathLiteral The original path literal provided as the parameter to the Path Annotation
          * @param ptnPath The Regular Expression that matches a path against the pathLiteral
          * @param groupParamNames A mapping of group indexes in the regular expression to parameter names
+         * @param segmentLiterals The literal value of each path segment, or null for a templated path segment
+         * @param pathSegmentMatcher The matcher that matches a path against the pathLiteral
          * @param pathSpecificityMetric The specificity metric of the path
          */
-        public PathInformation(final String pathLiteral, final Pattern ptnPath, final Map<Integer, String> groupParamNames, final long pathSpecificityMetric) {
+        public PathInformation(final String pathLiteral, final Pattern ptnPath, final Map<Integer, String> groupParamNames, final String[] segmentLiterals, final PathSegmentMatcher pathSegmentMatcher, final long pathSpecificityMetric) {
             this.pathLiteral = pathLiteral;
             this.ptnPath = ptnPath;
             this.groupParamNames = groupParamNames;
+            this.segmentLiterals = segmentLiterals;
+            this.pathSegmentMatcher = pathSegmentMatcher;
             this.pathSpecificityMetric = pathSpecificityMetric;
         }
 
@@ -340,7 +377,11 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
          * @param path A Path to process with the Path Regular Expression
          * 
          * @return The Mather for the Path Regular Expression
+         * 
+         * @deprecated Use {@link #getPathSegmentMatcher()} which
+         * gives the same results without the use of regular expressions
          */
+        @Deprecated
         public Matcher getPathMatcher(final String path) {
             return ptnPath.matcher(path);
         }
@@ -358,6 +399,25 @@ public class PathAnnotationImpl extends AbstractRestAnnotation implements PathAn
         }
 
         
+        /**
+         * Gets the compiled Matcher for the Path
+         * 
+         * @return The Matcher for the Path
+         */
+        public PathSegmentMatcher getPathSegmentMatcher() {
+            return pathSegmentMatcher;
+        }
+        
+        /**
+         * Gets the literal values of the segments of the path
+         * 
+         * @return The literal value of each path segment,
+         * or null for a templated path segment
+         */
+        public String[] getSegmentLiterals() {
+            return segmentLiterals;
+        }
+        
         /**
          * Gets the specificity metric of this path
          * 
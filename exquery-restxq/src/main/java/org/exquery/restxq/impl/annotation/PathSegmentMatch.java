@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parameters captured by matching a request path
+ * with a {@link PathSegmentMatcher}
+ * 
+ * Only the positions of the captured values are recorded, so
+ * an instance may be reused for many matches without allocation.
+ * Instances are not thread-safe.
+ *
+ * @author Adam Retter
+ */
+public class PathSegmentMatch {
+    
+    private final static String[] NO_PARAMETERS = new String[0];
+    
+    private String path = null;
+    private String[] parameterNames = NO_PARAMETERS;
+    
+    /**
+     * start and end positions of each captured parameter in the path
+     */
+    private int[] bounds = new int[0];
+    
+    void reset(final String path, final String[] parameterNames) {
+        this.path = path;
+        this.parameterNames = parameterNames;
+        if(bounds.length < parameterNames.length * 2) {
+            bounds = new int[parameterNames.length * 2];
+        }
+    }
+    
+    void setParameterBounds(final int parameter, final int start, final int end) {
+        bounds[parameter * 2] = start;
+        bounds[parameter * 2 + 1] = end;
+    }
+    
+    /**
+     * Gets the number of captured parameters
+     * 
+     * @return The number of captured parameters
+     */
+    public int getParameterCount() {
+        return parameterNames.length;
+    }
+    
+    /**
+     * Gets the name of a captured parameter
+     * 
+     * @param parameter The index of the parameter, in path order
+     * 
+     * @return The name of the function parameter
+     */
+    public String getParameterName(final int parameter) {
+        return parameterNames[parameter];
+    }
+    
+    /**
+     * Gets the value of a captured parameter
+     * 
+     * @param parameter The index of the parameter, in path order
+     * 
+     * @return The value captured from the path
+     */
+    public String getParameterValue(final int parameter) {
+        return path.substring(bounds[parameter * 2], bounds[parameter * 2 + 1]);
+    }
+    
+    /**
+     * Gets the captured parameters as a Map
+     * 
+     * @return A Map where the Key is the parameter name, and the Value is extracted from the path
+     */
+    public Map<String, String> toMap() {
+        final Map<String, String> parameters = new HashMap<String, String>(parameterNames.length * 2);
+        for(int i = 0; i < parameterNames.length; i++) {
+            parameters.put(getParameterName(i), getParameterValue(i));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import org.exquery.http.URI;
+
+/**
+ * Compiled matcher for the path of a Path Annotation
+ * 
+ * Matches a request path against the segments of the
+ * Path Annotation and captures the values of the templated
+ * segments in a single pass over the characters of the path,
+ * without the use of regular expressions.
+ * 
+ * The results are the same as matching the request path
+ * against the regular expression built from the Path Annotation, where
+ * each concrete segment must be matched exactly and each templated
+ * segment must be one or more RFC 3986 'pchar' characters,
+ * see {@link URI#pchar_regExp}.
+ * 
+ * Instances are immutable and thread-safe.
+ *
+ * @author Adam Retter
+ */
+public class PathSegmentMatcher {
+    
+    /**
+     * Lookup of the single characters allowed in a 'pchar',
+     * i.e. 'unreserved', 'sub-delims', ':' and '@'
+     */
+    private final static boolean[] PCHAR = new boolean[128];
+    static {
+        for(char c = 'A'; c <= 'Z'; c++) {
+            PCHAR[c] = true;
+        }
+        for(char c = 'a'; c <= 'z'; c++) {
+            PCHAR[c] = true;
+        }
+        for(char c = '0'; c <= '9'; c++) {
+            PCHAR[c] = true;
+        }
+        for(final char c : "-._~!$&'()*+,;=:@".toCharArray()) {
+            PCHAR[c] = true;
+        }
+    }
+    
+    private final static char PCT_ENCODED = '%';
+    
+    private final String[] segmentLiterals;
+    private final String[] parameterNames;
+    
+    /**
+     * @param segmentLiterals The literal value of each path segment, or null for a templated path segment
+     * @param parameterNames The name of the function parameter for each templated path segment, in path order
+     * 
+     * @throws IllegalArgumentException if the number of parameter names does not match the number of templated segments
+     */
+    public PathSegmentMatcher(final String[] segmentLiterals, final String[] parameterNames) {
+        int templated = 0;
+        for(final String segmentLiteral : segmentLiterals) {
+            if(segmentLiteral == null) {
+                templated++;
+            }
+        }
+        if(templated != parameterNames.length) {
+            throw new IllegalArgumentException("Expected " + templated + " parameter names, but found " + parameterNames.length);
+        }
+        
+        this.segmentLiterals = segmentLiterals.clone();
+        this.parameterNames = parameterNames.clone();
+    }
+    
+    /**
+     * Gets the number of templated segments in the path
+     * 
+     * @return The number of parameters captured by a match
+     */
+    public int getParameterCount() {
+        return parameterNames.length;
+    }
+    
+    /**
+     * Gets the name of the function parameter of a templated segment
+     * 
+     * @param parameter The index of the parameter, in path order
+     * 
+     * @return The name of the function parameter
+     */
+    public String getParameterName(final int parameter) {
+        return parameterNames[parameter];
+    }
+    
+    /**
+     * Determines if the path matches
+     * 
+     * @param path The request path
+     * 
+     * @return true if the path matches, false otherwise
+     */
+    public boolean matches(final String path) {
+        return match(path, null);
+    }
+    
+    /**
+     * Matches the path and captures the values of any
+     * templated segments
+     * 
+     * @param path The request path
+     * @param match The match to reset and record the captured parameters into,
+     * may be reused across calls from the same thread. May be null if the parameters
+     * are not required.
+     * 
+     * @return true if the path matches, false otherwise. When false, the
+     * content of the match is undefined.
+     */
+    public boolean match(final String path, final PathSegmentMatch match) {
+        if(path == null) {
+            return false;
+        }
+        
+        if(match != null) {
+            match.reset(path, parameterNames);
+        }
+        
+        final int length = path.length();
+        int pos = 0;
+        int parameter = 0;
+        
+        for(final String segmentLiteral : segmentLiterals) {
+            if(pos >= length || path.charAt(pos) != URI.PATH_SEGMENT_DELIMITER) {
+                return false;
+            }
+            pos++;
+            
+            if(segmentLiteral != null) {
+                //concrete segment
+                if(!path.startsWith(segmentLiteral, pos)) {
+                    return false;
+                }
+                pos += segmentLiteral.length();
+            } else {
+                //templated segment
+                final int start = pos;
+                pos = scanPchars(path, pos, length);
+                if(pos == start) {
+                    return false;
+                }
+                if(match != null) {
+                    match.setParameterBounds(parameter, start, pos);
+                }
+                parameter++;
+            }
+        }
+        
+        return pos == length;
+    }
+    
+    /**
+     * Scans over 'pchar' characters
+     * 
+     * @return The position of the first character from pos which is not part of a 'pchar'
+     */
+    private static int scanPchars(final String path, int pos, final int length) {
+        while(pos < length) {
+            final char c = path.charAt(pos);
+            if(c == PCT_ENCODED) {
+                if(pos + 2 < length && isHexDig(path.charAt(pos + 1)) && isHexDig(path.charAt(pos + 2))) {
+                    pos += 3;
+                } else {
+                    break;
+                }
+            } else if(c < PCHAR.length && PCHAR[c]) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+    
+    /**
+     * HEXDIG as per {@link URI#HEXDIG_regExp}
+     */
+    private static boolean isHexDig(final char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F');
+    }
+}
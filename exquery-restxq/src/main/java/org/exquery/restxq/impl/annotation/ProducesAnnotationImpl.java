@@ -26,6 +26,7 @@
  */
 package org.exquery.restxq.impl.annotation;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -54,6 +55,7 @@ public class ProducesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     private final static Pattern ptnMediaType = Pattern.compile(InternetMediaType.mediaType_regExp);
     
     private Set<String> internetMediaTypes;
+    private MediaTypeMatcher mediaTypeMatcher;
     
     /**
      * Checks that the Parameter Annotation is compatible
@@ -65,6 +67,7 @@ public class ProducesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     public void initialise() throws RestAnnotationException {
         super.initialise();
         this.internetMediaTypes = parseAnnotationValue();
+        this.mediaTypeMatcher = new MediaTypeMatcher(internetMediaTypes);
     }
     
     /**
@@ -126,6 +129,15 @@ public class ProducesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
         return mediaTypes;
     }
     
+    /**
+     * Gets the Internet Media Types which are produced
+     * 
+     * @return The Internet Media Types
+     */
+    public Set<String> getInternetMediaTypes() {
+        return Collections.unmodifiableSet(internetMediaTypes);
+    }
+    
     @Override
     public boolean matchesMediaType(final HttpRequest request) {
         String acceptHeaderValue = request.getHeader(HttpHeaderName.Accept.toString());
@@ -138,23 +150,26 @@ public class ProducesAnnotationImpl extends AbstractMediaTypeAnnotation implemen
     
     @Override
     public boolean matchesMediaType(final String mediaType) {
+        return matchesMediaType(new AcceptHeader(mediaType));
+    }
+    
+    /**
+     * Determines whether an Accept header matches
+     * the Media Type Annotation
+     * 
+     * @param acceptHeader The parsed Accept header, or null
+     * if the request has no Accept header and so accepts anything
+     * 
+     * @return true if any media range of the Accept header matches
+     */
+    public boolean matchesMediaType(final AcceptHeader acceptHeader) {
+        if(acceptHeader == null) {
+            return true;
+        }
         
-        final AcceptHeader acceptHeader = new AcceptHeader(mediaType);
         for(final Accept accept : acceptHeader.getAccepts()) {
-        
-            final Pattern pEncodedMediaType = Pattern.compile(encodeAsRegExp(accept.getMediaRange()));
-            Matcher mtcMediaType = null;
-
-            for(final String internetMediaType : internetMediaTypes) {
-                if(mtcMediaType == null) {
-                    mtcMediaType = pEncodedMediaType.matcher(internetMediaType);
-                } else {
-                    mtcMediaType = mtcMediaType.reset(internetMediaType);
-                }
-
-                if(mtcMediaType.matches()) {
-                    return true;
-                }
+            if(mediaTypeMatcher.matches(accept.getMediaRange())) {
+                return true;
             }
         }
         
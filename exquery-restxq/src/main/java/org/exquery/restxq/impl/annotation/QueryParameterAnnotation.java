@@ -30,9 +30,8 @@ import java.util.List;
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqErrorCodes;
 import org.exquery.restxq.RestXqErrorCodes.RestXqErrorCode;
-import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.SingletonSequence;
 import org.exquery.xdm.type.StringTypedValue;
-import org.exquery.xquery.Literal;
 import org.exquery.xquery.Sequence;
 import org.exquery.xquery.TypedArgumentValue;
 
@@ -61,15 +60,9 @@ public class QueryParameterAnnotation extends AbstractParameterWithDefaultAnnota
             public Sequence<String> getTypedValue() {
                 final Object queryParam = request.getQueryParam(getParameterAnnotationMapping().getParameterName());
                 if(queryParam == null) {
-                    
-                    final Literal defaultLiterals[] = getParameterAnnotationMapping().getDefaultValues();
-                    if(defaultLiterals.length > 0) {
-                        return literalsToSequence(defaultLiterals);
-                    } else {
-                        return Sequence.EMPTY_SEQUENCE;
-                    }
+                    return getDefaultValues();
                 } else if(queryParam instanceof String) {
-                    return new SequenceImpl<String>(new StringTypedValue((String)queryParam));
+                    return new SingletonSequence<String>(new StringTypedValue((String)queryParam));
                 } else if(queryParam instanceof List) {
                     final List<String> queryParamValues = (List<String>)queryParam;
                     return collectionToSequence(queryParamValues);
@@ -142,6 +142,10 @@ public class RestAnnotationFactory {
                 restAnnotation = new CookieParameterAnnotation();
                 break;
                 
+            case cache:
+                restAnnotation = new CacheAnnotationImpl();
+                break;
+                
             default:
                 throw new IllegalArgumentException("Unknown annotation: " + annotation.getName().toString());
         }
@@ -26,14 +26,20 @@
  */
 package org.exquery.restxq.impl.serialization;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import javax.xml.namespace.QName;
 import org.exquery.InternetMediaType;
-import org.exquery.http.ContentTypeHeader;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
 import org.exquery.http.HttpResponse;
 import org.exquery.restxq.Namespace;
 import org.exquery.restxq.RestXqServiceException;
@@ -41,7 +47,10 @@ import org.exquery.restxq.RestXqServiceSerializer;
 import org.exquery.restxq.impl.serialization.XmlWriter.Attribute;
 import org.exquery.serialization.annotation.*;
 import org.exquery.serialization.annotation.MethodAnnotation.SupportedMethod;
+import org.exquery.xdm.type.Base64BinaryTypedValue;
+import org.exquery.xdm.type.BinaryContent;
 import org.exquery.xquery.Sequence;
+import org.exquery.xquery.StreamingSequence;
 import org.exquery.xquery.Type;
 import org.exquery.xquery.TypedValue;
 import org.w3c.dom.Document;
@@ -65,6 +74,8 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
         DEFAULT_SERIALIZATION_PROPERTIES.put(SerializationProperty.MEDIA_TYPE, DEFAULT_INTERNET_MEDIA_TYPE);
     }
     
+    private volatile ResponseCompression responseCompression = null;
+    
     /**
      * Gets the Default Encoding
      * 
@@ -105,6 +116,97 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
      */
     @Override
     public void serialize(final Sequence result, final Set<SerializationAnnotation> serializationAnnotations, final HttpResponse response) throws RestXqServiceException {
+        serialize(result, createSerializationTemplate(serializationAnnotations), response);
+    }
+    
+    /**
+     * Creates the Serialization Template for a Resource Function
+     * 
+     * The template should be created once for a Resource Function and reused
+     * for each response, so that the Serialization Annotations are not processed
+     * for every response.
+     * 
+     * @param serializationAnnotations Serialization Annotations which are present on the Resource Function
+     * 
+     * @return The Serialization Template
+     */
+    public SerializationTemplate createSerializationTemplate(final Set<SerializationAnnotation> serializationAnnotations) {
+        final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        serializationProperties.putAll(getDefaultSerializationProperties());
+        processSerializationAnnotations(serializationAnnotations, serializationProperties);
+        
+        Boolean compress = null;
+        for(final SerializationAnnotation serializationAnnotation : serializationAnnotations) {
+            if(serializationAnnotation instanceof CompressAnnotation) {
+                compress = ((CompressAnnotation)serializationAnnotation).isYes();
+            }
+        }
+        
+        return new SerializationTemplate(serializationProperties, compress);
+    }
+    
+    /**
+     * Set the compression of response bodies
+     * 
+     * @param responseCompression The compression of response bodies,
+     * or null to disable compression which is the default
+     */
+    public void setResponseCompression(final ResponseCompression responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+    
+    /**
+     * Get the compression of response bodies
+     * 
+     * @return The compression of response bodies, or null if compression is disabled
+     */
+    public ResponseCompression getResponseCompression() {
+        return responseCompression;
+    }
+    
+    /**
+     * Serializes the result of a RESTXQ Service,
+     * compressing the body if it is acceptable to the request
+     *
+     * @param result The result of the RESTXQ Service's Resource Function invokation
+     * @param serializationTemplate The Serialization Template of the Resource Function
+     * @param request The HTTP Request which the result is for
+     * @param response The HTTP Response to Serialize the result to
+     *
+     * @throws RestXqServiceException If an error occurs during serialization
+     * 
+     * @see #setResponseCompression(ResponseCompression)
+     */
+    public void serialize(final Sequence result, final SerializationTemplate serializationTemplate, final HttpRequest request, final HttpResponse response) throws RestXqServiceException {
+        final ResponseCompression compression = getResponseCompression();
+        if(compression == null || !compression.isEnabled(serializationTemplate.getCompress()) || response.isCommitted()) {
+            serialize(result, serializationTemplate, response);
+            return;
+        }
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(request, response);
+        try {
+            serialize(result, serializationTemplate, compressingResponse);
+            compressingResponse.finish();
+        } catch(final IOException ioe) {
+            throw new RestXqServiceException("Error while compressing response: " + ioe.toString(), ioe);
+        } finally {
+            compressingResponse.release();
+        }
+    }
+    
+    /**
+     * Serializes the result of a RESTXQ Service
+     *
+     * @param result The result of the RESTXQ Service's Resource Function invokation
+     * @param serializationTemplate The Serialization Template of the Resource Function
+     * @param response The HTTP Response to Serialize the result to
+     *
+     * @throws RestXqServiceException If an error occurs during serialization
+     * 
+     * @see #createSerializationTemplate(java.util.Set)
+     */
+    public void serialize(final Sequence result, final SerializationTemplate serializationTemplate, final HttpResponse response) throws RestXqServiceException {
         
         // some xquery functions can write directly to the output stream
         // (response:stream-binary() etc...)
@@ -113,41 +215,98 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
             return;
         }
         
-        final Iterator<TypedValue> itResult = result.iterator();
-        if(itResult.hasNext()) {
-            final TypedValue firstResultPart = itResult.next();
+        //only look ahead to the first item, so that a streaming result is consumed just once
+        final TypedValue firstResultPart = firstItem(result);
+        if(firstResultPart != null) {
             
-            //determine if the first element in the sequence is rest:response
-            Element elem = null;
-            
-            if(firstResultPart.getType().equals(Type.DOCUMENT)) {
-                elem = ((Document)firstResultPart.getValue()).getDocumentElement();
-            } else if(firstResultPart.getType().equals(Type.ELEMENT)) {
-                elem = (Element)firstResultPart.getValue();
-            }
-            
-            final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
-            serializationProperties.putAll(getDefaultSerializationProperties());
+            //determine if the first item in the sequence is rest:response
+            final RestResponse restResponse = getRestResponse(firstResultPart);
             
             //serialize either 1) rest:response and optional body, or 2) just the body
-            if(elem != null && new QName(elem.getNamespaceURI(), elem.getLocalName()).equals(RestResponseHandler.REST_RESPONSE_ELEMENT_NAME)) {
+            if(restResponse != null) {
                 //set the rest:response and serialize the body if it exists
                 
-                processSerializationAnnotations(serializationAnnotations, serializationProperties);
-                new RestResponseHandler().process(elem, serializationProperties, response);
-                if(itResult.hasNext()) {
-                    
-                    final Sequence seqBody = result.tail();
+                //rest:response may override the serialization properties of the template
+                final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+                serializationProperties.putAll(serializationTemplate.getSerializationProperties());
+                new RestResponseHandler().process(restResponse, serializationProperties, response);
+                
+                final Sequence seqBody = result.tail();
+                if(!isEmpty(seqBody)) {
                     serializeBody(seqBody, response, serializationProperties);
                 }
             } else {
                 //serialize just the body
-                processSerializationAnnotations(serializationAnnotations, serializationProperties);
-                serializeBody(result, response, serializationProperties);
+                serializeBody(result, response, serializationTemplate);
             }
         }
     }
     
+    /**
+     * Gets the rest:response from the first item of the result
+     * 
+     * By default the item must be a W3C DOM Document or Element,
+     * implementations with a different node model may override this
+     * to build the {@link RestResponse} directly from their own nodes.
+     * 
+     * @param firstResultPart The first item of the result of the Resource Function
+     * 
+     * @return The rest:response, or null if the item is not a rest:response
+     * 
+     * @throws RestXqServiceException If the rest:response is invalid
+     */
+    protected RestResponse getRestResponse(final TypedValue firstResultPart) throws RestXqServiceException {
+        final Element elem;
+        if(firstResultPart.getType().equals(Type.DOCUMENT)) {
+            elem = ((Document)firstResultPart.getValue()).getDocumentElement();
+        } else if(firstResultPart.getType().equals(Type.ELEMENT)) {
+            elem = (Element)firstResultPart.getValue();
+        } else {
+            return null;
+        }
+        
+        if(elem != null && new QName(elem.getNamespaceURI(), elem.getLocalName()).equals(RestResponseHandler.REST_RESPONSE_ELEMENT_NAME)) {
+            return new RestResponseHandler().parse(elem);
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the first item of a Sequence
+     * 
+     * A Streaming Sequence is not consumed
+     * 
+     * @param sequence The sequence
+     * 
+     * @return The first item, or null if the Sequence is empty
+     */
+    private TypedValue firstItem(final Sequence sequence) {
+        if(sequence instanceof StreamingSequence) {
+            final StreamingSequence streamingSequence = (StreamingSequence)sequence;
+            return streamingSequence.isEmpty() ? null : streamingSequence.head();
+        }
+        
+        final Iterator<? extends TypedValue<?>> itSequence = ((Sequence<?>)sequence).iterator();
+        return itSequence.hasNext() ? itSequence.next() : null;
+    }
+    
+    /**
+     * Determines if a Sequence is empty
+     * 
+     * A Streaming Sequence is not consumed
+     * 
+     * @param sequence The sequence
+     * 
+     * @return true if the Sequence is empty
+     */
+    private boolean isEmpty(final Sequence sequence) {
+        if(sequence instanceof StreamingSequence) {
+            return ((StreamingSequence)sequence).isEmpty();
+        }
+        return !sequence.iterator().hasNext();
+    }
+    
     /**
      * Processes the Serialization Annotations
      * and sets Serialization Properties that will
@@ -240,42 +399,127 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
      * @throws RestXqServiceException If a problem occurs during serialization
      */
     protected void serializeBody(final Sequence result, final HttpResponse response, final Map<SerializationProperty, String> serializationProperties) throws RestXqServiceException {
-        
-        SupportedMethod method = null;
-        
-        try {
-            final String methodProp = serializationProperties.get(SerializationProperty.METHOD);
-            method = (methodProp == null ? SupportedMethod.xml : SupportedMethod.valueOf(methodProp));
-        } catch(final IllegalArgumentException iae) {
-            //do nothing
-
-            //TODO debugging
-            System.out.println(iae.getMessage());
-        }
+        serializeBody(result, response, new SerializationTemplate(serializationProperties));
+    }
+    
+    /**
+     * Serialize to the body of the HTTP Response
+     *
+     * @param result The result to serialize
+     * @param response The response to serialize the result to
+     * @param serializationTemplate The properties that affect serialization
+     *
+     * @throws RestXqServiceException If a problem occurs during serialization
+     */
+    protected void serializeBody(final Sequence result, final HttpResponse response, final SerializationTemplate serializationTemplate) throws RestXqServiceException {
         
         //set the HTTP Content-Type header from the serialization properties
-        final String mediaType = serializationProperties.get(SerializationProperty.MEDIA_TYPE);
-        if(mediaType != null && !mediaType.isEmpty()) {
-            final String encoding = serializationProperties.get(SerializationProperty.ENCODING);
-            response.setContentType(new ContentTypeHeader(mediaType, encoding).toString());
+        final String contentType = serializationTemplate.getContentType();
+        if(contentType != null) {
+            response.setContentType(contentType);
         }
         
+        final SupportedMethod method = serializationTemplate.getMethod();
         if(method != null && method.equals(SupportedMethod.binary)) {
             serializeBinaryBody(result, response);
         } else {
-            serializeNodeBody(result, response, serializationProperties);
+            serializeNodeBody(result, response, serializationTemplate.getSerializationProperties());
         }
     }
     
     /**
      * Serialize the Result as Binary content
      * 
+     * Items which are {@link Base64BinaryTypedValue} are written through their
+     * {@link BinaryContent} to the channel from {@link #getOutputChannel(HttpResponse)},
+     * so that content backed by a file or buffer is transferred to the response without
+     * being copied through the heap when that is a native channel. Other items must have an
+     * InputStream value. If the result is a single item of known length, the
+     * Content-Length header is set.
+     * 
+     * May be overridden by implementations which have their own binary values.
+     * 
      * @param result The result to serialize as Binary, typically a sequence of one or more xs:base64Binary or xs:hexBinary
      * @param response The HTTP Response to serialize the result to
      * 
      * @throws RestXqServiceException If an error occurred whilst serializing the result
      */
-    protected abstract void serializeBinaryBody(final Sequence result, final HttpResponse response) throws RestXqServiceException;
+    protected void serializeBinaryBody(final Sequence result, final HttpResponse response) throws RestXqServiceException {
+        try {
+            final WritableByteChannel target = getOutputChannel(response);
+            
+            final Iterator<? extends TypedValue<?>> itResult = ((Sequence<?>)result).iterator();
+            boolean first = true;
+            while(itResult.hasNext()) {
+                final BinaryContent content = binaryContent(itResult.next());
+                if(first && content.getLength() > -1 && !itResult.hasNext()) {
+                    response.setHeader(HttpHeader.CONTENT_LENGTH.getHeaderName(), Long.toString(content.getLength()));
+                }
+                first = false;
+                
+                try {
+                    content.transferTo(target);
+                } finally {
+                    content.close();
+                }
+            }
+            
+            response.getOutputStream().flush();
+        } catch(final IOException ioe) {
+            throw new RestXqServiceException("Error while serializing binary: " + ioe.toString(), ioe);
+        }
+    }
+    
+    /**
+     * Gets the Binary Content of an item
+     * 
+     * @param item The item
+     * 
+     * @return The binary content of the item
+     * 
+     * @throws RestXqServiceException If the item is not binary
+     */
+    private BinaryContent binaryContent(final TypedValue item) throws RestXqServiceException {
+        if(item instanceof Base64BinaryTypedValue) {
+            return ((Base64BinaryTypedValue)item).getContent();
+        } else if(item.getValue() instanceof InputStream) {
+            return BinaryContent.fromStream((InputStream)item.getValue());
+        } else {
+            throw new RestXqServiceException("Cannot serialize a value of type " + item.getType() + " as binary");
+        }
+    }
+    
+    /**
+     * Gets a channel for writing the body of the HTTP Response
+     * 
+     * By default the output stream of the HTTP Response is wrapped by
+     * {@link Channels#newChannel(OutputStream)}, unless it is a {@link FileOutputStream}.
+     * Binary content is then still copied through a buffer on the heap,
+     * as for example {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}
+     * can only avoid the copy when the target is a channel of the operating system.
+     * 
+     * Implementations whose container provides a native channel for the response
+     * should override this to return it (can be overridden!). The response may be
+     * a wrapper which transforms its output stream, e.g. to compress it, in which
+     * case this implementation should be used instead.
+     * 
+     * The channel must not be closed, as that would close the response.
+     * 
+     * @param response The HTTP Response
+     * 
+     * @return A channel which writes to the body of the HTTP Response
+     * 
+     * @throws IOException If the output of the HTTP Response cannot be obtained
+     */
+    protected WritableByteChannel getOutputChannel(final HttpResponse response) throws IOException {
+        final OutputStream os = response.getOutputStream();
+        if(os instanceof FileOutputStream) {
+            //allows FileChannel#transferTo to copy directly between files
+            return ((FileOutputStream)os).getChannel();
+        } else {
+            return Channels.newChannel(os);
+        }
+    }
     
     /**
      * Serialize the Result
@@ -287,7 +531,7 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
      * 
      * @param result The result to serialize, typically a sequence of one or more documents
      * @param response The HTTP Response to serialize the result to
-     * @param serializationProperties Properties for the serialization
+     * @param serializationProperties Properties for the serialization, which may be immutable
      * 
      * @throws RestXqServiceException If an error occurred whilst serializing the result
      */
@@ -309,10 +553,10 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
         try {
             writer.setProperties(getDefaultSerializationProperties());
             
-            final QName qnResponse = new QName("response", Namespace.ANNOTATION_NS);
-            final QName qnException = new QName("exception", Namespace.ANNOTATION_ERROR_NS);
-            final QName message = new QName("message", Namespace.ANNOTATION_ERROR_NS);
-            final QName qnStack = new QName("stack", Namespace.ANNOTATION_ERROR_NS);
+            final QName qnResponse = new QName(Namespace.ANNOTATION_NS, "response", Namespace.ANNOTATION_PREFIX);
+            final QName qnException = new QName(Namespace.ANNOTATION_ERROR_NS, "exception", Namespace.ANNOTATION_ERROR_PREFIX);
+            final QName message = new QName(Namespace.ANNOTATION_ERROR_NS, "message", Namespace.ANNOTATION_ERROR_PREFIX);
+            final QName qnStack = new QName(Namespace.ANNOTATION_ERROR_NS, "stack", Namespace.ANNOTATION_ERROR_PREFIX);
 
             writer.startDocument();
             writer.startElement(qnResponse);
@@ -324,7 +568,7 @@ public abstract class AbstractRestXqServiceSerializer implements RestXqServiceSe
             for(final StackTraceElement element : trace) {
                 
                 final Attribute attributes[] = {
-                    attribute(new QName("file"), element.getFileName()),
+                    attribute(new QName("file"), element.getFileName() == null ? "" : element.getFileName()),
                     attribute(new QName("class"), element.getClassName()),
                     attribute(new QName("method"), element.getMethodName()),
                     attribute(new QName("line"), Integer.toString(element.getLineNumber()))
@@ -0,0 +1,415 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.impl.serialization.ResponseCompression.ContentEncoding;
+
+/**
+ * HTTP Response whose body is compressed
+ * 
+ * The body is buffered until it exceeds the threshold of the
+ * {@link ResponseCompression}, only then is it decided to compress it,
+ * so small bodies are sent as they are. A Content-Length set before the
+ * decision is held back, as it does not apply to a compressed body.
+ * A Content-Encoding set by the Resource Function, for example by
+ * rest:response, prevents compression.
+ * 
+ * @see ResponseCompression#compress(org.exquery.http.HttpRequest, org.exquery.http.HttpResponse)
+ *
+ * @author Adam Retter
+ */
+public class CompressingHttpResponse implements HttpResponse {
+    
+    private final static byte[] GZIP_HEADER = {
+        (byte)0x1f, (byte)0x8b,     //magic
+        Deflater.DEFLATED,          //compression method
+        0,                          //flags
+        0, 0, 0, 0,                 //modification time
+        0,                          //extra flags
+        (byte)0xff                  //operating system, unknown
+    };
+    
+    /**
+     * The value of Deflater.SYNC_FLUSH from Java 7
+     */
+    private final static int SYNC_FLUSH = 2;
+    
+    /**
+     * Deflater#deflate(byte[], int, int, int) from Java 7,
+     * or null on Java 6 where the Deflater cannot be flushed
+     */
+    private final static Method DEFLATE_WITH_FLUSH = getDeflateWithFlush();
+    
+    private final ResponseCompression compression;
+    private final HttpResponse response;
+    private final ContentEncoding contentEncoding;
+    
+    private boolean compressible;
+    private String contentType = null;
+    private String contentLength = null;
+    private CompressingOutputStream os = null;
+
+    /**
+     * @param compression The compression configuration
+     * @param response The HTTP Response to write the compressed body to
+     * @param contentEncoding The Content-Encoding to compress with, or null if the body should not be compressed
+     */
+    CompressingHttpResponse(final ResponseCompression compression, final HttpResponse response, final ContentEncoding contentEncoding) {
+        this.compression = compression;
+        this.response = response;
+        this.contentEncoding = contentEncoding;
+        this.compressible = contentEncoding != null;
+    }
+    
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if(os == null) {
+            os = new CompressingOutputStream(compression.getThreshold());
+        }
+        return os;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return response.isCommitted();
+    }
+
+    @Override
+    public void setHeader(final String httpHeaderName, final String value) {
+        if(httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_LENGTH.getHeaderName())) {
+            if(os == null || os.isUndecided()) {
+                contentLength = value;
+            } else if(!os.isCompressing()) {
+                response.setHeader(httpHeaderName, value);
+            }
+            
+        } else if(httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_ENCODING.getHeaderName())) {
+            //the body is already encoded
+            compressible = false;
+            response.setHeader(httpHeaderName, value);
+            
+        } else if(httpHeaderName.equalsIgnoreCase(HttpHeader.VARY.getHeaderName())) {
+            final String acceptEncoding = HttpHeader.ACCEPT_ENCODING.getHeaderName();
+            if(value.toLowerCase(Locale.ENGLISH).contains(acceptEncoding.toLowerCase(Locale.ENGLISH)) || value.trim().equals("*")) {
+                response.setHeader(httpHeaderName, value);
+            } else {
+                response.setHeader(httpHeaderName, value + ", " + acceptEncoding);
+            }
+            
+        } else {
+            if(httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_TYPE.getHeaderName())) {
+                contentType = value;
+            }
+            response.setHeader(httpHeaderName, value);
+        }
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status, final String reason) {
+        response.setStatus(status, reason);
+    }
+
+    @Override
+    public void setStatus(final HttpStatus status) {
+        response.setStatus(status);
+    }
+
+    @Override
+    public boolean containsHeader(final String httpHeaderName) {
+        if(contentLength != null && httpHeaderName.equalsIgnoreCase(HttpHeader.CONTENT_LENGTH.getHeaderName())) {
+            return true;
+        }
+        return response.containsHeader(httpHeaderName);
+    }
+
+    @Override
+    public void setContentType(final String contentType) {
+        this.contentType = contentType;
+        response.setContentType(contentType);
+    }
+    
+    /**
+     * Completes the body, writing any buffered data
+     * 
+     * @throws IOException If the body cannot be written
+     */
+    public void finish() throws IOException {
+        if(os != null) {
+            os.finish();
+        } else if(contentLength != null) {
+            response.setHeader(HttpHeader.CONTENT_LENGTH.getHeaderName(), contentLength);
+        }
+    }
+    
+    /**
+     * Releases the Deflater, if the body was not finished it is abandoned
+     */
+    public void release() {
+        if(os != null) {
+            os.release();
+        }
+    }
+    
+    private class CompressingOutputStream extends OutputStream {
+        
+        private final byte[] buffer;
+        private int count = 0;
+        private final byte[] singleByte = new byte[1];
+        
+        private boolean decided = false;
+        private boolean finished = false;
+        private boolean compressing = false;
+        private OutputStream out = null;
+        
+        private Deflater deflater = null;
+        private byte[] deflated = null;
+        private CRC32 crc = null;
+        private long uncompressedBytes = 0;
+        private long compressedBytes = 0;
+
+        public CompressingOutputStream(final int threshold) {
+            this.buffer = new byte[threshold];
+        }
+        
+        public boolean isUndecided() {
+            return !decided;
+        }
+        
+        public boolean isCompressing() {
+            return compressing;
+        }
+        
+        @Override
+        public void write(final int b) throws IOException {
+            singleByte[0] = (byte)b;
+            write(singleByte, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if(finished) {
+                throw new IOException("Response body is finished");
+            }
+            
+            if(!decided) {
+                if(count + len <= buffer.length) {
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+                
+                //the body is larger than the threshold
+                decide(true);
+            }
+            
+            if(compressing) {
+                deflate(b, off, len);
+            } else {
+                out.write(b, off, len);
+            }
+        }
+        
+        private void decide(final boolean overThreshold) throws IOException {
+            decided = true;
+            
+            if(overThreshold && compressible && compression.isCompressible(contentType)) {
+                compressing = true;
+                response.setHeader(HttpHeader.CONTENT_ENCODING.getHeaderName(), contentEncoding.getName());
+                out = response.getOutputStream();
+                
+                deflater = compression.getDeflaterPool(contentEncoding).borrow();
+                deflated = new byte[Math.max(buffer.length, 512)];
+                if(contentEncoding == ContentEncoding.GZIP) {
+                    crc = new CRC32();
+                    out.write(GZIP_HEADER);
+                    compressedBytes += GZIP_HEADER.length;
+                }
+                
+                deflate(buffer, 0, count);
+            } else {
+                if(contentLength != null) {
+                    response.setHeader(HttpHeader.CONTENT_LENGTH.getHeaderName(), contentLength);
+                }
+                
+                //an empty body does not touch the response output stream
+                if(overThreshold || count > 0) {
+                    out = response.getOutputStream();
+                    out.write(buffer, 0, count);
+                }
+            }
+        }
+        
+        private void deflate(final byte[] b, final int off, final int len) throws IOException {
+            if(len == 0) {
+                return;
+            }
+            
+            uncompressedBytes += len;
+            if(crc != null) {
+                crc.update(b, off, len);
+            }
+            
+            deflater.setInput(b, off, len);
+            while(!deflater.needsInput()) {
+                writeDeflated();
+            }
+        }
+        
+        private void writeDeflated() throws IOException {
+            final int deflatedLen = deflater.deflate(deflated, 0, deflated.length);
+            if(deflatedLen > 0) {
+                out.write(deflated, 0, deflatedLen);
+                compressedBytes += deflatedLen;
+            }
+        }
+
+        /**
+         * Flushes the body
+         * 
+         * A body which is still below the threshold stays buffered.
+         * On Java 7 and later the compressed data written so far is
+         * pushed to the client, on Java 6 the Deflater cannot be flushed,
+         * so compressed data only reaches the client as the Deflater
+         * produces it or when the body is finished.
+         */
+        @Override
+        public void flush() throws IOException {
+            if(compressing && !finished && DEFLATE_WITH_FLUSH != null) {
+                int deflatedLen;
+                do {
+                    deflatedLen = deflateWithFlush();
+                    if(deflatedLen > 0) {
+                        out.write(deflated, 0, deflatedLen);
+                        compressedBytes += deflatedLen;
+                    }
+                } while(deflatedLen == deflated.length);
+            }
+            
+            if(out != null) {
+                out.flush();
+            }
+        }
+        
+        private int deflateWithFlush() throws IOException {
+            try {
+                return (Integer)DEFLATE_WITH_FLUSH.invoke(deflater, deflated, 0, deflated.length, SYNC_FLUSH);
+            } catch(final IllegalAccessException iae) {
+                throw new IOException("Unable to flush the Deflater: " + iae.getMessage(), iae);
+            } catch(final InvocationTargetException ite) {
+                throw new IOException("Unable to flush the Deflater: " + ite.getCause().getMessage(), ite.getCause());
+            }
+        }
+        
+        public void finish() throws IOException {
+            if(finished) {
+                return;
+            }
+            
+            if(!decided) {
+                decide(false);
+            }
+            
+            finished = true;
+            
+            if(compressing) {
+                try {
+                    deflater.finish();
+                    while(!deflater.finished()) {
+                        writeDeflated();
+                    }
+                    
+                    if(crc != null) {
+                        writeGzipTrailer();
+                    }
+                } finally {
+                    release();
+                }
+                compression.recordCompressed(uncompressedBytes, compressedBytes);
+            } else {
+                compression.recordUncompressed();
+            }
+        }
+        
+        private void writeGzipTrailer() throws IOException {
+            final byte[] trailer = new byte[8];
+            writeIntLE(trailer, 0, (int)crc.getValue());
+            writeIntLE(trailer, 4, (int)uncompressedBytes);
+            out.write(trailer);
+            compressedBytes += trailer.length;
+        }
+        
+        private void writeIntLE(final byte[] b, final int off, final int i) {
+            b[off] = (byte)i;
+            b[off + 1] = (byte)(i >> 8);
+            b[off + 2] = (byte)(i >> 16);
+            b[off + 3] = (byte)(i >> 24);
+        }
+        
+        public void release() {
+            if(deflater != null) {
+                compression.getDeflaterPool(contentEncoding).release(deflater);
+                deflater = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            if(out != null) {
+                out.close();
+            }
+        }
+    }
+    
+    private static Method getDeflateWithFlush() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch(final NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+    
+    /**
+     * Determines whether {@link OutputStream#flush()} pushes
+     * the compressed data written so far to the client
+     * 
+     * @return true on Java 7 and later
+     */
+    static boolean isFlushSupported() {
+        return DEFLATE_WITH_FLUSH != null;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of Deflaters
+ * 
+ * A Deflater holds native memory which is only freed by
+ * {@link Deflater#end()}, reusing them avoids allocating
+ * and freeing that memory for every response.
+ *
+ * @author Adam Retter
+ */
+class DeflaterPool {
+    
+    private final int level;
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> deflaters;
+    
+    /**
+     * @param maxSize The maximum number of idle Deflaters to keep
+     * @param level The compression level of the Deflaters
+     * @param nowrap true for raw deflate data, false for the zlib format
+     */
+    public DeflaterPool(final int maxSize, final int level, final boolean nowrap) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.deflaters = new ArrayBlockingQueue<Deflater>(maxSize);
+    }
+    
+    /**
+     * Takes a Deflater from the pool, or creates a new Deflater if the pool is empty
+     * 
+     * @return A Deflater which must be returned by {@link #release(Deflater)}
+     */
+    public Deflater borrow() {
+        final Deflater deflater = deflaters.poll();
+        if(deflater != null) {
+            return deflater;
+        } else {
+            return new Deflater(level, nowrap);
+        }
+    }
+    
+    /**
+     * Returns a Deflater to the pool, or ends it if the pool is full
+     * 
+     * @param deflater A Deflater obtained from {@link #borrow()}
+     */
+    public void release(final Deflater deflater) {
+        deflater.reset();
+        if(!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Gets the number of idle Deflaters in the pool
+     * 
+     * @return The number of idle Deflaters
+     */
+    public int size() {
+        return deflaters.size();
+    }
+}
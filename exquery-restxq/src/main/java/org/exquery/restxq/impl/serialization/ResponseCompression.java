@@ -0,0 +1,285 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+
+/**
+ * Compression of the HTTP Response body
+ * 
+ * Compression is opt-in, it is enabled by setting this on the
+ * serializer, see {@link AbstractRestXqServiceSerializer#setResponseCompression(ResponseCompression)}.
+ * Each Resource Function may then override whether its responses are compressed
+ * by the %output:compress("yes"|"no") annotation.
+ * 
+ * The Content-Encoding is negotiated from the Accept-Encoding header of the request,
+ * only gzip and deflate are supported as the JDK provides no other codecs. Bodies
+ * smaller than the threshold are sent uncompressed, as are bodies whose media type
+ * is already compressed. Deflaters are pooled and reused between responses.
+ *
+ * @author Adam Retter
+ */
+public class ResponseCompression {
+    
+    public final static int DEFAULT_THRESHOLD = 1024;
+    public final static int DEFAULT_POOL_SIZE = 16;
+    
+    /**
+     * The Content-Encodings which can be produced
+     */
+    public enum ContentEncoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+        
+        private final String name;
+        
+        ContentEncoding(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+    
+    private final int threshold;
+    private final boolean compressByDefault;
+    private final DeflaterPool gzipDeflaters;
+    private final DeflaterPool deflateDeflaters;
+    
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong uncompressedCount = new AtomicLong();
+    
+    public ResponseCompression() {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, DEFAULT_POOL_SIZE, true);
+    }
+    
+    /**
+     * @param threshold The minimum size in bytes of a body which is compressed
+     * @param level The compression level, see {@link Deflater}
+     * @param poolSize The maximum number of idle Deflaters to keep for each Content-Encoding
+     * @param compressByDefault Whether the responses of Resource Functions without
+     * an %output:compress annotation are compressed
+     */
+    public ResponseCompression(final int threshold, final int level, final int poolSize, final boolean compressByDefault) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        if(poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be greater than zero");
+        }
+        this.threshold = threshold;
+        this.compressByDefault = compressByDefault;
+        
+        //gzip frames raw deflate data itself, deflate is the zlib format
+        this.gzipDeflaters = new DeflaterPool(poolSize, level, true);
+        this.deflateDeflaters = new DeflaterPool(poolSize, level, false);
+    }
+    
+    /**
+     * Determines if the responses of a Resource Function are compressed
+     * 
+     * @param compress The value of the %output:compress annotation of
+     * the Resource Function, or null if it has no such annotation
+     * 
+     * @return true if the responses may be compressed
+     */
+    public boolean isEnabled(final Boolean compress) {
+        return compress == null ? compressByDefault : compress.booleanValue();
+    }
+    
+    /**
+     * Wraps the HTTP Response so that its body is compressed
+     * with the Content-Encoding negotiated for the request
+     * 
+     * {@link CompressingHttpResponse#finish()} must be called once the
+     * body has been written, and {@link CompressingHttpResponse#release()} always.
+     * 
+     * @param request The HTTP Request
+     * @param response The HTTP Response to compress the body of
+     * 
+     * @return The HTTP Response to write the body to
+     */
+    public CompressingHttpResponse compress(final HttpRequest request, final HttpResponse response) {
+        final ContentEncoding contentEncoding = negotiate(request.getHeader(HttpHeader.ACCEPT_ENCODING.getHeaderName()));
+        
+        //the body differs by Accept-Encoding even when this request is not compressed
+        response.setHeader(HttpHeader.VARY.getHeaderName(), HttpHeader.ACCEPT_ENCODING.getHeaderName());
+        
+        return new CompressingHttpResponse(this, response, contentEncoding);
+    }
+    
+    /**
+     * Chooses the Content-Encoding for an Accept-Encoding header
+     * 
+     * @param acceptEncoding The value of the Accept-Encoding header, or null
+     * 
+     * @return The preferred Content-Encoding, or null if the
+     * body should not be compressed
+     */
+    public ContentEncoding negotiate(final String acceptEncoding) {
+        if(acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        
+        float gzipQ = -1;
+        float deflateQ = -1;
+        float anyQ = -1;
+        
+        for(final String codingAndParams : acceptEncoding.split(",")) {
+            final String parts[] = codingAndParams.split(";");
+            final String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            
+            float q = 1;
+            for(int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if(param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch(final NumberFormatException nfe) {
+                        q = 0;
+                    }
+                }
+            }
+            
+            if(coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQ = q;
+            } else if(coding.equals("deflate")) {
+                deflateQ = q;
+            } else if(coding.equals("*")) {
+                anyQ = q;
+            }
+        }
+        
+        //codings which are not named are acceptable at the quality of *
+        if(gzipQ < 0) {
+            gzipQ = anyQ;
+        }
+        if(deflateQ < 0) {
+            deflateQ = anyQ;
+        }
+        
+        if(gzipQ <= 0 && deflateQ <= 0) {
+            return null;
+        } else if(gzipQ >= deflateQ) {
+            return ContentEncoding.GZIP;
+        } else {
+            return ContentEncoding.DEFLATE;
+        }
+    }
+    
+    /**
+     * Determines if a body of the media type should be compressed
+     * 
+     * @param contentType The Content-Type of the body, or null if unknown
+     * 
+     * @return false if the media type is already compressed, true otherwise
+     */
+    protected boolean isCompressible(final String contentType) {
+        if(contentType == null) {
+            return true;
+        }
+        
+        final String mediaType = contentType.trim().toLowerCase(Locale.ENGLISH);
+        if(mediaType.startsWith("image/")) {
+            return mediaType.startsWith("image/svg");
+        }
+        
+        return !(mediaType.startsWith("audio/")
+            || mediaType.startsWith("video/")
+            || mediaType.startsWith("application/zip")
+            || mediaType.startsWith("application/gzip")
+            || mediaType.startsWith("application/x-gzip"));
+    }
+    
+    /**
+     * Gets the minimum size in bytes of a body which is compressed
+     * 
+     * @return The threshold
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    DeflaterPool getDeflaterPool(final ContentEncoding contentEncoding) {
+        return contentEncoding == ContentEncoding.GZIP ? gzipDeflaters : deflateDeflaters;
+    }
+    
+    void recordCompressed(final long uncompressedBytes, final long compressedBytes) {
+        bytesIn.addAndGet(uncompressedBytes);
+        bytesOut.addAndGet(compressedBytes);
+        compressedCount.incrementAndGet();
+    }
+    
+    void recordUncompressed() {
+        uncompressedCount.incrementAndGet();
+    }
+    
+    /**
+     * Gets the number of bytes which were compressed
+     * 
+     * @return The total size of the compressed bodies before compression
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+    
+    /**
+     * Gets the number of bytes which were produced by compression
+     * 
+     * @return The total size of the compressed bodies after compression
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+    
+    /**
+     * Gets the number of responses whose body was compressed
+     * 
+     * @return The number of compressed responses
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+    
+    /**
+     * Gets the number of responses whose body was not compressed,
+     * as it was too small, was not compressible or was not acceptable
+     * 
+     * @return The number of uncompressed responses
+     */
+    public long getUncompressedCount() {
+        return uncompressedCount.get();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.exquery.http.HttpStatus;
+
+/**
+ * Typed representation of a rest:response
+ * 
+ * A rest:response returned by a Resource Function is reduced to just
+ * the HTTP Status, Headers and Serialization Method which it describes.
+ * Implementations whose node model is not the W3C DOM may construct this
+ * directly from their own nodes, rather than building a DOM Element.
+ * 
+ * @see RestResponseHandler#parse(org.w3c.dom.Element)
+ *
+ * @author Adam Retter
+ */
+public class RestResponse {
+    
+    private final HttpStatus status;
+    private final String reason;
+    private final String method;
+    private final List<Header> headers;
+    
+    /**
+     * @param status The HTTP Status from http:response/@status, or null
+     * @param reason The HTTP Status reason from http:response/@reason, or null
+     * @param method The Serialization Method from output:serialization-parameters/output:method/@value, or null
+     * @param headers The HTTP Headers from http:response/http:header, in document order
+     */
+    public RestResponse(final HttpStatus status, final String reason, final String method, final List<Header> headers) {
+        this.status = status;
+        this.reason = reason;
+        this.method = method;
+        this.headers = Collections.unmodifiableList(new ArrayList<Header>(headers));
+    }
+    
+    /**
+     * Get the HTTP Status
+     * 
+     * @return The HTTP Status, or null if the status should not be set
+     */
+    public HttpStatus getStatus() {
+        return status;
+    }
+    
+    /**
+     * Get the reason for the HTTP Status
+     * 
+     * @return The reason, or null if there is no reason
+     */
+    public String getReason() {
+        return reason;
+    }
+    
+    /**
+     * Get the Serialization Method
+     * 
+     * @return The Serialization Method, or null if the method should not be set
+     */
+    public String getMethod() {
+        return method;
+    }
+    
+    /**
+     * Get the HTTP Headers
+     * 
+     * @return The immutable list of HTTP Headers, in document order
+     */
+    public List<Header> getHeaders() {
+        return headers;
+    }
+    
+    /**
+     * A HTTP Header of a rest:response
+     */
+    public static class Header {
+        private final String name;
+        private final String value;
+
+        public Header(final String name, final String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
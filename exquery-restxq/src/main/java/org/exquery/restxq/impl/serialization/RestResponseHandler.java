@@ -26,7 +26,9 @@
  */
 package org.exquery.restxq.impl.serialization;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import javax.xml.namespace.QName;
 
@@ -37,11 +39,15 @@ import org.exquery.http.HttpStatus;
 import org.exquery.restxq.Namespace;
 import org.exquery.restxq.RestXqServiceException;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
  * Class to process a rest:response Element which
  * can be returned from a Resource Function
+ * 
+ * The rest:response is first parsed to a {@link RestResponse}
+ * which is then applied to the HTTP Response
  *
  * @author Adam Retter
  */
@@ -72,43 +78,102 @@ public class RestResponseHandler {
      * @throws RestXqServiceException If a problem occurs during serialization
      */
     public void process(final Element restResponse, final Map<SerializationProperty, String> serializationProperties, final HttpResponse response) throws RestXqServiceException {
+        process(parse(restResponse), serializationProperties, response);
+    }
+    
+    /**
+     * Processes a rest:response and sets the appropriate headers and fields in the http response
+     * 
+     * @param restResponse The rest:response
+     * @param serializationProperties Any properties that affect serialization
+     * @param response The response to serialize the result to
+     */
+    public void process(final RestResponse restResponse, final Map<SerializationProperty, String> serializationProperties, final HttpResponse response) {
         
-        final NodeList nlSerializationParameters = restResponse.getElementsByTagNameNS(SERIALIZATION_PARAMETERS_ELEMENT_NAME.getNamespaceURI(), SERIALIZATION_PARAMETERS_ELEMENT_NAME.getLocalPart());
-        if(nlSerializationParameters.getLength() == 1) {
-            serializationProperties.putAll(processSerializationParameters((Element)nlSerializationParameters.item(0)));
+        if(restResponse.getMethod() != null) {
+            serializationProperties.put(SerializationProperty.METHOD, restResponse.getMethod());
         }
         
-        final NodeList nlHttpResponse = restResponse.getElementsByTagNameNS(HTTP_RESPONSE_ELEMENT_NAME.getNamespaceURI(), HTTP_RESPONSE_ELEMENT_NAME.getLocalPart());
-        if(nlHttpResponse.getLength() == 1) {
-            processHttpResponse((Element)nlHttpResponse.item(0), serializationProperties, response);
+        //set the status and reason
+        final HttpStatus httpStatus = restResponse.getStatus();
+        if(httpStatus != null) {
+            final String reason = restResponse.getReason();
+            if(reason != null && !reason.isEmpty()) {
+                response.setStatus(httpStatus, reason);
+            } else {
+                response.setStatus(httpStatus);
+            }
+        }
+        
+        //set the http headers
+        for(final RestResponse.Header header : restResponse.getHeaders()) {
+            if(header.getName().equals(HttpHeader.CONTENT_TYPE.getHeaderName())) {
+                serializationProperties.put(SerializationProperty.MEDIA_TYPE, new ContentTypeHeader(header.getValue()).getInternetMediaType());
+                //TODO how to select the Serializer based on the Content-Type? Should probably just use the %output:method
+            }
+            
+            response.setHeader(header.getName(), header.getValue());
         }
     }
     
-    protected final Map<SerializationProperty, String> processSerializationParameters(final Element serializationParameters) {
-        final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
-        
-        //get the output method
-        final NodeList nlMethod = serializationParameters.getElementsByTagNameNS(METHOD_ELEMENT_NAME.getNamespaceURI(), METHOD_ELEMENT_NAME.getLocalPart());
-        if(nlMethod.getLength() == 1) {
-            final Element elemMethod = (Element)nlMethod.item(0);
-            final String strMethod = elemMethod.getAttribute(VALUE_ATTR_NAME);
-            if(strMethod != null && !strMethod.isEmpty()) {
-                serializationProperties.put(SerializationProperty.METHOD, strMethod);
+    /**
+     * Parses a rest:response element
+     * 
+     * Only the child elements of rest:response and of http:response
+     * are visited, their subtrees are never scanned.
+     * 
+     * @param restResponse The rest:response element
+     * 
+     * @return The typed representation of the rest:response
+     *
+     * @throws RestXqServiceException If the rest:response is invalid
+     */
+    public RestResponse parse(final Element restResponse) throws RestXqServiceException {
+        Element serializationParameters = null;
+        Element httpResponse = null;
+        for(Element child = firstChildElement(restResponse); child != null; child = nextSiblingElement(child)) {
+            if(serializationParameters == null && isElement(child, SERIALIZATION_PARAMETERS_ELEMENT_NAME)) {
+                serializationParameters = child;
+            } else if(httpResponse == null && isElement(child, HTTP_RESPONSE_ELEMENT_NAME)) {
+                httpResponse = child;
             }
         }
         
-        return serializationProperties;
+        final String method = serializationParameters != null ? parseMethod(serializationParameters) : null;
+        
+        if(httpResponse != null) {
+            return parseHttpResponse(httpResponse, method);
+        } else {
+            return new RestResponse(null, null, method, new ArrayList<RestResponse.Header>());
+        }
     }
-
-    protected void processHttpResponse(final Element httpResponse, final Map<SerializationProperty, String> serializationProperties, final HttpResponse response) throws RestXqServiceException {
+    
+    /**
+     * Gets the output method from output:serialization-parameters
+     * 
+     * @return The method, or null if there is none
+     */
+    private String parseMethod(final Element serializationParameters) {
+        for(Element child = firstChildElement(serializationParameters); child != null; child = nextSiblingElement(child)) {
+            if(isElement(child, METHOD_ELEMENT_NAME)) {
+                final String strMethod = child.getAttribute(VALUE_ATTR_NAME);
+                if(strMethod != null && !strMethod.isEmpty()) {
+                    return strMethod;
+                }
+                break;
+            }
+        }
+        return null;
+    }
+    
+    private RestResponse parseHttpResponse(final Element httpResponse, final String method) throws RestXqServiceException {
         
         //get the status code (if present)
         final String strStatus = httpResponse.getAttribute(STATUS_ATTR_NAME);
         HttpStatus httpStatus = null;
         if(strStatus != null && !strStatus.isEmpty()) {
-            final int status = Integer.parseInt(strStatus);
             try {
-                httpStatus = HttpStatus.fromStatus(status);
+                httpStatus = HttpStatus.fromStatus(Integer.parseInt(strStatus));
             } catch(final IllegalArgumentException iae) {
                 throw new RestXqServiceException("Invalid HTTP Status in rest:response/@status: " + strStatus, iae);
             }
@@ -117,32 +182,100 @@ public class RestResponseHandler {
         //get the reason (if present)
         final String reason = httpResponse.getAttribute(REASON_ATTR_NAME);
         
-        //set the status and reason
-        if(httpStatus != null) {
-            if(reason != null && !reason.isEmpty()) {
-                response.setStatus(httpStatus, reason);
-            } else {
-                response.setStatus(httpStatus);
+        //get the http headers
+        final List<RestResponse.Header> headers = new ArrayList<RestResponse.Header>();
+        for(Element child = firstChildElement(httpResponse); child != null; child = nextSiblingElement(child)) {
+            if(isElement(child, HTTP_HEADER_ELEMENT_NAME)) {
+                headers.add(parseHeader(child));
             }
         }
         
-        //process the http headers
-        final NodeList nlHttpHeader = httpResponse.getElementsByTagNameNS(HTTP_HEADER_ELEMENT_NAME.getNamespaceURI(), HTTP_HEADER_ELEMENT_NAME.getLocalPart());
-        processHttpHeaders(nlHttpHeader, serializationProperties, response);
+        return new RestResponse(httpStatus, reason, method, headers);
     }
-
+    
+    private RestResponse.Header parseHeader(final Element httpHeader) {
+        return new RestResponse.Header(httpHeader.getAttribute(NAME_ATTR_NAME), httpHeader.getAttribute(VALUE_ATTR_NAME));
+    }
+    
+    /**
+     * Gets the serialization properties from output:serialization-parameters
+     * 
+     * @param serializationParameters The output:serialization-parameters element
+     * 
+     * @return The serialization properties, only the output method is supported
+     * 
+     * @deprecated No longer called by {@link #process(Element, Map, HttpResponse)},
+     * use {@link #parse(Element)} instead
+     */
+    @Deprecated
+    protected final Map<SerializationProperty, String> processSerializationParameters(final Element serializationParameters) {
+        final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        final String method = parseMethod(serializationParameters);
+        if(method != null) {
+            serializationProperties.put(SerializationProperty.METHOD, method);
+        }
+        return serializationProperties;
+    }
+    
+    /**
+     * Processes a http:response element and sets the status, reason
+     * and headers in the http response
+     * 
+     * This is no longer called by {@link #process(Element, Map, HttpResponse)},
+     * so overriding it has no effect on the processing of a rest:response.
+     * 
+     * @param httpResponse The http:response element
+     * @param serializationProperties Any properties that affect serialization
+     * @param response The response to set the status and headers of
+     * 
+     * @throws RestXqServiceException If the http:response has an invalid status
+     * 
+     * @deprecated Override {@link #parse(Element)} or
+     * {@link #process(RestResponse, Map, HttpResponse)} instead
+     */
+    @Deprecated
+    protected void processHttpResponse(final Element httpResponse, final Map<SerializationProperty, String> serializationProperties, final HttpResponse response) throws RestXqServiceException {
+        process(parseHttpResponse(httpResponse, null), serializationProperties, response);
+    }
+    
+    /**
+     * Processes http:header elements and sets the headers in the http response
+     * 
+     * This is no longer called by {@link #process(Element, Map, HttpResponse)},
+     * so overriding it has no effect on the processing of a rest:response.
+     * 
+     * @param nlHttpHeader The http:header elements
+     * @param serializationProperties Any properties that affect serialization
+     * @param response The response to set the headers of
+     * 
+     * @deprecated Override {@link #parse(Element)} or
+     * {@link #process(RestResponse, Map, HttpResponse)} instead
+     */
+    @Deprecated
     protected void processHttpHeaders(final NodeList nlHttpHeader, final Map<SerializationProperty, String> serializationProperties, final HttpResponse response) {
+        final List<RestResponse.Header> headers = new ArrayList<RestResponse.Header>(nlHttpHeader.getLength());
         for(int i = 0; i < nlHttpHeader.getLength(); i++) {
-            final Element elemHeader = (Element)nlHttpHeader.item(i);
-            final String name = elemHeader.getAttribute(NAME_ATTR_NAME);
-            final String value = elemHeader.getAttribute(VALUE_ATTR_NAME);
-            
-            if(name.equals(HttpHeader.CONTENT_TYPE.getHeaderName())) {
-                serializationProperties.put(SerializationProperty.MEDIA_TYPE, new ContentTypeHeader(value).getInternetMediaType());
-                //TODO how to select the Serializer based on the Content-Type? Should probably just use the %output:method
-            }
-            
-            response.setHeader(name, value);
+            headers.add(parseHeader((Element)nlHttpHeader.item(i)));
+        }
+        process(new RestResponse(null, null, null, headers), serializationProperties, response);
+    }
+    
+    private static boolean isElement(final Element element, final QName name) {
+        return name.getLocalPart().equals(element.getLocalName()) && name.getNamespaceURI().equals(element.getNamespaceURI());
+    }
+    
+    private static Element firstChildElement(final Element parent) {
+        return elementOrNextSibling(parent.getFirstChild());
+    }
+    
+    private static Element nextSiblingElement(final Element element) {
+        return elementOrNextSibling(element.getNextSibling());
+    }
+    
+    private static Element elementOrNextSibling(Node node) {
+        while(node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
         }
+        return (Element)node;
     }
-}
\ No newline at end of file
+}
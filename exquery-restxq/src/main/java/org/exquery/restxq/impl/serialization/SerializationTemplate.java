@@ -0,0 +1,127 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import org.exquery.http.ContentTypeHeader;
+import org.exquery.serialization.annotation.MethodAnnotation.SupportedMethod;
+
+/**
+ * Immutable Serialization Properties for a Resource Function
+ * 
+ * The properties of a Resource Function are fixed by its Serialization
+ * Annotations, so the template is created once and is reused for every
+ * response, along with the serialization method and the value of the
+ * Content-Type header which are derived from the properties.
+ * 
+ * @see AbstractRestXqServiceSerializer#createSerializationTemplate(java.util.Set)
+ *
+ * @author Adam Retter
+ */
+public class SerializationTemplate {
+    
+    private final Map<SerializationProperty, String> serializationProperties;
+    private final SupportedMethod method;
+    private final String contentType;
+    private final Boolean compress;
+    
+    /**
+     * @param serializationProperties The Serialization Properties, which are copied
+     */
+    public SerializationTemplate(final Map<SerializationProperty, String> serializationProperties) {
+        this(serializationProperties, null);
+    }
+    
+    /**
+     * @param serializationProperties The Serialization Properties, which are copied
+     * @param compress The value of the %output:compress annotation, or null if there is no such annotation
+     */
+    public SerializationTemplate(final Map<SerializationProperty, String> serializationProperties, final Boolean compress) {
+        this.compress = compress;
+        
+        final Map<SerializationProperty, String> properties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        properties.putAll(serializationProperties);
+        this.serializationProperties = Collections.unmodifiableMap(properties);
+        
+        SupportedMethod method = null;
+        try {
+            final String methodProp = properties.get(SerializationProperty.METHOD);
+            method = (methodProp == null ? SupportedMethod.xml : SupportedMethod.valueOf(methodProp));
+        } catch(final IllegalArgumentException iae) {
+            //unsupported method, left as null
+        }
+        this.method = method;
+        
+        final String mediaType = properties.get(SerializationProperty.MEDIA_TYPE);
+        if(mediaType != null && !mediaType.isEmpty()) {
+            final String encoding = properties.get(SerializationProperty.ENCODING);
+            this.contentType = new ContentTypeHeader(mediaType, encoding).toString();
+        } else {
+            this.contentType = null;
+        }
+    }
+    
+    /**
+     * Get the Serialization Properties
+     * 
+     * @return The immutable Serialization Properties
+     */
+    public Map<SerializationProperty, String> getSerializationProperties() {
+        return serializationProperties;
+    }
+    
+    /**
+     * Get the Serialization Method
+     * 
+     * @return The method, xml if none was specified, or null if the method is not supported
+     */
+    public SupportedMethod getMethod() {
+        return method;
+    }
+    
+    /**
+     * Get the value of the HTTP Content-Type header
+     * 
+     * @return The Content-Type, or null if there is no media-type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Get whether the response should be compressed
+     * 
+     * @return The value of the %output:compress annotation, or null if there is no such annotation
+     * 
+     * @see ResponseCompression#isEnabled(java.lang.Boolean)
+     */
+    public Boolean getCompress() {
+        return compress;
+    }
+}
@@ -0,0 +1,462 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * Streaming XML Writer which encodes directly to UTF-8
+ * 
+ * Characters are encoded into a byte buffer, which is written to
+ * the output stream in chunks each time it fills, e.g. to
+ * {@link org.exquery.http.HttpResponse#getOutputStream()}. No intermediate
+ * Strings are created, and text may be written from a char array or any
+ * CharSequence without being copied. Buffers are taken from a shared pool
+ * and are returned to it when the writer is closed.
+ * 
+ * The methods of {@link XmlWriter} cannot throw an IOException, so the first
+ * error whilst writing is kept and is thrown by {@link #flush()}
+ * or {@link #close()}, any further output is discarded.
+ * 
+ * Characters which are not allowed in XML 1.0, i.e. control characters
+ * other than tab, line feed and carriage return, and unpaired surrogates,
+ * are replaced with U+FFFD so that the output is always well-formed.
+ * 
+ * The serialization properties INDENT and OMIT_XML_DECLARATION are supported,
+ * the ENCODING must be UTF-8.
+ * 
+ * Instances are not thread-safe.
+ *
+ * @author Adam Retter
+ */
+public class Utf8XmlWriter implements XmlWriter {
+    
+    private final static String UTF_8 = "UTF-8";
+    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static int MAX_POOLED_BUFFERS = 32;
+    private final static int REPLACEMENT_CHARACTER = 0xFFFD;
+    
+    private final static ConcurrentLinkedQueue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<byte[]>();
+    private final static AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+    
+    private final OutputStream os;
+    private byte[] buf;
+    private int count = 0;
+    private IOException error = null;
+    
+    private boolean indent = true;
+    private boolean omitXmlDeclaration = false;
+    
+    /**
+     * The names of the open elements
+     */
+    private final List<QName> elements = new ArrayList<QName>();
+    
+    /**
+     * The namespace bindings in scope, as prefix and namespace pairs,
+     * and for each open element the number of bindings before it
+     */
+    private final List<String> namespaceBindings = new ArrayList<String>();
+    private final List<Integer> namespaceBindingsMarks = new ArrayList<Integer>();
+    
+    /**
+     * The start tag is open, i.e. '>' has not been written
+     */
+    private boolean startTagOpen = false;
+    
+    /**
+     * The current element has text content, so should not be indented
+     */
+    private boolean mixedContent = false;
+    
+    /**
+     * @param os The output stream to write the UTF-8 encoded XML to
+     */
+    public Utf8XmlWriter(final OutputStream os) {
+        this.os = os;
+        this.buf = acquireBuffer();
+    }
+    
+    @Override
+    public void setProperties(final Map<SerializationProperty, String> serializationProperties) {
+        final String encoding = serializationProperties.get(SerializationProperty.ENCODING);
+        if(encoding != null && !encoding.equalsIgnoreCase(UTF_8) && !encoding.equalsIgnoreCase("UTF8")) {
+            throw new IllegalArgumentException("Only UTF-8 encoding is supported: " + encoding);
+        }
+        
+        final String indentProp = serializationProperties.get(SerializationProperty.INDENT);
+        if(indentProp != null) {
+            indent = indentProp.equals("yes");
+        }
+        
+        final String omitXmlDeclarationProp = serializationProperties.get(SerializationProperty.OMIT_XML_DECLARATION);
+        if(omitXmlDeclarationProp != null) {
+            omitXmlDeclaration = omitXmlDeclarationProp.equals("yes");
+        }
+    }
+    
+    @Override
+    public void startDocument() throws IOException {
+        if(error != null) {
+            throw error;
+        }
+        
+        if(!omitXmlDeclaration) {
+            writeAscii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        }
+    }
+
+    @Override
+    public void startElement(final QName name) {
+        startElement(name, null);
+    }
+
+    @Override
+    public void startElement(final QName name, final Attribute[] attributes) {
+        closeStartTag();
+        
+        if(indent && (!elements.isEmpty() || !omitXmlDeclaration) && !mixedContent) {
+            writeIndent(elements.size());
+        }
+        
+        namespaceBindingsMarks.add(namespaceBindings.size());
+        elements.add(name);
+        mixedContent = false;
+        
+        write('<');
+        writeName(name);
+        declareNamespace(name.getPrefix(), name.getNamespaceURI());
+        
+        if(attributes != null) {
+            for(final Attribute attribute : attributes) {
+                final QName attrName = attribute.getName();
+                if(!attrName.getNamespaceURI().isEmpty()) {
+                    declareNamespace(attrName.getPrefix(), attrName.getNamespaceURI());
+                }
+                
+                write(' ');
+                writeName(attrName);
+                writeAscii("=\"");
+                writeEscaped(attribute.getValue(), 0, attribute.getValue().length(), true);
+                write('"');
+            }
+        }
+        
+        startTagOpen = true;
+    }
+
+    @Override
+    public void characters(final String chars) {
+        characters((CharSequence)chars);
+    }
+    
+    /**
+     * Writes text, without copying the characters
+     * 
+     * @param chars The text
+     */
+    public void characters(final CharSequence chars) {
+        closeStartTag();
+        mixedContent = true;
+        writeEscaped(chars, 0, chars.length(), false);
+    }
+    
+    /**
+     * Writes text, without copying the characters
+     * 
+     * @param ch The characters of the text
+     * @param start The index of the first character
+     * @param length The number of characters
+     */
+    public void characters(final char[] ch, final int start, final int length) {
+        closeStartTag();
+        mixedContent = true;
+        
+        final int end = start + length;
+        for(int i = start; i < end; i++) {
+            final char c = ch[i];
+            if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ch[i + 1])) {
+                writeCodePoint(Character.toCodePoint(c, ch[++i]));
+            } else {
+                writeEscapedChar(c, false);
+            }
+        }
+    }
+
+    @Override
+    public void endElement() {
+        final QName name = elements.remove(elements.size() - 1);
+        final int mark = namespaceBindingsMarks.remove(namespaceBindingsMarks.size() - 1);
+        
+        if(startTagOpen) {
+            writeAscii("/>");
+            startTagOpen = false;
+        } else {
+            if(indent && !mixedContent) {
+                writeIndent(elements.size());
+            }
+            writeAscii("</");
+            writeName(name);
+            write('>');
+        }
+        
+        //namespaces declared on the element go out of scope
+        while(namespaceBindings.size() > mark) {
+            namespaceBindings.remove(namespaceBindings.size() - 1);
+        }
+        mixedContent = false;
+    }
+
+    @Override
+    public void endDocument() {
+        while(!elements.isEmpty()) {
+            endElement();
+        }
+        flushBuffer();
+    }
+    
+    /**
+     * Writes any buffered output to the output stream, and flushes the output stream
+     * 
+     * @throws IOException If an error occurred whilst writing
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if(error != null) {
+            throw error;
+        }
+        os.flush();
+    }
+    
+    /**
+     * Flushes the writer and returns its buffer to the pool,
+     * the output stream is not closed
+     * 
+     * @throws IOException If an error occurred whilst writing
+     */
+    public void close() throws IOException {
+        if(buf == null) {
+            return;
+        }
+        
+        try {
+            flush();
+        } finally {
+            releaseBuffer(buf);
+            buf = null;
+        }
+    }
+    
+    private void closeStartTag() {
+        if(startTagOpen) {
+            write('>');
+            startTagOpen = false;
+        }
+    }
+    
+    private void writeIndent(final int depth) {
+        write('\n');
+        for(int i = 0; i < depth; i++) {
+            write(' ');
+            write(' ');
+        }
+    }
+    
+    private void writeName(final QName name) {
+        final String prefix = name.getPrefix();
+        if(!prefix.isEmpty()) {
+            writeEscaped(prefix, 0, prefix.length(), false);
+            write(':');
+        }
+        writeEscaped(name.getLocalPart(), 0, name.getLocalPart().length(), false);
+    }
+    
+    /**
+     * Declares the namespace of a prefix if it is not already in scope
+     */
+    private void declareNamespace(final String prefix, final String namespaceUri) {
+        if(XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return;
+        }
+        
+        //find the binding of the prefix which is in scope
+        String inScope = prefix.isEmpty() ? XMLConstants.NULL_NS_URI : null;
+        for(int i = namespaceBindings.size() - 2; i >= 0; i -= 2) {
+            if(namespaceBindings.get(i).equals(prefix)) {
+                inScope = namespaceBindings.get(i + 1);
+                break;
+            }
+        }
+        
+        if(!namespaceUri.equals(inScope)) {
+            namespaceBindings.add(prefix);
+            namespaceBindings.add(namespaceUri);
+            
+            writeAscii(" xmlns");
+            if(!prefix.isEmpty()) {
+                write(':');
+                writeEscaped(prefix, 0, prefix.length(), false);
+            }
+            writeAscii("=\"");
+            writeEscaped(namespaceUri, 0, namespaceUri.length(), true);
+            write('"');
+        }
+    }
+    
+    private void writeEscaped(final CharSequence chars, final int start, final int end, final boolean attribute) {
+        for(int i = start; i < end; i++) {
+            final char c = chars.charAt(i);
+            if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                writeCodePoint(Character.toCodePoint(c, chars.charAt(++i)));
+            } else {
+                writeEscapedChar(c, attribute);
+            }
+        }
+    }
+    
+    private void writeEscapedChar(final char c, final boolean attribute) {
+        switch(c) {
+            case '&':
+                writeAscii("&amp;");
+                break;
+                
+            case '<':
+                writeAscii("&lt;");
+                break;
+                
+            case '>':
+                writeAscii("&gt;");
+                break;
+                
+            case '"':
+                if(attribute) {
+                    writeAscii("&quot;");
+                } else {
+                    write(c);
+                }
+                break;
+                
+            case '\r':
+                writeAscii("&#xD;");
+                break;
+                
+            case '\n':
+            case '\t':
+                if(attribute) {
+                    writeAscii(c == '\n' ? "&#xA;" : "&#x9;");
+                } else {
+                    write(c);
+                }
+                break;
+                
+            default:
+                if(c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+                    //not a legal XML 1.0 character, even as a character reference
+                    writeCodePoint(REPLACEMENT_CHARACTER);
+                } else if(c < 0x80) {
+                    write(c);
+                } else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    //an unpaired surrogate cannot be encoded
+                    writeCodePoint(REPLACEMENT_CHARACTER);
+                } else {
+                    writeCodePoint(c);
+                }
+        }
+    }
+    
+    private void writeCodePoint(final int cp) {
+        if(cp < 0x80) {
+            write(cp);
+        } else if(cp < 0x800) {
+            write(0xC0 | (cp >> 6));
+            write(0x80 | (cp & 0x3F));
+        } else if(cp < 0x10000) {
+            write(0xE0 | (cp >> 12));
+            write(0x80 | ((cp >> 6) & 0x3F));
+            write(0x80 | (cp & 0x3F));
+        } else {
+            write(0xF0 | (cp >> 18));
+            write(0x80 | ((cp >> 12) & 0x3F));
+            write(0x80 | ((cp >> 6) & 0x3F));
+            write(0x80 | (cp & 0x3F));
+        }
+    }
+    
+    private void writeAscii(final String s) {
+        for(int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+    
+    private void write(final int b) {
+        if(count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = (byte)b;
+    }
+    
+    /**
+     * Writes the buffer to the output stream, keeping the first error
+     */
+    private void flushBuffer() {
+        if(count > 0) {
+            if(error == null) {
+                try {
+                    os.write(buf, 0, count);
+                } catch(final IOException ioe) {
+                    error = ioe;
+                }
+            }
+            count = 0;
+        }
+    }
+    
+    private static byte[] acquireBuffer() {
+        final byte[] pooled = BUFFER_POOL.poll();
+        if(pooled != null) {
+            POOLED_BUFFERS.decrementAndGet();
+            return pooled;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+    
+    private static void releaseBuffer(final byte[] buffer) {
+        if(POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
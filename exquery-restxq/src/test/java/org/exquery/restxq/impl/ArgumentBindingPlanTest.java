@@ -0,0 +1,260 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.ResourceFunctionExecuter;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.annotation.HttpMethodAnnotation;
+import org.exquery.restxq.annotation.HttpMethodWithBodyAnnotation;
+import org.exquery.restxq.annotation.ParameterAnnotation;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+import org.exquery.restxq.impl.annotation.PathSegmentMatch;
+import org.exquery.restxq.impl.annotation.QueryParameterAnnotation;
+import org.exquery.restxq.impl.annotation.StringLiteral;
+import org.exquery.xdm.type.LongTypedValue;
+import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xdm.type.StringTypedValue;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedArgumentValue;
+import org.exquery.xquery.TypedValue;
+import org.exquery.xquery3.FunctionSignature;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for ArgumentBindingPlan
+ *
+ * @author Adam Retter
+ */
+public class ArgumentBindingPlanTest {
+    
+    @Test
+    public void bind_orderedByArgumentPosition() throws RestAnnotationException, RestXqServiceException {
+        final FunctionSignature signature = signature(
+            argument("query", Cardinality.ZERO_OR_MORE),
+            argument("body", Cardinality.ZERO_OR_MORE),
+            argument("name", Cardinality.ONE),
+            argument("age", Cardinality.ONE)
+        );
+        
+        final PathAnnotationImpl pathAnnotation = new PathAnnotationImpl();
+        pathAnnotation.setFunctionSignature(signature);
+        pathAnnotation.setLiterals(new Literal[] {
+            new StringLiteral("/people/{$name}/{$age}")
+        });
+        pathAnnotation.initialise();
+        
+        final QueryParameterAnnotation queryParameterAnnotation = new QueryParameterAnnotation();
+        queryParameterAnnotation.setFunctionSignature(signature);
+        queryParameterAnnotation.setLiterals(new Literal[] {
+            new StringLiteral("q"),
+            new StringLiteral("{$query}")
+        });
+        queryParameterAnnotation.initialise();
+        
+        final HttpMethodWithBodyAnnotation postAnnotation = mock(HttpMethodWithBodyAnnotation.class);
+        when(postAnnotation.getHttpMethod()).thenReturn(HttpMethod.POST);
+        when(postAnnotation.getBodyParameterName()).thenReturn("body");
+        
+        final ResourceFunction resourceFunction = mock(ResourceFunction.class);
+        when(resourceFunction.getFunctionSignature()).thenReturn(signature);
+        when(resourceFunction.getPathAnnotation()).thenReturn(pathAnnotation);
+        when(resourceFunction.getHttpMethodAnnotations()).thenReturn(new HashSet<HttpMethodAnnotation>(Arrays.asList(postAnnotation)));
+        when(resourceFunction.getParameterAnnotations()).thenReturn(new HashSet<ParameterAnnotation>(Arrays.asList(queryParameterAnnotation)));
+        
+        final Sequence<String> body = new SequenceImpl<String>(new StringTypedValue("<person/>"));
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction, body);
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getMethod()).thenReturn(HttpMethod.POST);
+        when(request.getPath()).thenReturn("/people/adam/21");
+        when(request.getQueryParam("q")).thenReturn("x");
+        
+        final PathSegmentMatch pathMatch = new PathSegmentMatch();
+        pathAnnotation.getPathSegmentMatcher().match("/people/adam/21", pathMatch);
+        
+        for(final PathSegmentMatch routedPathMatch : Arrays.asList(pathMatch, null)) {
+            final List<TypedArgumentValue> arguments = service.bindArguments(request, routedPathMatch);
+            
+            assertEquals(4, arguments.size());
+            assertEquals("query", arguments.get(0).getArgumentName());
+            assertEquals("x", arguments.get(0).getTypedValue().head().getValue());
+            assertEquals("body", arguments.get(1).getArgumentName());
+            assertSame(body, arguments.get(1).getTypedValue());
+            assertEquals("name", arguments.get(2).getArgumentName());
+            assertEquals("adam", arguments.get(2).getTypedValue().head().getValue());
+            assertEquals("age", arguments.get(3).getArgumentName());
+            assertEquals("21", arguments.get(3).getTypedValue().head().getValue());
+        }
+        
+        assertEquals(2, service.requestBodyExtractions);
+    }
+    
+    @Test
+    public void bind_pathNotMatched() throws RestAnnotationException, RestXqServiceException {
+        final FunctionSignature signature = signature(argument("name", Cardinality.ONE));
+        
+        final PathAnnotationImpl pathAnnotation = new PathAnnotationImpl();
+        pathAnnotation.setFunctionSignature(signature);
+        pathAnnotation.setLiterals(new Literal[] {
+            new StringLiteral("/people/{$name}")
+        });
+        pathAnnotation.initialise();
+        
+        final ResourceFunction resourceFunction = mock(ResourceFunction.class);
+        when(resourceFunction.getFunctionSignature()).thenReturn(signature);
+        when(resourceFunction.getPathAnnotation()).thenReturn(pathAnnotation);
+        
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction, null);
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getPath()).thenReturn("/other");
+        
+        assertEquals(Collections.<TypedArgumentValue>emptyList(), service.bindArguments(request, null));
+        verify(resourceFunction, times(1)).getParameterAnnotations();
+    }
+    
+    @Test
+    public void bind_coercesToDeclaredType() throws RestAnnotationException, RestXqServiceException {
+        final RestXqServiceMock service = integerPathService();
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getPath()).thenReturn("/people/21");
+        
+        final List<TypedArgumentValue> arguments = service.bindArguments(request, null);
+        assertEquals(1, arguments.size());
+        assertEquals("age", arguments.get(0).getArgumentName());
+        
+        final TypedValue age = arguments.get(0).getTypedValue().head();
+        assertEquals(Type.INTEGER, age.getType());
+        assertEquals(21, ((LongTypedValue)age).longValue());
+    }
+    
+    @Test
+    public void bind_invalidValue_badRequest() throws RestAnnotationException {
+        final RestXqServiceMock service = integerPathService();
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getPath()).thenReturn("/people/old");
+        
+        try {
+            service.bindArguments(request, null);
+            fail("Expected RestXqServiceException");
+        } catch(final RestXqServiceException rqse) {
+            assertEquals(HttpStatus.Bad_Request, rqse.getHttpStatus());
+        }
+    }
+    
+    @Test
+    public void service_invalidValue_notExecuted() throws RestAnnotationException, RestXqServiceException {
+        final RestXqServiceMock service = integerPathService();
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getPath()).thenReturn("/people/old");
+        final HttpResponse response = mock(HttpResponse.class);
+        final ResourceFunctionExecuter executer = mock(ResourceFunctionExecuter.class);
+        final RestXqServiceSerializer serializer = mock(RestXqServiceSerializer.class);
+        
+        service.service(request, response, executer, serializer);
+        
+        verify(response).setStatus(eq(HttpStatus.Bad_Request), anyString());
+        verifyZeroInteractions(executer, serializer);
+    }
+    
+    private RestXqServiceMock integerPathService() throws RestAnnotationException {
+        final FunctionArgument age = argument("age", Cardinality.ONE);
+        when(age.getType()).thenReturn(Type.INTEGER);
+        final FunctionSignature signature = signature(age);
+        
+        final PathAnnotationImpl pathAnnotation = new PathAnnotationImpl();
+        pathAnnotation.setFunctionSignature(signature);
+        pathAnnotation.setLiterals(new Literal[] {
+            new StringLiteral("/people/{$age}")
+        });
+        pathAnnotation.initialise();
+        
+        final ResourceFunction resourceFunction = mock(ResourceFunction.class);
+        when(resourceFunction.getFunctionSignature()).thenReturn(signature);
+        when(resourceFunction.getPathAnnotation()).thenReturn(pathAnnotation);
+        
+        return new RestXqServiceMock(resourceFunction, null);
+    }
+    
+    private FunctionSignature signature(final FunctionArgument... arguments) {
+        final FunctionSignature signature = mock(FunctionSignature.class);
+        when(signature.getArguments()).thenReturn(arguments);
+        return signature;
+    }
+    
+    private FunctionArgument argument(final String name, final Cardinality cardinality) {
+        final FunctionArgument argument = mock(FunctionArgument.class);
+        when(argument.getName()).thenReturn(name);
+        when(argument.getType()).thenReturn(Type.STRING);
+        when(argument.getCardinality()).thenReturn(cardinality);
+        return argument;
+    }
+    
+    private class RestXqServiceMock extends AbstractRestXqService {
+        private final Sequence requestBody;
+        int requestBodyExtractions = 0;
+
+        public RestXqServiceMock(final ResourceFunction resourceFunction, final Sequence requestBody) {
+            super(resourceFunction);
+            this.requestBody = requestBody;
+        }
+        
+        @Override
+        protected Sequence extractRequestBody(final HttpRequest request) throws RestXqServiceException {
+            requestBodyExtractions++;
+            return requestBody;
+        }
+    }
+}
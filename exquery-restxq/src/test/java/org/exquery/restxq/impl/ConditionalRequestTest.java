@@ -0,0 +1,195 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.ResourceFunctionExecuter;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.impl.RestXqServiceFixture.RestXqServiceMock;
+import static org.exquery.restxq.impl.RestXqServiceFixture.anyArguments;
+import static org.exquery.restxq.impl.RestXqServiceFixture.request;
+import static org.exquery.restxq.impl.RestXqServiceFixture.resourceFunction;
+import static org.exquery.restxq.impl.RestXqServiceFixture.response;
+import static org.exquery.restxq.impl.RestXqServiceFixture.serializer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for conditional GET
+ *
+ * @author Adam Retter
+ */
+public class ConditionalRequestTest {
+    
+    private final static byte[] BODY = "<hello>world</hello>".getBytes();
+    
+    @Test
+    public void matchesEntityTag() {
+        assertTrue(ConditionalRequest.matchesEntityTag("\"abc\"", "\"abc\""));
+        assertTrue(ConditionalRequest.matchesEntityTag("W/\"abc\"", "\"abc\""));
+        assertTrue(ConditionalRequest.matchesEntityTag("\"xyz\", W/\"abc\"", "W/\"abc\""));
+        assertTrue(ConditionalRequest.matchesEntityTag("*", "\"abc\""));
+        assertFalse(ConditionalRequest.matchesEntityTag("\"xyz\"", "\"abc\""));
+    }
+    
+    @Test
+    public void httpDate() {
+        final long time = 784111777000l;
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", ConditionalRequest.formatHttpDate(time));
+        assertEquals(time, ConditionalRequest.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, ConditionalRequest.parseHttpDate("yesterday"));
+    }
+    
+    @Test
+    public void isNotModified_ifModifiedSince() {
+        final long time = 784111777000l;
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getHeader("If-Modified-Since")).thenReturn("Sun, 06 Nov 1994 08:49:37 GMT");
+        
+        assertTrue(ConditionalRequest.isNotModified(request, null, time + 500));
+        assertFalse(ConditionalRequest.isNotModified(request, null, time + 1000));
+        assertFalse(ConditionalRequest.isNotModified(request, null, -1));
+    }
+    
+    @Test
+    public void isNotModified_ifNoneMatchTakesPrecedence() {
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn("\"xyz\"");
+        when(request.getHeader("If-Modified-Since")).thenReturn("Sun, 06 Nov 1994 08:49:37 GMT");
+        
+        assertFalse(ConditionalRequest.isNotModified(request, "\"abc\"", 0));
+    }
+    
+    @Test
+    public void service_validator_notModified() throws RestXqServiceException {
+        final ModuleVersionValidator validator = new ModuleVersionValidator();
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(null), validator, null);
+        final String entityTag = validator.getValidators(service.getResourceFunction(), null).getEntityTag();
+        
+        final HttpRequest request = request("If-None-Match", entityTag);
+        final HttpResponse response = mock(HttpResponse.class);
+        final ResourceFunctionExecuter executer = mock(ResourceFunctionExecuter.class);
+        final RestXqServiceSerializer serializer = mock(RestXqServiceSerializer.class);
+        
+        service.service(request, response, executer, serializer);
+        
+        verify(response).setHeader("ETag", entityTag);
+        verify(response).setStatus(HttpStatus.Not_Modified);
+        verifyZeroInteractions(executer, serializer);
+    }
+    
+    @Test
+    public void service_validator_moduleChanged() throws RestXqServiceException {
+        final ModuleVersionValidator validator = new ModuleVersionValidator();
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(null), validator, null);
+        final String entityTag = validator.getValidators(service.getResourceFunction(), null).getEntityTag();
+        
+        validator.registered(service);
+        
+        final HttpRequest request = request("If-None-Match", entityTag);
+        final HttpResponse response = mock(HttpResponse.class);
+        final ResourceFunctionExecuter executer = mock(ResourceFunctionExecuter.class);
+        final RestXqServiceSerializer serializer = mock(RestXqServiceSerializer.class);
+        
+        service.service(request, response, executer, serializer);
+        
+        verify(response, never()).setStatus(HttpStatus.Not_Modified);
+        verify(executer).execute(any(ResourceFunction.class), anyArguments(), eq(request));
+    }
+    
+    @Test
+    public void service_bodyHash() throws RestXqServiceException, IOException {
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(null), null, null, AbstractRestXqService.RECOMMENDED_ENTITY_TAG_BODY_LIMIT);
+        
+        //first request has no precondition and receives the body
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = response(baos);
+        
+        service.service(request(null, null), response, mock(ResourceFunctionExecuter.class), serializer(null, null, BODY));
+        
+        assertArrayEquals(BODY, baos.toByteArray());
+        final ArgumentCaptor<String> entityTag = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq("ETag"), entityTag.capture());
+        
+        //second request presents the entity tag and receives 304
+        final ByteArrayOutputStream baos2 = new ByteArrayOutputStream();
+        final HttpResponse response2 = response(baos2);
+        
+        service.service(request("If-None-Match", entityTag.getValue()), response2, mock(ResourceFunctionExecuter.class), serializer(null, null, BODY));
+        
+        verify(response2).setStatus(HttpStatus.Not_Modified);
+        assertEquals(0, baos2.size());
+    }
+    
+    @Test
+    public void service_bodyHash_disabledByDefault() throws RestXqServiceException {
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(null), null, null);
+        
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = response(baos);
+        
+        service.service(request("If-None-Match", "*"), response, mock(ResourceFunctionExecuter.class), serializer(null, null, BODY));
+        
+        assertArrayEquals(BODY, baos.toByteArray());
+        verify(response, never()).setHeader(eq("ETag"), anyString());
+        verify(response, never()).setStatus(HttpStatus.Not_Modified);
+    }
+    
+    @Test
+    public void service_bodyHash_notOk() throws RestXqServiceException, IOException {
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(null), null, null, AbstractRestXqService.RECOMMENDED_ENTITY_TAG_BODY_LIMIT);
+        
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = response(baos);
+        
+        final RestXqServiceSerializer serializer = serializer(HttpStatus.Created, null, BODY);
+        
+        service.service(request("If-None-Match", "*"), response, mock(ResourceFunctionExecuter.class), serializer);
+        
+        assertArrayEquals(BODY, baos.toByteArray());
+        verify(response, never()).setHeader(eq("ETag"), anyString());
+        verify(response, never()).setStatus(HttpStatus.Not_Modified);
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.ResourceFunctionExecuter;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.annotation.CacheAnnotation;
+import org.exquery.restxq.impl.RestXqServiceFixture.RestXqServiceMock;
+import static org.exquery.restxq.impl.RestXqServiceFixture.anyArguments;
+import static org.exquery.restxq.impl.RestXqServiceFixture.argument;
+import static org.exquery.restxq.impl.RestXqServiceFixture.request;
+import static org.exquery.restxq.impl.RestXqServiceFixture.resourceFunction;
+import static org.exquery.restxq.impl.RestXqServiceFixture.response;
+import static org.exquery.restxq.impl.RestXqServiceFixture.serializer;
+import org.exquery.xdm.type.Base64BinaryTypedValue;
+import org.exquery.xdm.type.SingletonSequence;
+import org.exquery.xdm.type.StringTypedValue;
+import org.exquery.xquery.TypedArgumentValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the declarative response cache
+ *
+ * @author Adam Retter
+ */
+public class RestXqResponseCacheTest {
+    
+    private final static byte[] BODY = "<hello/>".getBytes();
+    private final static List<TypedArgumentValue> NO_ARGUMENTS = Collections.emptyList();
+    
+    @Test
+    public void service_hit() throws RestXqServiceException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(cacheAnnotation(60)), null, cache);
+        final ResourceFunctionExecuter executer = mock(ResourceFunctionExecuter.class);
+        final RestXqServiceSerializer serializer = serializer(null, "application/xml", BODY);
+        
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        service.service(request(HttpMethod.GET), response(first), executer, serializer);
+        
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final HttpResponse response = response(second);
+        service.service(request(HttpMethod.GET), response, executer, serializer);
+        
+        verify(executer, times(1)).execute(any(ResourceFunction.class), anyArguments(), any(HttpRequest.class));
+        verify(response).setContentType("application/xml");
+        assertArrayEquals(BODY, first.toByteArray());
+        assertArrayEquals(BODY, second.toByteArray());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    public void service_notGet() throws RestXqServiceException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final RestXqServiceMock service = new RestXqServiceMock(resourceFunction(cacheAnnotation(60)), null, cache);
+        final ResourceFunctionExecuter executer = mock(ResourceFunctionExecuter.class);
+        final RestXqServiceSerializer serializer = serializer(null, null, BODY);
+        
+        final HttpRequest request = request(HttpMethod.POST);
+        service.service(request, response(new ByteArrayOutputStream()), executer, serializer);
+        service.service(request, response(new ByteArrayOutputStream()), executer, serializer);
+        
+        verify(executer, times(2)).execute(any(ResourceFunction.class), anyArguments(), any(HttpRequest.class));
+        assertEquals(0, cache.getCount());
+    }
+    
+    @Test
+    public void key_arguments() {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final CacheAnnotation cacheAnnotation = cacheAnnotation(60);
+        final ResourceFunction resourceFunction = resourceFunction(cacheAnnotation);
+        
+        final RestXqResponseCache.Key a = cache.key(resourceFunction, cacheAnnotation, arguments("a"), request(HttpMethod.GET));
+        assertEquals(a, cache.key(resourceFunction, cacheAnnotation, arguments("a"), request(HttpMethod.GET)));
+        assertNotEquals(a, cache.key(resourceFunction, cacheAnnotation, arguments("b"), request(HttpMethod.GET)));
+        assertNotEquals(a, cache.key(resourceFunction(cacheAnnotation), cacheAnnotation, arguments("a"), request(HttpMethod.GET)));
+    }
+    
+    @Test
+    public void key_varyHeaders() {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final CacheAnnotation cacheAnnotation = cacheAnnotation(60, "Accept-Language");
+        final ResourceFunction resourceFunction = resourceFunction(cacheAnnotation);
+        
+        final HttpRequest en = request("Accept-Language", "en");
+        final HttpRequest fr = request("Accept-Language", "fr");
+        final HttpRequest gzip = request("Accept-Language", "en");
+        when(gzip.getHeader("Accept-Encoding")).thenReturn("gzip");
+        
+        final RestXqResponseCache.Key key = cache.key(resourceFunction, cacheAnnotation, NO_ARGUMENTS, en);
+        assertNotEquals(key, cache.key(resourceFunction, cacheAnnotation, NO_ARGUMENTS, fr));
+        assertNotEquals(key, cache.key(resourceFunction, cacheAnnotation, NO_ARGUMENTS, gzip));
+    }
+    
+    @Test
+    public void key_binaryArgument() {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final CacheAnnotation cacheAnnotation = cacheAnnotation(60);
+        
+        final TypedArgumentValue binary = argument("body", new SingletonSequence<InputStream>(new Base64BinaryTypedValue(new ByteArrayInputStream(new byte[0]))));
+        
+        assertNull(cache.key(resourceFunction(cacheAnnotation), cacheAnnotation, Collections.singletonList(binary), request(HttpMethod.GET)));
+    }
+    
+    @Test
+    public void notOk_notCached() throws RestXqServiceException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final RestXqResponseCache.Key key = key(cache, "a");
+        final CountingProducer producer = new CountingProducer(HttpStatus.Not_Found);
+        
+        cache.service(key, response(new ByteArrayOutputStream()), producer);
+        cache.service(key, response(new ByteArrayOutputStream()), producer);
+        
+        assertEquals(2, producer.count.get());
+        assertEquals(0, cache.getCount());
+    }
+    
+    @Test
+    public void invalidate_module() throws RestXqServiceException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final RestXqResponseCache.Key key = key(cache, "a");
+        final CountingProducer producer = new CountingProducer(null);
+        
+        cache.service(key, response(new ByteArrayOutputStream()), producer);
+        cache.invalidate(URI.create("/db/other.xqm"));
+        cache.service(key, response(new ByteArrayOutputStream()), producer);
+        assertEquals(1, producer.count.get());
+        
+        cache.invalidate(RestXqServiceFixture.XQUERY_LOCATION);
+        cache.service(key, response(new ByteArrayOutputStream()), producer);
+        assertEquals(2, producer.count.get());
+    }
+    
+    @Test
+    public void maxSize_evicts() throws RestXqServiceException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024);
+        final CacheAnnotation cacheAnnotation = cacheAnnotation(60);
+        final ResourceFunction resourceFunction = resourceFunction(cacheAnnotation);
+        final CountingProducer producer = new CountingProducer(null);
+        
+        for(int i = 0; i < 100; i++) {
+            final RestXqResponseCache.Key key = cache.key(resourceFunction, cacheAnnotation, arguments(String.valueOf(i)), request(HttpMethod.GET));
+            cache.service(key, response(new ByteArrayOutputStream()), producer);
+        }
+        
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(100, cache.getCount() + cache.getEvictionCount());
+    }
+    
+    @Test
+    public void singleFlight() throws InterruptedException {
+        final RestXqResponseCache cache = new RestXqResponseCache(1024 * 1024);
+        final RestXqResponseCache.Key key = key(cache, "a");
+        
+        final CountDownLatch producing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingProducer producer = new CountingProducer(null) {
+            @Override
+            public void produce(final HttpResponse response) throws RestXqServiceException {
+                producing.countDown();
+                try {
+                    release.await();
+                } catch(final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                super.produce(response);
+            }
+        };
+        
+        final Thread first = new ServiceThread(cache, key, new ByteArrayOutputStream(), producer);
+        first.start();
+        producing.await();
+        
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final Thread waiter = new ServiceThread(cache, key, second, producer);
+        waiter.start();
+        
+        release.countDown();
+        first.join();
+        waiter.join();
+        
+        assertEquals(1, producer.count.get());
+        assertArrayEquals(BODY, second.toByteArray());
+    }
+    
+    private static class ServiceThread extends Thread {
+        private final RestXqResponseCache cache;
+        private final RestXqResponseCache.Key key;
+        private final ByteArrayOutputStream os;
+        private final RestXqResponseCache.ResponseProducer producer;
+
+        public ServiceThread(final RestXqResponseCache cache, final RestXqResponseCache.Key key, final ByteArrayOutputStream os, final RestXqResponseCache.ResponseProducer producer) {
+            this.cache = cache;
+            this.key = key;
+            this.os = os;
+            this.producer = producer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                cache.service(key, response(os), producer);
+            } catch(final RestXqServiceException rqse) {
+                throw new RuntimeException(rqse);
+            }
+        }
+    }
+    
+    private static class CountingProducer implements RestXqResponseCache.ResponseProducer {
+        private final HttpStatus status;
+        final AtomicInteger count = new AtomicInteger();
+
+        public CountingProducer(final HttpStatus status) {
+            this.status = status;
+        }
+        
+        @Override
+        public void produce(final HttpResponse response) throws RestXqServiceException {
+            count.incrementAndGet();
+            if(status != null) {
+                response.setStatus(status);
+            }
+            try {
+                response.getOutputStream().write(BODY);
+            } catch(final IOException ioe) {
+                throw new RestXqServiceException(ioe.getMessage(), ioe);
+            }
+        }
+    }
+    
+    private RestXqResponseCache.Key key(final RestXqResponseCache cache, final String argumentValue) {
+        final CacheAnnotation cacheAnnotation = cacheAnnotation(60);
+        return cache.key(resourceFunction(cacheAnnotation), cacheAnnotation, arguments(argumentValue), request(HttpMethod.GET));
+    }
+    
+    private List<TypedArgumentValue> arguments(final String value) {
+        final TypedArgumentValue argument = argument("id", new SingletonSequence<String>(new StringTypedValue(value)));
+        return Collections.singletonList(argument);
+    }
+    
+    private CacheAnnotation cacheAnnotation(final int maxAge, final String... varyHeaders) {
+        final CacheAnnotation cacheAnnotation = mock(CacheAnnotation.class);
+        when(cacheAnnotation.getMaxAge()).thenReturn(maxAge);
+        when(cacheAnnotation.getVaryHeaders()).thenReturn(Arrays.asList(varyHeaders));
+        return cacheAnnotation;
+    }
+}
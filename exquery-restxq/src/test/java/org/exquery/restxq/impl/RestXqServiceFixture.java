@@ -0,0 +1,187 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceSerializer;
+import org.exquery.restxq.annotation.CacheAnnotation;
+import org.exquery.serialization.annotation.SerializationAnnotation;
+import org.exquery.xdm.type.SequenceImpl;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.TypedArgumentValue;
+import org.exquery.xquery3.FunctionSignature;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocks shared by the tests which service requests
+ * through {@link AbstractRestXqService}
+ *
+ * @author Adam Retter
+ */
+final class RestXqServiceFixture {
+    
+    final static URI XQUERY_LOCATION = URI.create("/db/hello.xqm");
+    
+    private RestXqServiceFixture() {
+    }
+    
+    static HttpRequest request(final HttpMethod method) {
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        return request;
+    }
+    
+    static HttpRequest request(final String headerName, final String headerValue) {
+        final HttpRequest request = request(HttpMethod.GET);
+        if(headerName != null) {
+            when(request.getHeader(headerName)).thenReturn(headerValue);
+        }
+        return request;
+    }
+    
+    static HttpResponse response(final ByteArrayOutputStream os) {
+        final HttpResponse response = mock(HttpResponse.class);
+        try {
+            when(response.getOutputStream()).thenReturn(os);
+        } catch(final IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+        return response;
+    }
+    
+    static ResourceFunctionImpl resourceFunction(final CacheAnnotation cacheAnnotation) {
+        final FunctionSignature signature = mock(FunctionSignature.class);
+        when(signature.getArguments()).thenReturn(new FunctionArgument[0]);
+        
+        final ResourceFunctionImpl resourceFunction = mock(ResourceFunctionImpl.class);
+        when(resourceFunction.getFunctionSignature()).thenReturn(signature);
+        when(resourceFunction.getXQueryLocation()).thenReturn(XQUERY_LOCATION);
+        when(resourceFunction.getCacheAnnotation()).thenReturn(cacheAnnotation);
+        return resourceFunction;
+    }
+    
+    static <T> TypedArgumentValue<T> argument(final String argumentName, final Sequence<T> typedValue) {
+        return new TypedArgumentValue<T>() {
+            @Override
+            public String getArgumentName() {
+                return argumentName;
+            }
+
+            @Override
+            public Sequence<T> getTypedValue() {
+                return typedValue;
+            }
+        };
+    }
+    
+    /**
+     * A serializer which writes a fixed response
+     * 
+     * @param status The status to set, or null to leave the status unset
+     * @param contentType The content type to set, or null to leave it unset
+     * @param body The body to write
+     */
+    static RestXqServiceSerializer serializer(final HttpStatus status, final String contentType, final byte[] body) throws RestXqServiceException {
+        final RestXqServiceSerializer serializer = mock(RestXqServiceSerializer.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                final HttpResponse response = (HttpResponse)invocation.getArguments()[2];
+                if(status != null) {
+                    response.setStatus(status);
+                }
+                if(contentType != null) {
+                    response.setContentType(contentType);
+                }
+                response.getOutputStream().write(body);
+                return null;
+            }
+        }).when(serializer).serialize(any(Sequence.class), anySerializationAnnotations(), any(HttpResponse.class));
+        return serializer;
+    }
+    
+    static Iterable<TypedArgumentValue> anyArguments() {
+        return Matchers.<Iterable<TypedArgumentValue>>any();
+    }
+    
+    static Set<SerializationAnnotation> anySerializationAnnotations() {
+        return anySetOf(SerializationAnnotation.class);
+    }
+    
+    static class RestXqServiceMock extends AbstractRestXqService {
+        private final ResourceFunctionValidator validator;
+        private final RestXqResponseCache responseCache;
+        private final int entityTagBodyLimit;
+
+        public RestXqServiceMock(final ResourceFunctionImpl resourceFunction, final ResourceFunctionValidator validator, final RestXqResponseCache responseCache) {
+            this(resourceFunction, validator, responseCache, 0);
+        }
+        
+        public RestXqServiceMock(final ResourceFunctionImpl resourceFunction, final ResourceFunctionValidator validator, final RestXqResponseCache responseCache, final int entityTagBodyLimit) {
+            super(resourceFunction);
+            this.validator = validator;
+            this.responseCache = responseCache;
+            this.entityTagBodyLimit = entityTagBodyLimit;
+        }
+
+        @Override
+        protected ResourceFunctionValidator getResourceFunctionValidator() {
+            return validator;
+        }
+        
+        @Override
+        protected RestXqResponseCache getResponseCache() {
+            return responseCache;
+        }
+        
+        @Override
+        protected int getEntityTagBodyLimit() {
+            return entityTagBodyLimit;
+        }
+        
+        @Override
+        protected Sequence extractRequestBody(final HttpRequest request) throws RestXqServiceException {
+            return SequenceImpl.EMPTY_SEQUENCE;
+        }
+    }
+}
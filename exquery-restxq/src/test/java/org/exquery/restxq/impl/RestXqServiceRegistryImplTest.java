@@ -0,0 +1,397 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import static org.exquery.InternetMediaType.APPLICATION_JSON;
+import static org.exquery.InternetMediaType.APPLICATION_XML;
+import static org.exquery.InternetMediaType.TEXT_HTML;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.RestXqServiceRegistryListener;
+import org.exquery.restxq.annotation.ConsumesAnnotation;
+import org.exquery.restxq.annotation.HttpMethodAnnotation;
+import org.exquery.restxq.annotation.ProducesAnnotation;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+import org.exquery.restxq.impl.annotation.ProducesAnnotationImpl;
+import org.exquery.restxq.impl.annotation.StringLiteral;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Type;
+import org.exquery.xquery3.FunctionSignature;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for RestXqServiceRegistryImpl
+ *
+ * @author Adam Retter
+ */
+public class RestXqServiceRegistryImplTest {
+    
+    private final static URI MODULE_A = URI.create("/a.xquery");
+    private final static URI MODULE_B = URI.create("/b.xquery");
+    
+    @Test
+    public void register_bulk_findsMostSpecific() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET);
+        final RestXqService person = service(MODULE_A, "person", "/people/adam", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        final RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+        
+        registry.register(Arrays.asList(people, person));
+        
+        assertSame(people, registry.findService(request(HttpMethod.GET, "/people")));
+        assertSame(person, registry.findService(request(HttpMethod.GET, "/people/adam")));
+        assertNull(registry.findService(request(HttpMethod.POST, "/people")));
+        
+        assertEquals(Arrays.asList(people, person), listener.registered);
+        assertEquals(Collections.<RestXqService>emptyList(), listener.deregistered);
+    }
+    
+    @Test
+    public void register_multipleMethods_notifiesOnce() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET, HttpMethod.POST);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        final RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+        
+        registry.register(people);
+        
+        assertSame(people, registry.findService(request(HttpMethod.GET, "/people")));
+        assertSame(people, registry.findService(request(HttpMethod.POST, "/people")));
+        assertEquals(Arrays.asList(people), listener.registered);
+    }
+    
+    @Test
+    public void replace_removesMissingServicesOfModule() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET);
+        final RestXqService person = service(MODULE_A, "person", "/people/adam", HttpMethod.GET);
+        final RestXqService other = service(MODULE_B, "other", "/other", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(Arrays.asList(people, person, other));
+        
+        final RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+        
+        final RestXqService reloadedPeople = service(MODULE_A, "people", "/people", HttpMethod.GET, HttpMethod.PUT);
+        registry.replace(MODULE_A, Arrays.asList(reloadedPeople));
+        
+        assertSame(reloadedPeople, registry.findService(request(HttpMethod.GET, "/people")));
+        assertSame(reloadedPeople, registry.findService(request(HttpMethod.PUT, "/people")));
+        assertNull(registry.findService(request(HttpMethod.GET, "/people/adam")));
+        assertSame(other, registry.findService(request(HttpMethod.GET, "/other")));
+        
+        assertEquals(Arrays.asList(reloadedPeople), listener.registered);
+        assertEquals(Arrays.asList(person), listener.deregistered);
+        
+        final Set<RestXqService> registered = new HashSet<RestXqService>();
+        for(final RestXqService service : registry) {
+            registered.add(service);
+        }
+        assertEquals(new HashSet<RestXqService>(Arrays.asList(reloadedPeople, other)), registered);
+    }
+    
+    @Test
+    public void deregister_module() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET);
+        final RestXqService other = service(MODULE_B, "other", "/other", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(Arrays.asList(people, other));
+        
+        final RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+        
+        registry.deregister(MODULE_A);
+        
+        assertNull(registry.findService(request(HttpMethod.GET, "/people")));
+        assertSame(other, registry.findService(request(HttpMethod.GET, "/other")));
+        assertEquals(Arrays.asList(people), listener.deregistered);
+    }
+    
+    @Test
+    public void findServiceMatch_capturesPathParameters() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET);
+        final RestXqService person = service(MODULE_A, "person", "/people/{$name}/{$age}", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(Arrays.asList(people, person));
+        
+        final RestXqServiceMatch match = registry.findServiceMatch(request(HttpMethod.GET, "/people/adam/21"));
+        assertSame(person, match.getService());
+        assertEquals(2, match.getPathMatch().getParameterCount());
+        assertEquals("name", match.getPathMatch().getParameterName(0));
+        assertEquals("adam", match.getPathMatch().getParameterValue(0));
+        assertEquals("age", match.getPathMatch().getParameterName(1));
+        assertEquals("21", match.getPathMatch().getParameterValue(1));
+        
+        assertEquals(0, registry.findServiceMatch(request(HttpMethod.GET, "/people")).getPathMatch().getParameterCount());
+        assertNull(registry.findServiceMatch(request(HttpMethod.GET, "/people/adam")));
+    }
+    
+    @Test
+    public void routeCache_countsHitsAndMisses() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET);
+        final RestXqService person = service(MODULE_A, "person", "/people/{$name}", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl(8);
+        registry.register(Arrays.asList(people, person));
+        
+        assertSame(person, registry.findService(request(HttpMethod.GET, "/people/adam")));
+        final RestXqServiceMatch match = registry.findServiceMatch(request(HttpMethod.GET, "/people/adam"));
+        assertSame(person, match.getService());
+        assertEquals("adam", match.getPathMatch().getParameterValue(0));
+        assertSame(people, registry.findService(request(HttpMethod.GET, "/people")));
+        assertNull(registry.findService(request(HttpMethod.GET, "/other")));
+        
+        final RestXqRouteCache routeCache = registry.getRouteCache();
+        assertEquals(1, routeCache.getHitCount());
+        assertEquals(3, routeCache.getMissCount());
+        assertEquals(2, routeCache.size());
+    }
+    
+    @Test
+    public void routeCache_invalidatedOnRegistration() throws RestAnnotationException {
+        final RestXqService person = service(MODULE_A, "person", "/people/{$name}", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl(8);
+        registry.clearListeners();
+        registry.register(person);
+        assertSame(person, registry.findService(request(HttpMethod.GET, "/people/adam")));
+        
+        registry.deregister(MODULE_A);
+        assertNull(registry.findService(request(HttpMethod.GET, "/people/adam")));
+        
+        final RestXqService reloadedPerson = service(MODULE_A, "person", "/people/{$name}", HttpMethod.GET);
+        registry.register(reloadedPerson);
+        assertSame(reloadedPerson, registry.findService(request(HttpMethod.GET, "/people/adam")));
+        
+        assertEquals(0, registry.getRouteCache().getHitCount());
+    }
+    
+    @Test
+    public void routeCache_evictsLeastRecentlyUsed() throws RestAnnotationException {
+        final RestXqService person = service(MODULE_A, "person", "/people/{$name}", HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl(1);
+        registry.register(person);
+        
+        registry.findService(request(HttpMethod.GET, "/people/adam"));
+        registry.findService(request(HttpMethod.GET, "/people/bob"));
+        registry.findService(request(HttpMethod.GET, "/people/adam"));
+        
+        final RestXqRouteCache routeCache = registry.getRouteCache();
+        assertEquals(1, routeCache.size());
+        assertEquals(0, routeCache.getHitCount());
+        assertEquals(3, routeCache.getMissCount());
+    }
+    
+    @Test
+    public void findService_negotiatesAcceptOnce() throws RestAnnotationException {
+        final RestXqService xml = service(MODULE_A, "xml", "/people", produces(APPLICATION_XML.getMediaType()), HttpMethod.GET);
+        final RestXqService html = service(MODULE_A, "html", "/people", produces(TEXT_HTML.getMediaType()), HttpMethod.GET);
+        final RestXqService json = service(MODULE_A, "json", "/people", produces(APPLICATION_JSON.getMediaType()), HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(Arrays.asList(xml, html, json));
+        
+        final HttpRequest request = request(HttpMethod.GET, "/people");
+        when(request.getHeader(HttpHeader.ACCEPT.getHeaderName())).thenReturn("application/xml;q=0.5, text/html;q=0.9, */*;q=0.1");
+        
+        assertSame(html, registry.findService(request));
+        verify(request, times(1)).getHeader(HttpHeader.ACCEPT.getHeaderName());
+    }
+    
+    @Test
+    public void route_reportsNotFoundAndMethodNotAllowed() throws RestAnnotationException {
+        final RestXqService people = service(MODULE_A, "people", "/people", HttpMethod.GET, HttpMethod.PUT);
+        final RestXqService person = service(MODULE_A, "person", "/people/{$name}", HttpMethod.DELETE);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(Arrays.asList(people, person));
+        
+        final RestXqRoutingResult found = registry.route(request(HttpMethod.GET, "/people"));
+        assertTrue(found.isFound());
+        assertEquals(HttpStatus.OK, found.getStatus());
+        assertSame(people, found.getServiceMatch().getService());
+        
+        final RestXqRoutingResult notFound = registry.route(request(HttpMethod.GET, "/other"));
+        assertFalse(notFound.isFound());
+        assertEquals(HttpStatus.Not_Found, notFound.getStatus());
+        assertTrue(notFound.getAllowedMethods().isEmpty());
+        
+        final RestXqRoutingResult methodNotAllowed = registry.route(request(HttpMethod.POST, "/people"));
+        assertEquals(HttpStatus.Method_Not_Allowed, methodNotAllowed.getStatus());
+        assertEquals(EnumSet.of(HttpMethod.GET, HttpMethod.PUT), methodNotAllowed.getAllowedMethods());
+        
+        final HttpResponse response = mock(HttpResponse.class);
+        methodNotAllowed.sendError(response);
+        verify(response).setHeader(HttpHeader.ALLOW.getHeaderName(), "GET, PUT");
+        verify(response).setStatus(HttpStatus.Method_Not_Allowed);
+        
+        assertEquals(EnumSet.of(HttpMethod.DELETE), registry.route(request(HttpMethod.GET, "/people/adam")).getAllowedMethods());
+    }
+    
+    @Test
+    public void route_reportsNotAcceptable() throws RestAnnotationException {
+        final RestXqService xml = service(MODULE_A, "xml", "/people", produces(APPLICATION_XML.getMediaType()), HttpMethod.GET);
+        
+        final RestXqServiceRegistryImpl registry = new RestXqServiceRegistryImpl();
+        registry.register(xml);
+        
+        final HttpRequest request = request(HttpMethod.GET, "/people");
+        when(request.getHeader(HttpHeader.ACCEPT.getHeaderName())).thenReturn(TEXT_HTML.getMediaType());
+        
+        final RestXqRoutingResult notAcceptable = registry.route(request);
+        assertEquals(HttpStatus.Not_Acceptable, notAcceptable.getStatus());
+        assertNull(notAcceptable.getServiceMatch());
+        assertNull(registry.findService(request));
+    }
+    
+    private HttpRequest request(final HttpMethod method, final String path) {
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getPath()).thenReturn(path);
+        return request;
+    }
+    
+    private RestXqService service(final URI xqueryLocation, final String name, final String path, final HttpMethod... methods) throws RestAnnotationException {
+        return service(xqueryLocation, name, path, Collections.<ProducesAnnotation>emptySet(), methods);
+    }
+    
+    private RestXqService service(final URI xqueryLocation, final String name, final String path, final Set<ProducesAnnotation> producesAnnotations, final HttpMethod... methods) throws RestAnnotationException {
+        final FunctionArgument[] args = pathArguments(path);
+        final FunctionSignature mockFunctionSignature = mock(FunctionSignature.class);
+        when(mockFunctionSignature.getName()).thenReturn(new QName("http://somewhere", name));
+        when(mockFunctionSignature.getArguments()).thenReturn(args);
+        
+        final PathAnnotationImpl pathAnnotation = new PathAnnotationImpl();
+        pathAnnotation.setFunctionSignature(mockFunctionSignature);
+        pathAnnotation.setLiterals(new Literal[] {
+            new StringLiteral(path)
+        });
+        pathAnnotation.initialise();
+        
+        final Set<HttpMethodAnnotation> httpMethodAnnotations = new HashSet<HttpMethodAnnotation>();
+        for(final HttpMethod method : methods) {
+            final HttpMethodAnnotation httpMethodAnnotation = mock(HttpMethodAnnotation.class);
+            when(httpMethodAnnotation.getHttpMethod()).thenReturn(method);
+            httpMethodAnnotations.add(httpMethodAnnotation);
+        }
+        
+        final ResourceFunction mockResourceFunction = mock(ResourceFunction.class);
+        when(mockResourceFunction.getXQueryLocation()).thenReturn(xqueryLocation);
+        when(mockResourceFunction.getFunctionSignature()).thenReturn(mockFunctionSignature);
+        when(mockResourceFunction.getPathAnnotation()).thenReturn(pathAnnotation);
+        when(mockResourceFunction.getHttpMethodAnnotations()).thenReturn(httpMethodAnnotations);
+        when(mockResourceFunction.getConsumesAnnotations()).thenReturn(Collections.<ConsumesAnnotation>emptySet());
+        when(mockResourceFunction.getProducesAnnotations()).thenReturn(producesAnnotations);
+        
+        return new RestXqServiceMock(mockResourceFunction);
+    }
+    
+    private Set<ProducesAnnotation> produces(final String mediaType) throws RestAnnotationException {
+        final ProducesAnnotationImpl producesAnnotation = new ProducesAnnotationImpl();
+        producesAnnotation.setLiterals(new Literal[] {
+            new StringLiteral(mediaType)
+        });
+        producesAnnotation.initialise();
+        return Collections.<ProducesAnnotation>singleton(producesAnnotation);
+    }
+    
+    private FunctionArgument[] pathArguments(final String path) {
+        final List<FunctionArgument> args = new ArrayList<FunctionArgument>();
+        int start = path.indexOf("{$");
+        while(start > -1) {
+            final int end = path.indexOf('}', start);
+            final FunctionArgument arg = mock(FunctionArgument.class);
+            when(arg.getName()).thenReturn(path.substring(start + 2, end));
+            when(arg.getType()).thenReturn(Type.STRING);
+            when(arg.getCardinality()).thenReturn(Cardinality.ONE);
+            args.add(arg);
+            start = path.indexOf("{$", end);
+        }
+        return args.toArray(new FunctionArgument[args.size()]);
+    }
+    
+    private class RecordingListener implements RestXqServiceRegistryListener {
+        final List<RestXqService> registered = new ArrayList<RestXqService>();
+        final List<RestXqService> deregistered = new ArrayList<RestXqService>();
+
+        @Override
+        public void registered(final RestXqService service) {
+            registered.add(service);
+        }
+
+        @Override
+        public void deregistered(final RestXqService service) {
+            deregistered.add(service);
+        }
+    }
+    
+    private class RestXqServiceMock extends AbstractRestXqService {
+
+        public RestXqServiceMock(final ResourceFunction resourceFunction) {
+            super(resourceFunction);
+        }
+        
+        @Override
+        protected Sequence extractRequestBody(HttpRequest request) throws RestXqServiceException {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+    }
+}
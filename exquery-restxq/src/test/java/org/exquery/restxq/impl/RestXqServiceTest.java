@@ -26,14 +26,24 @@
  */
 package org.exquery.restxq.impl;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import org.exquery.http.HttpMethod;
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.ResourceFunction;
 import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.annotation.HttpMethodAnnotation;
 import org.exquery.restxq.annotation.PathAnnotation;
+import org.exquery.restxq.annotation.HttpMethodWithBodyAnnotation;
 import org.exquery.xquery.Sequence;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -104,6 +114,34 @@ public class RestXqServiceTest {
         assertEquals(-1, result);
     }
     
+    @Test
+    public void resourceFunctionMetadata_computedOnce() {
+        final HttpMethodAnnotation mockGetAnnotation = mock(HttpMethodAnnotation.class);
+        when(mockGetAnnotation.getHttpMethod()).thenReturn(HttpMethod.GET);
+        final HttpMethodWithBodyAnnotation mockPostAnnotation = mock(HttpMethodWithBodyAnnotation.class);
+        when(mockPostAnnotation.getHttpMethod()).thenReturn(HttpMethod.POST);
+        
+        final ResourceFunction mockResourceFunction = mock(ResourceFunction.class);
+        when(mockResourceFunction.getHttpMethodAnnotations()).thenReturn(new HashSet<HttpMethodAnnotation>(Arrays.asList(mockGetAnnotation, mockPostAnnotation)));
+        
+        final RestXqServiceMock restXqService = new RestXqServiceMock(mockResourceFunction);
+        
+        final HttpRequest mockRequest = mock(HttpRequest.class);
+        when(mockRequest.getMethod()).thenReturn(HttpMethod.POST);
+        for(int i = 0; i < 3; i++) {
+            assertTrue(restXqService.canService(mockRequest));
+        }
+        
+        assertEquals(EnumSet.of(HttpMethod.GET, HttpMethod.POST), restXqService.getServicedMethods());
+        restXqService.getServicedMethods().clear();
+        assertEquals(EnumSet.of(HttpMethod.GET, HttpMethod.POST), restXqService.getServicedMethods());
+        assertEquals(Collections.singleton(mockPostAnnotation), restXqService.getBodyContentAnnotations());
+        
+        verify(mockResourceFunction, times(1)).getHttpMethodAnnotations();
+        verify(mockResourceFunction, times(1)).getConsumesAnnotations();
+        verify(mockResourceFunction, times(1)).getProducesAnnotations();
+    }
+    
     private class RestXqServiceMock extends AbstractRestXqService {
 
         public RestXqServiceMock(final ResourceFunction resourceFunction) {
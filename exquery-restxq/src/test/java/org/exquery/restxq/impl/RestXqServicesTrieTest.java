@@ -0,0 +1,151 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.namespace.QName;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.restxq.impl.annotation.PathAnnotationImpl;
+import org.exquery.restxq.impl.annotation.StringLiteral;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.Type;
+import org.exquery.xquery3.FunctionSignature;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for RestXqServicesTrie
+ *
+ * @author Adam Retter
+ */
+public class RestXqServicesTrieTest {
+    
+    private int functionCount = 0;
+    
+    @Test
+    public void candidates_most_specific_first() throws RestAnnotationException {
+        final RestXqService concrete = service("/person/elisabeth");
+        final RestXqService oneTemplate = service("/person/{$name}", "name");
+        final RestXqService twoTemplate = service("/{$type}/{$name}", "type", "name");
+        final RestXqService other = service("/other");
+        final RestXqService noPath = service(null);
+        
+        final RestXqServicesTrie trie = trie(noPath, twoTemplate, other, oneTemplate, concrete);
+        
+        assertEquals(Arrays.asList(concrete, oneTemplate, twoTemplate, noPath), trie.getCandidates("/person/elisabeth"));
+        assertEquals(Arrays.asList(oneTemplate, twoTemplate, noPath), trie.getCandidates("/person/adam"));
+        assertEquals(Arrays.asList(twoTemplate, noPath), trie.getCandidates("/animal/elisabeth"));
+        assertEquals(Arrays.asList(other, noPath), trie.getCandidates("/other"));
+    }
+    
+    @Test
+    public void candidates_path_must_match_segment_count() throws RestAnnotationException {
+        final RestXqService concrete = service("/person/elisabeth");
+        final RestXqService oneTemplate = service("/person/{$name}", "name");
+        
+        final RestXqServicesTrie trie = trie(concrete, oneTemplate);
+        
+        assertEquals(Collections.<RestXqService>emptyList(), trie.getCandidates("/person"));
+        assertEquals(Collections.<RestXqService>emptyList(), trie.getCandidates("/person/"));
+        assertEquals(Collections.<RestXqService>emptyList(), trie.getCandidates("/person/elisabeth/nose"));
+        assertEquals(Collections.<RestXqService>emptyList(), trie.getCandidates("person/elisabeth"));
+        assertEquals(Collections.<RestXqService>emptyList(), trie.getCandidates(""));
+    }
+    
+    @Test
+    public void splitPath() {
+        assertArrayEquals(new String[] { "a", "b" }, RestXqServicesTrie.splitPath("/a/b"));
+        assertArrayEquals(new String[] { "a", "" }, RestXqServicesTrie.splitPath("/a/"));
+        assertArrayEquals(new String[] { "" }, RestXqServicesTrie.splitPath("/"));
+        assertNull(RestXqServicesTrie.splitPath("a/b"));
+        assertNull(RestXqServicesTrie.splitPath(null));
+    }
+    
+    private RestXqServicesTrie trie(final RestXqService... services) {
+        final List<RestXqService> orderedServices = new ArrayList<RestXqService>(Arrays.asList(services));
+        Collections.sort(orderedServices);
+        return new RestXqServicesTrie(orderedServices);
+    }
+    
+    private RestXqService service(final String path, final String... argNames) throws RestAnnotationException {
+        final FunctionSignature mockFunctionSignature = mock(FunctionSignature.class);
+        when(mockFunctionSignature.getName()).thenReturn(new QName("http://somewhere", "fn" + (++functionCount)));
+        
+        final ResourceFunction mockResourceFunction = mock(ResourceFunction.class);
+        when(mockResourceFunction.getXQueryLocation()).thenReturn(URI.create("/some.xquery"));
+        when(mockResourceFunction.getFunctionSignature()).thenReturn(mockFunctionSignature);
+        
+        if(path != null) {
+            final FunctionArgument[] args = new FunctionArgument[argNames.length];
+            for(int i = 0; i < argNames.length; i++) {
+                args[i] = mock(FunctionArgument.class);
+                when(args[i].getName()).thenReturn(argNames[i]);
+                when(args[i].getType()).thenReturn(Type.STRING);
+                when(args[i].getCardinality()).thenReturn(Cardinality.ONE);
+            }
+            when(mockFunctionSignature.getArguments()).thenReturn(args);
+            
+            final PathAnnotationImpl pathAnnotation = new PathAnnotationImpl();
+            pathAnnotation.setFunctionSignature(mockFunctionSignature);
+            pathAnnotation.setLiterals(new Literal[] {
+                new StringLiteral(path)
+            });
+            pathAnnotation.initialise();
+            
+            when(mockResourceFunction.getPathAnnotation()).thenReturn(pathAnnotation);
+        }
+        
+        return new RestXqServiceMock(mockResourceFunction);
+    }
+    
+    private class RestXqServiceMock extends AbstractRestXqService {
+
+        public RestXqServiceMock(final ResourceFunction resourceFunction) {
+            super(resourceFunction);
+        }
+        
+        @Override
+        protected Sequence extractRequestBody(HttpRequest request) throws RestXqServiceException {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+    }
+}
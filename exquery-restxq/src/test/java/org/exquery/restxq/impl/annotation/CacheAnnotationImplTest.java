@@ -0,0 +1,91 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.Arrays;
+import org.exquery.restxq.RestXqErrorCodes;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.xquery.Literal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class CacheAnnotationImplTest {
+    
+    @Test
+    public void maxAgeOnly() throws RestAnnotationException {
+        final CacheAnnotationImpl cacheAnnotation = cacheAnnotation(new StringLiteral("60"));
+        
+        assertEquals(60, cacheAnnotation.getMaxAge());
+        assertTrue(cacheAnnotation.getVaryHeaders().isEmpty());
+    }
+    
+    @Test
+    public void varyHeaders() throws RestAnnotationException {
+        final CacheAnnotationImpl cacheAnnotation = cacheAnnotation(new StringLiteral("0"), new StringLiteral("Accept"), new StringLiteral("Accept-Language"));
+        
+        assertEquals(0, cacheAnnotation.getMaxAge());
+        assertEquals(Arrays.asList("Accept", "Accept-Language"), cacheAnnotation.getVaryHeaders());
+    }
+    
+    @Test
+    public void empty() {
+        assertInvalid(RestXqErrorCodes.RQST0047);
+    }
+    
+    @Test
+    public void invalidMaxAge() {
+        assertInvalid(RestXqErrorCodes.RQST0048, new StringLiteral("soon"));
+        assertInvalid(RestXqErrorCodes.RQST0048, new StringLiteral("-1"));
+    }
+    
+    @Test
+    public void invalidVaryHeader() {
+        assertInvalid(RestXqErrorCodes.RQST0049, new StringLiteral("60"), new StringLiteral(""));
+    }
+    
+    private void assertInvalid(final RestXqErrorCodes.RestXqErrorCode expected, final Literal... literals) {
+        try {
+            cacheAnnotation(literals);
+            fail("Expected RestAnnotationException");
+        } catch(final RestAnnotationException rae) {
+            assertEquals(expected, rae.getErrorCode());
+        }
+    }
+    
+    private CacheAnnotationImpl cacheAnnotation(final Literal... literals) throws RestAnnotationException {
+        final CacheAnnotationImpl cacheAnnotation = new CacheAnnotationImpl();
+        cacheAnnotation.setLiterals(literals);
+        cacheAnnotation.initialise();
+        return cacheAnnotation;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests that MediaTypeMatcher gives the same
+ * results as the regular expressions previously
+ * used by the Media Type Annotations, except that
+ * it ignores the case of the type and subtype
+ *
+ * @author Adam Retter
+ */
+public class MediaTypeMatcherTest {
+    
+    private final static String[] ANNOTATION_MEDIA_TYPES = {
+        "application/xml",
+        "application/xhtml+xml",
+        "text/html",
+        "text/*",
+        "image/svg+xml",
+        "application/vnd.ms-excel"
+    };
+    
+    private final static String[] MEDIA_TYPES = {
+        "application/xml",
+        "application/xhtml+xml",
+        "application/xhtml",
+        "application/*",
+        "text/html",
+        "text/plain",
+        "text/*",
+        "*/*",
+        "image/svg+xml",
+        "image/svgaxml",
+        "application/vnd.ms-excel",
+        "application/vnd-ms-excel",
+        "xml/application",
+        "application"
+    };
+    
+    @Test
+    public void matchesAsRegExp() {
+        final AbstractMediaTypeAnnotation annotation = new ProducesAnnotationImpl();
+        
+        for(final String annotationMediaType : ANNOTATION_MEDIA_TYPES) {
+            final MediaTypeMatcher matcher = new MediaTypeMatcher(Arrays.asList(annotationMediaType));
+            final Pattern annotationPattern = Pattern.compile(annotation.encodeAsRegExp(annotationMediaType));
+            
+            for(final String mediaType : MEDIA_TYPES) {
+                if(annotationMediaType.indexOf('*') > -1 && mediaType.indexOf('*') > -1) {
+                    //wildcards never appeared on both sides
+                    continue;
+                }
+                
+                //wildcards were expanded on either the annotation side (consumes) or the request side (produces)
+                final boolean regExpMatches = annotationPattern.matcher(mediaType).matches()
+                        || Pattern.compile(annotation.encodeAsRegExp(mediaType)).matcher(annotationMediaType).matches();
+                
+                assertEquals(annotationMediaType + " ~ " + mediaType, regExpMatches, matcher.matches(mediaType));
+            }
+        }
+    }
+    
+    @Test
+    public void matchesAny() {
+        final MediaTypeMatcher matcher = new MediaTypeMatcher(Arrays.asList("application/xml", "text/*"));
+        
+        assertTrue(matcher.matches("application/xml"));
+        assertTrue(matcher.matches("Application/XML"));
+        assertTrue(matcher.matches("text/csv"));
+        assertTrue(matcher.matches("*/*"));
+        assertFalse(matcher.matches("application/json"));
+        assertFalse(matcher.matches("image/*"));
+    }
+    
+    @Test
+    public void matchesIgnoringCase() {
+        final MediaTypeMatcher matcher = new MediaTypeMatcher(Arrays.asList("Application/XHTML+xml", "TEXT/*"));
+        
+        assertTrue(matcher.matches("application/xhtml+XML"));
+        assertTrue(matcher.matches("Text/Plain"));
+        assertTrue(MediaTypeMatcher.matches("Image/SVG+xml", "image/svg+XML"));
+        assertTrue(MediaTypeMatcher.matches("IMAGE/*", "image/png"));
+        assertFalse(MediaTypeMatcher.matches("Image/SVG+xml", "image/png"));
+        
+        //the previous regular expressions were case-sensitive
+        final AbstractMediaTypeAnnotation annotation = new ProducesAnnotationImpl();
+        assertFalse(Pattern.compile(annotation.encodeAsRegExp("Application/XHTML+xml")).matcher("application/xhtml+XML").matches());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMediaType() {
+        new MediaTypeMatcher(Arrays.asList("application"));
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Type;
+import org.exquery.xquery3.FunctionSignature;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that PathSegmentMatcher gives the same
+ * results as the regular expression of a Path Annotation
+ *
+ * @author Adam Retter
+ */
+public class PathSegmentMatcherTest {
+    
+    private final static String[] PATHS = {
+        "/person/elisabeth/nose",
+        "/person/elisabeth/nose/",
+        "/person/elisabeth",
+        "/person//nose",
+        "person/elisabeth/nose",
+        "/person/elisabeth/nose/left",
+        "/person/eli%20sabeth/nose",
+        "/person/eli%2fsabeth/nose",
+        "/person/eli%2/nose",
+        "/person/eli%/nose",
+        "/person/elisabeth%41",
+        "/person/eli sabeth/nose",
+        "/person/élisabeth/nose",
+        "/person/a:b@c!$&'()*+,;=-._~/nose",
+        "/person/a{b}/nose",
+        "/animal/elisabeth/nose",
+        "/person/1/2",
+        "/a/b",
+        "/a",
+        "/",
+        ""
+    };
+    
+    @Test
+    public void concrete_path() throws RestAnnotationException {
+        assertSameAsRegExp(pathAnnotation("/person/elisabeth/nose"));
+    }
+    
+    @Test
+    public void templated_paths() throws RestAnnotationException {
+        assertSameAsRegExp(pathAnnotation("/person/{$name}/nose", "name"));
+        assertSameAsRegExp(pathAnnotation("/person/{$name}/{$part}", "name", "part"));
+        assertSameAsRegExp(pathAnnotation("/{$type}/{$name}/nose", "type", "name"));
+        assertSameAsRegExp(pathAnnotation("/{$type}", "type"));
+        assertSameAsRegExp(pathAnnotation("/{$a}/{$b}", "a", "b"));
+    }
+    
+    @Test
+    public void missing_preceding_slash() throws RestAnnotationException {
+        assertSameAsRegExp(pathAnnotation("person/{$name}/nose", "name"));
+    }
+    
+    @Test
+    public void concrete_prefix_of_template() throws RestAnnotationException {
+        assertSameAsRegExp(pathAnnotation("/person/x{$name}", "name"));
+    }
+    
+    @Test
+    public void extract_reuses_match() throws RestAnnotationException {
+        final PathAnnotationImpl pa = pathAnnotation("/person/{$name}/{$part}", "name", "part");
+        final PathSegmentMatch match = new PathSegmentMatch();
+        
+        assertTrue(pa.getPathSegmentMatcher().match("/person/elisabeth/nose", match));
+        assertEquals(2, match.getParameterCount());
+        assertEquals("name", match.getParameterName(0));
+        assertEquals("elisabeth", match.getParameterValue(0));
+        assertEquals("part", match.getParameterName(1));
+        assertEquals("nose", match.getParameterValue(1));
+        
+        assertTrue(pa.getPathSegmentMatcher().match("/person/adam/ear", match));
+        assertEquals("adam", match.getParameterValue(0));
+        assertEquals("ear", match.getParameterValue(1));
+        
+        assertFalse(pa.getPathSegmentMatcher().match("/animal/adam", match));
+    }
+    
+    @SuppressWarnings("deprecation")
+    private void assertSameAsRegExp(final PathAnnotationImpl pa) {
+        for(final String path : PATHS) {
+            final Matcher m = pa.getPathInformation().getPathMatcher(path);
+            final boolean regExpMatches = m.matches();
+            
+            final Map<String, String> regExpParameters = new HashMap<String, String>();
+            if(regExpMatches) {
+                for(int i = 1 ; i <= m.groupCount(); i++) {
+                    regExpParameters.put(pa.getPathInformation().getFnParamNameForGroup(i), m.group(i));
+                }
+            }
+            
+            assertEquals("matchesPath: " + path, regExpMatches, pa.matchesPath(path));
+            assertEquals("extractPathParameters: " + path, regExpParameters, pa.extractPathParameters(path));
+        }
+    }
+    
+    private PathAnnotationImpl pathAnnotation(final String path, final String... argNames) throws RestAnnotationException {
+        final FunctionArgument[] args = new FunctionArgument[argNames.length];
+        for(int i = 0; i < argNames.length; i++) {
+            args[i] = mock(FunctionArgument.class);
+            when(args[i].getName()).thenReturn(argNames[i]);
+            when(args[i].getType()).thenReturn(Type.STRING);
+            when(args[i].getCardinality()).thenReturn(Cardinality.ONE);
+        }
+        final FunctionSignature mockFunctionSignature = mock(FunctionSignature.class);
+        when(mockFunctionSignature.getArguments()).thenReturn(args);
+        
+        final PathAnnotationImpl pa = new PathAnnotationImpl();
+        pa.setFunctionSignature(mockFunctionSignature);
+        pa.setLiterals(new Literal[] {
+            new StringLiteral(path)
+        });
+        pa.initialise();
+        return pa;
+    }
+}
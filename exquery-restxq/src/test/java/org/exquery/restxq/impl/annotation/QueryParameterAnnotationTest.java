@@ -0,0 +1,111 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.annotation;
+
+import java.util.Iterator;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.annotation.RestAnnotationException;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Literal;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+import org.exquery.xquery3.FunctionSignature;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class QueryParameterAnnotationTest {
+    
+    @Test
+    public void extractParameter_missing_sharesDefaultValues() throws RestAnnotationException {
+        final QueryParameterAnnotation queryParameterAnnotation = queryParameterAnnotation(
+            new StringLiteral("a"),
+            new StringLiteral("b")
+        );
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        
+        final Sequence<String> defaultValues = queryParameterAnnotation.extractParameter(request).getTypedValue();
+        final Iterator<TypedValue<String>> itDefaultValues = defaultValues.iterator();
+        assertEquals("a", itDefaultValues.next().getValue());
+        assertEquals("b", itDefaultValues.next().getValue());
+        assertFalse(itDefaultValues.hasNext());
+        
+        assertSame(defaultValues, queryParameterAnnotation.extractParameter(request).getTypedValue());
+    }
+    
+    @Test
+    public void extractParameter_missing_noDefaultValues() throws RestAnnotationException {
+        final QueryParameterAnnotation queryParameterAnnotation = queryParameterAnnotation();
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        
+        assertSame(Sequence.EMPTY_SEQUENCE, queryParameterAnnotation.extractParameter(request).getTypedValue());
+    }
+    
+    @Test
+    public void extractParameter_present() throws RestAnnotationException {
+        final QueryParameterAnnotation queryParameterAnnotation = queryParameterAnnotation(
+            new StringLiteral("a")
+        );
+        
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getQueryParam("q")).thenReturn("x");
+        
+        assertEquals("x", queryParameterAnnotation.extractParameter(request).getTypedValue().head().getValue());
+    }
+    
+    private QueryParameterAnnotation queryParameterAnnotation(final Literal... defaultValues) throws RestAnnotationException {
+        final FunctionArgument argument = mock(FunctionArgument.class);
+        when(argument.getName()).thenReturn("query");
+        when(argument.getType()).thenReturn(Type.STRING);
+        when(argument.getCardinality()).thenReturn(Cardinality.ZERO_OR_MORE);
+        
+        final FunctionSignature signature = mock(FunctionSignature.class);
+        when(signature.getArguments()).thenReturn(new FunctionArgument[] { argument });
+        
+        final Literal[] literals = new Literal[2 + defaultValues.length];
+        literals[0] = new StringLiteral("q");
+        literals[1] = new StringLiteral("{$query}");
+        System.arraycopy(defaultValues, 0, literals, 2, defaultValues.length);
+        
+        final QueryParameterAnnotation queryParameterAnnotation = new QueryParameterAnnotation();
+        queryParameterAnnotation.setFunctionSignature(signature);
+        queryParameterAnnotation.setLiterals(literals);
+        queryParameterAnnotation.initialise();
+        return queryParameterAnnotation;
+    }
+}
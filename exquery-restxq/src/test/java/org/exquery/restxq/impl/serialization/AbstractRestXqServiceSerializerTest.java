@@ -0,0 +1,178 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import org.exquery.http.HttpResponse;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.serialization.annotation.MethodAnnotation.SupportedMethod;
+import org.exquery.serialization.annotation.SerializationAnnotation;
+import org.exquery.xdm.type.ArraySequence;
+import org.exquery.xdm.type.Base64BinaryTypedValue;
+import org.exquery.xdm.type.BinaryContent;
+import org.exquery.xdm.type.StringTypedValue;
+import org.exquery.xquery.Sequence;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class AbstractRestXqServiceSerializerTest {
+    
+    @Test
+    public void serializeBinaryBody_single() throws IOException, RestXqServiceException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(baos);
+        
+        final Sequence<InputStream> result = new ArraySequence<InputStream>(new Base64BinaryTypedValue[] {
+            new Base64BinaryTypedValue(BinaryContent.fromByteBuffer(ByteBuffer.wrap("hello".getBytes())))
+        });
+        
+        new RestXqServiceSerializerMock().serializeBinaryBody(result, response);
+        
+        assertArrayEquals("hello".getBytes(), baos.toByteArray());
+        verify(response).setHeader("Content-Length", "5");
+    }
+    
+    @Test
+    public void serializeBinaryBody_multiple() throws IOException, RestXqServiceException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(baos);
+        
+        final Sequence<InputStream> result = new ArraySequence<InputStream>(new Base64BinaryTypedValue[] {
+            new Base64BinaryTypedValue(BinaryContent.fromByteBuffer(ByteBuffer.wrap("hello ".getBytes()))),
+            new Base64BinaryTypedValue(new ByteArrayInputStream("world".getBytes()))
+        });
+        
+        new RestXqServiceSerializerMock().serializeBinaryBody(result, response);
+        
+        assertArrayEquals("hello world".getBytes(), baos.toByteArray());
+        verify(response, never()).setHeader(eq("Content-Length"), anyString());
+    }
+    
+    @Test
+    public void serializeBinaryBody_outputChannel() throws IOException, RestXqServiceException {
+        final HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        
+        final Sequence<InputStream> result = new ArraySequence<InputStream>(new Base64BinaryTypedValue[] {
+            new Base64BinaryTypedValue(BinaryContent.fromByteBuffer(ByteBuffer.wrap("hello".getBytes())))
+        });
+        
+        //an engine may provide the native channel of its container
+        final ByteArrayOutputStream nativeOutput = new ByteArrayOutputStream();
+        new RestXqServiceSerializerMock() {
+            @Override
+            protected WritableByteChannel getOutputChannel(final HttpResponse response) {
+                return Channels.newChannel(nativeOutput);
+            }
+        }.serializeBinaryBody(result, response);
+        
+        assertArrayEquals("hello".getBytes(), nativeOutput.toByteArray());
+    }
+    
+    @Test(expected=RestXqServiceException.class)
+    public void serializeBinaryBody_notBinary() throws IOException, RestXqServiceException {
+        final HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        
+        final Sequence<String> result = new ArraySequence<String>(new StringTypedValue[] {
+            new StringTypedValue("hello")
+        });
+        
+        new RestXqServiceSerializerMock().serializeBinaryBody(result, response);
+    }
+    
+    @Test
+    public void createSerializationTemplate_defaults() {
+        final SerializationTemplate template = new RestXqServiceSerializerMock().createSerializationTemplate(Collections.<SerializationAnnotation>emptySet());
+        
+        assertEquals(SupportedMethod.xml, template.getMethod());
+        assertEquals("application/xml; charset=UTF-8", template.getContentType());
+    }
+    
+    @Test
+    public void serializationTemplate_binary() {
+        final Map<SerializationProperty, String> properties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        properties.put(SerializationProperty.METHOD, "binary");
+        properties.put(SerializationProperty.MEDIA_TYPE, "image/png");
+        
+        final SerializationTemplate template = new SerializationTemplate(properties);
+        
+        //later changes to the properties do not affect the template
+        properties.put(SerializationProperty.METHOD, "text");
+        
+        assertEquals(SupportedMethod.binary, template.getMethod());
+        assertEquals("binary", template.getSerializationProperties().get(SerializationProperty.METHOD));
+        assertEquals("image/png", template.getContentType());
+    }
+    
+    @Test
+    public void serializationTemplate_noMediaType() {
+        final Map<SerializationProperty, String> properties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        properties.put(SerializationProperty.METHOD, "unknown");
+        
+        final SerializationTemplate template = new SerializationTemplate(properties);
+        
+        assertNull(template.getMethod());
+        assertNull(template.getContentType());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void serializationTemplate_immutable() {
+        final SerializationTemplate template = new SerializationTemplate(new EnumMap<SerializationProperty, String>(SerializationProperty.class));
+        template.getSerializationProperties().put(SerializationProperty.METHOD, "text");
+    }
+    
+    static class RestXqServiceSerializerMock extends AbstractRestXqServiceSerializer {
+        @Override
+        protected void serializeNodeBody(final Sequence result, final HttpResponse response, final Map<SerializationProperty, String> serializationProperties) throws RestXqServiceException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
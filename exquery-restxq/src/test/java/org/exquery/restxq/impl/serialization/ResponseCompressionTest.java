@@ -0,0 +1,307 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.exquery.http.HttpRequest;
+import org.exquery.http.HttpResponse;
+import org.exquery.restxq.impl.serialization.ResponseCompression.ContentEncoding;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class ResponseCompressionTest {
+    
+    private final static int THRESHOLD = 64;
+    
+    @Test
+    public void negotiate() {
+        final ResponseCompression compression = new ResponseCompression();
+        
+        assertNull(compression.negotiate(null));
+        assertNull(compression.negotiate(""));
+        assertNull(compression.negotiate("identity"));
+        assertNull(compression.negotiate("br"));
+        assertEquals(ContentEncoding.GZIP, compression.negotiate("gzip, deflate, br"));
+        assertEquals(ContentEncoding.GZIP, compression.negotiate("x-gzip"));
+        assertEquals(ContentEncoding.DEFLATE, compression.negotiate("deflate"));
+        assertEquals(ContentEncoding.DEFLATE, compression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.GZIP, compression.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, compression.negotiate("gzip;q=0, *"));
+        assertNull(compression.negotiate("*;q=0"));
+        assertNull(compression.negotiate("gzip;q=abc"));
+    }
+    
+    @Test
+    public void negotiate_turkishLocale() {
+        final Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            final ResponseCompression compression = new ResponseCompression();
+            assertEquals(ContentEncoding.GZIP, compression.negotiate("X-GZIP"));
+            assertEquals(ContentEncoding.DEFLATE, compression.negotiate("DEFLATE"));
+            assertFalse(compression.isCompressible("IMAGE/PNG"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+    
+    @Test
+    public void isEnabled() {
+        final ResponseCompression byDefault = new ResponseCompression(THRESHOLD, 6, 1, true);
+        assertTrue(byDefault.isEnabled(null));
+        assertFalse(byDefault.isEnabled(Boolean.FALSE));
+        
+        final ResponseCompression notByDefault = new ResponseCompression(THRESHOLD, 6, 1, false);
+        assertFalse(notByDefault.isEnabled(null));
+        assertTrue(notByDefault.isEnabled(Boolean.TRUE));
+    }
+    
+    @Test
+    public void compress_gzip() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("gzip"), response);
+        compressingResponse.setHeader("Content-Length", String.valueOf(body.length));
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Encoding");
+        verify(response, never()).setHeader(eq("Content-Length"), anyString());
+        
+        assertEquals(1, compression.getCompressedCount());
+        assertEquals(body.length, compression.getBytesIn());
+        assertEquals(baos.size(), compression.getBytesOut());
+        
+        //the deflater is returned to the pool
+        assertEquals(1, compression.getDeflaterPool(ContentEncoding.GZIP).size());
+    }
+    
+    @Test
+    public void compress_deflate() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("deflate"), response);
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+        verify(response).setHeader("Content-Encoding", "deflate");
+    }
+    
+    @Test
+    public void compress_belowThreshold() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("gzip"), response);
+        compressingResponse.setHeader("Content-Length", String.valueOf(body.length));
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, baos.toByteArray());
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(response).setHeader("Content-Length", String.valueOf(body.length));
+        assertEquals(0, compression.getCompressedCount());
+        assertEquals(1, compression.getUncompressedCount());
+    }
+    
+    @Test
+    public void compress_notAcceptable() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest(null), response);
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, baos.toByteArray());
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(response).setHeader("Vary", "Accept-Encoding");
+    }
+    
+    @Test
+    public void compress_alreadyEncoded() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("gzip"), response);
+        compressingResponse.setHeader("Content-Encoding", "br");
+        compressingResponse.setHeader("Vary", "Accept-Language");
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, baos.toByteArray());
+        verify(response, never()).setHeader("Content-Encoding", "gzip");
+        verify(response).setHeader("Vary", "Accept-Language, Accept-Encoding");
+    }
+    
+    @Test
+    public void compress_notCompressibleMediaType() throws IOException {
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("gzip"), response);
+        compressingResponse.setContentType("image/png");
+        write(compressingResponse, body);
+        compressingResponse.finish();
+        compressingResponse.release();
+        
+        assertArrayEquals(body, baos.toByteArray());
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+    }
+    
+    @Test
+    public void compress_flush() throws IOException {
+        assumeTrue(CompressingHttpResponse.isFlushSupported());
+        
+        final ResponseCompression compression = new ResponseCompression(THRESHOLD, 6, 1, true);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final HttpResponse response = mockResponse(baos);
+        final byte[] body = body(THRESHOLD * 10);
+        
+        final CompressingHttpResponse compressingResponse = compression.compress(mockRequest("deflate"), response);
+        write(compressingResponse, body);
+        compressingResponse.getOutputStream().flush();
+        
+        //everything written so far can be inflated before the body is finished
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(baos.toByteArray());
+            final byte[] inflated = new byte[body.length];
+            int inflatedLen = 0;
+            while(inflatedLen < inflated.length) {
+                final int len = inflater.inflate(inflated, inflatedLen, inflated.length - inflatedLen);
+                if(len == 0) {
+                    break;
+                }
+                inflatedLen += len;
+            }
+            assertEquals(body.length, inflatedLen);
+            assertArrayEquals(body, inflated);
+        } catch(final DataFormatException dfe) {
+            throw new IOException(dfe.getMessage(), dfe);
+        } finally {
+            inflater.end();
+        }
+        
+        compressingResponse.finish();
+        compressingResponse.release();
+        assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+    }
+    
+    private HttpRequest mockRequest(final String acceptEncoding) {
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        return request;
+    }
+    
+    private HttpResponse mockResponse(final OutputStream os) throws IOException {
+        final HttpResponse response = mock(HttpResponse.class);
+        when(response.getOutputStream()).thenReturn(os);
+        return response;
+    }
+    
+    private byte[] body(final int length) {
+        final byte[] body = new byte[length];
+        final byte[] pattern = "<hello>world</hello>".getBytes();
+        for(int i = 0; i < length; i++) {
+            body[i] = pattern[i % pattern.length];
+        }
+        return body;
+    }
+    
+    private void write(final HttpResponse response, final byte[] body) throws IOException {
+        final OutputStream os = response.getOutputStream();
+        
+        //write in uneven chunks, with a single byte write
+        os.write(body[0]);
+        int offset = 1;
+        int chunk = 7;
+        while(offset < body.length) {
+            final int len = Math.min(chunk, body.length - offset);
+            os.write(Arrays.copyOfRange(body, offset, offset + len));
+            offset += len;
+            chunk = chunk * 2 + 1;
+        }
+    }
+    
+    private byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[256];
+        int read;
+        while((read = is.read(buf)) > -1) {
+            baos.write(buf, 0, read);
+        }
+        return baos.toByteArray();
+    }
+}
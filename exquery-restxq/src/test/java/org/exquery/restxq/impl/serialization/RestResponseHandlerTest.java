@@ -0,0 +1,137 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.exquery.http.HttpResponse;
+import org.exquery.http.HttpStatus;
+import org.exquery.restxq.RestXqServiceException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import org.w3c.dom.Element;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class RestResponseHandlerTest {
+    
+    private final static String NS_DECLS = "xmlns:rest='http://exquery.org/ns/restxq' xmlns:http='http://expath.org/ns/http-client' xmlns:output='http://www.w3.org/2010/xslt-xquery-serialization'";
+    
+    @Test
+    public void parse() throws Exception {
+        final Element restResponse = parseElement(
+            "<rest:response " + NS_DECLS + ">"
+            + "<output:serialization-parameters><output:method value='text'/></output:serialization-parameters>"
+            + "<http:response status='201' reason='Made it'>"
+            + "<http:header name='Location' value='/a/b'/>"
+            + "<http:header name='Content-Type' value='text/plain; charset=UTF-8'/>"
+            + "</http:response>"
+            + "</rest:response>");
+        
+        final RestResponse parsed = new RestResponseHandler().parse(restResponse);
+        
+        assertEquals(HttpStatus.Created, parsed.getStatus());
+        assertEquals("Made it", parsed.getReason());
+        assertEquals("text", parsed.getMethod());
+        assertEquals(2, parsed.getHeaders().size());
+        assertEquals("Location", parsed.getHeaders().get(0).getName());
+        assertEquals("/a/b", parsed.getHeaders().get(0).getValue());
+    }
+    
+    @Test
+    public void parse_ignoresNestedElements() throws Exception {
+        final Element restResponse = parseElement(
+            "<rest:response " + NS_DECLS + ">"
+            + "<other><http:response status='500'/></other>"
+            + "</rest:response>");
+        
+        final RestResponse parsed = new RestResponseHandler().parse(restResponse);
+        
+        assertNull(parsed.getStatus());
+        assertNull(parsed.getMethod());
+        assertEquals(0, parsed.getHeaders().size());
+    }
+    
+    @Test(expected=RestXqServiceException.class)
+    public void parse_invalidStatus() throws Exception {
+        final Element restResponse = parseElement(
+            "<rest:response " + NS_DECLS + "><http:response status='abc'/></rest:response>");
+        
+        new RestResponseHandler().parse(restResponse);
+    }
+    
+    @Test
+    public void process() throws Exception {
+        final Element restResponse = parseElement(
+            "<rest:response " + NS_DECLS + ">"
+            + "<http:response status='201' reason='Made it'>"
+            + "<http:header name='Content-Type' value='text/plain; charset=UTF-8'/>"
+            + "</http:response>"
+            + "</rest:response>");
+        final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        final HttpResponse response = mock(HttpResponse.class);
+        
+        new RestResponseHandler().process(restResponse, serializationProperties, response);
+        
+        verify(response).setStatus(HttpStatus.Created, "Made it");
+        verify(response).setHeader("Content-Type", "text/plain; charset=UTF-8");
+        assertEquals("text/plain", serializationProperties.get(SerializationProperty.MEDIA_TYPE));
+        assertNull(serializationProperties.get(SerializationProperty.METHOD));
+    }
+    
+    @Test
+    public void process_noHttpResponse() throws Exception {
+        final Element restResponse = parseElement(
+            "<rest:response " + NS_DECLS + ">"
+            + "<output:serialization-parameters><output:method value='binary'/></output:serialization-parameters>"
+            + "</rest:response>");
+        final Map<SerializationProperty, String> serializationProperties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        final HttpResponse response = mock(HttpResponse.class);
+        
+        new RestResponseHandler().process(restResponse, serializationProperties, response);
+        
+        verify(response, never()).setStatus(eq(HttpStatus.OK));
+        verify(response, never()).setHeader(anyString(), anyString());
+        assertEquals("binary", serializationProperties.get(SerializationProperty.METHOD));
+    }
+    
+    private Element parseElement(final String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.restxq.impl.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.exquery.restxq.Namespace;
+import org.exquery.restxq.RestXqServiceException;
+import org.exquery.restxq.impl.serialization.XmlWriter.Attribute;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class Utf8XmlWriterTest {
+    
+    @Test
+    public void write_namespacesAttributesAndText() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Utf8XmlWriter writer = new Utf8XmlWriter(baos);
+        writer.setProperties(properties("no", "yes"));
+        
+        writer.startDocument();
+        writer.startElement(new QName("http://a", "root", "a"), new Attribute[] {
+            attribute(new QName("x"), "1 < 2 & \"3\"\n")
+        });
+        writer.startElement(new QName("http://a", "child", "a"));
+        writer.characters("café 😀 <>&");
+        writer.endElement();
+        writer.startElement(new QName("http://b", "other"));
+        writer.characters("text".toCharArray(), 1, 2);
+        writer.endElement();
+        writer.startElement(new QName("empty"));
+        writer.endElement();
+        writer.endElement();
+        writer.endDocument();
+        writer.close();
+        
+        assertEquals(
+            "<a:root xmlns:a=\"http://a\" x=\"1 &lt; 2 &amp; &quot;3&quot;&#xA;\">"
+            + "<a:child>café 😀 &lt;&gt;&amp;</a:child>"
+            + "<other xmlns=\"http://b\">ex</other>"
+            + "<empty/>"
+            + "</a:root>",
+            new String(baos.toByteArray(), "UTF-8"));
+    }
+    
+    @Test
+    public void write_indented() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Utf8XmlWriter writer = new Utf8XmlWriter(baos);
+        writer.setProperties(properties("yes", "no"));
+        
+        writer.startDocument();
+        writer.startElement(new QName("a"));
+        writer.startElement(new QName("b"));
+        writer.characters("text");
+        writer.endElement();
+        writer.endElement();
+        writer.endDocument();
+        writer.close();
+        
+        assertEquals(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<a>\n  <b>text</b>\n</a>",
+            new String(baos.toByteArray(), "UTF-8"));
+    }
+    
+    @Test
+    public void write_largerThanBuffer() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 10000; i++) {
+            text.append("été ");
+        }
+        
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Utf8XmlWriter writer = new Utf8XmlWriter(baos);
+        writer.setProperties(properties("no", "yes"));
+        writer.startDocument();
+        writer.startElement(new QName("text"));
+        writer.characters(text);
+        writer.endElement();
+        writer.endDocument();
+        writer.close();
+        
+        assertEquals("<text>" + text + "</text>", new String(baos.toByteArray(), "UTF-8"));
+    }
+    
+    @Test
+    public void write_replacesIllegalCharacters() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Utf8XmlWriter writer = new Utf8XmlWriter(baos);
+        writer.setProperties(properties("no", "yes"));
+        
+        writer.startDocument();
+        writer.startElement(new QName("a"), new Attribute[] {
+            attribute(new QName("x"), "1\u00002\t")
+        });
+        writer.characters("a\u0001b\u001Fc\uFFFEd\uD800e\tf");
+        writer.endElement();
+        writer.endDocument();
+        writer.close();
+        
+        assertEquals(
+            "<a x=\"1\uFFFD2&#x9;\">a\uFFFDb\uFFFDc\uFFFDd\uFFFDe\tf</a>",
+            new String(baos.toByteArray(), "UTF-8"));
+    }
+    
+    @Test
+    public void serializeExceptionResponse_wellFormed() throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final Utf8XmlWriter writer = new Utf8XmlWriter(baos);
+        
+        new AbstractRestXqServiceSerializerTest.RestXqServiceSerializerMock().serializeExceptionResponse(new RestXqServiceException("a <failure>"), writer);
+        writer.close();
+        
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        final Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(baos.toByteArray()));
+        
+        final Element root = doc.getDocumentElement();
+        assertEquals(Namespace.ANNOTATION_NS, root.getNamespaceURI());
+        assertEquals("response", root.getLocalName());
+        assertEquals(RestXqServiceException.class.getName() + ": a <failure>", root.getElementsByTagNameNS(Namespace.ANNOTATION_ERROR_NS, "message").item(0).getFirstChild().getNodeValue());
+    }
+    
+    private Map<SerializationProperty, String> properties(final String indent, final String omitXmlDeclaration) {
+        final Map<SerializationProperty, String> properties = new EnumMap<SerializationProperty, String>(SerializationProperty.class);
+        properties.put(SerializationProperty.INDENT, indent);
+        properties.put(SerializationProperty.OMIT_XML_DECLARATION, omitXmlDeclaration);
+        properties.put(SerializationProperty.ENCODING, "UTF-8");
+        return properties;
+    }
+    
+    private Attribute attribute(final QName name, final String value) {
+        return new Attribute() {
+            @Override
+            public QName getName() {
+                return name;
+            }
+
+            @Override
+            public String getValue() {
+                return value;
+            }
+        };
+    }
+}
@@ -62,6 +62,11 @@ public class SerializationAnnotationErrorCodes extends ErrorCodes {
     public static SerializationAnnotationErrorCode SEST0014 = new SerializationAnnotationErrorCode("SEST0014", "It is a static error if a Serialization Output encoding Annotation has an empty value");
     public static SerializationAnnotationErrorCode SEST0015 = new SerializationAnnotationErrorCode("SEST0015", "It is a static error if a Serialization Output encoding Annotation does not describe a valid character encoding");
     
+    //compress
+    public static SerializationAnnotationErrorCode SEST0016 = new SerializationAnnotationErrorCode("SEST0016", "It is a static error if a Serialization Output compress Annotation has more than one literal value");
+    public static SerializationAnnotationErrorCode SEST0017 = new SerializationAnnotationErrorCode("SEST0017", "It is a static error if a Serialization Output compress Annotation has an empty value");
+    public static SerializationAnnotationErrorCode SEST0018 = new SerializationAnnotationErrorCode("SEST0018", "It is a static error if a Serialization Output compress Annotation does not have a parameter value of 'yes' or 'no'");
+    
     public static class SerializationAnnotationErrorCode extends ErrorCode {
 
         private SerializationAnnotationErrorCode(String code, String description) {
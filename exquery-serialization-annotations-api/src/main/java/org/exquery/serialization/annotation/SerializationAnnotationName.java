@@ -42,7 +42,8 @@ public enum SerializationAnnotationName {
     //doctypesystem("doctype-system"),
     mediatype("media-type"),
     indent,
-    omitxmldeclaration("omit-xml-declaration");
+    omitxmldeclaration("omit-xml-declaration"),
+    compress;
     
 
     final QName name;
@@ -90,6 +90,10 @@ public class SerializationAnnotationFactory {
             case encoding:
                 serializationAnnotation = new EncodingAnnotation();
                 break;
+                
+            case compress:
+                serializationAnnotation = new CompressAnnotation();
+                break;
 
             default:
                 throw new IllegalArgumentException("Unknown annotation: " + annotation.getName().toString());
@@ -0,0 +1,278 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Immutable Implementation of Sequence backed by an Array
+ * 
+ * As the Sequence cannot be modified after construction,
+ * it may be cached and safely shared between threads.
+ * 
+ * A Sequence may be a slice of a larger array, slices and
+ * tails share the array of the Sequence they were taken from.
+ *
+ * @param <T> The Type of the items in the Sequence, if they are all of the same type
+ * 
+ * @author Adam Retter
+ */
+public class ArraySequence<T> implements Sequence<T> {
+    
+    private final TypedValue<T>[] values;
+    private final int from;
+    private final int to;
+    
+    /**
+     * The tail is created at most once, as every field it is
+     * built from is final it may be safely published by a race
+     */
+    private Sequence<T> tail = null;
+    
+    /**
+     * @param values The items of the Sequence, the array is copied
+     */
+    public ArraySequence(final TypedValue<T>[] values) {
+        this(values.clone(), 0, values.length);
+    }
+    
+    private ArraySequence(final TypedValue<T>[] values, final int from, final int to) {
+        this.values = values;
+        this.from = from;
+        this.to = to;
+    }
+    
+    /**
+     * Get the number of items in the Sequence
+     * 
+     * @return The number of items
+     */
+    public int size() {
+        return to - from;
+    }
+    
+    /**
+     * Get an item of the Sequence
+     * 
+     * @param index The index of the item, starting from zero
+     * 
+     * @return The item at the index
+     * @throws IndexOutOfBoundsException if the index is outside of the Sequence
+     */
+    public TypedValue<T> get(final int index) {
+        if(index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return values[from + index];
+    }
+    
+    /**
+     * Gets a slice of the Sequence, no items are copied
+     * 
+     * @param fromIndex The index of the first item of the slice, inclusive
+     * @param toIndex The index of the last item of the slice, exclusive
+     * 
+     * @return The slice of the Sequence
+     * @throws IndexOutOfBoundsException if the slice is outside of the Sequence
+     */
+    public Sequence<T> subSequence(final int fromIndex, final int toIndex) {
+        if(fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size());
+        }
+        
+        switch(toIndex - fromIndex) {
+            case 0:
+                return emptySequence();
+            
+            case 1:
+                return new SingletonSequence<T>(values[from + fromIndex]);
+                
+            default:
+                if(fromIndex == 0 && toIndex == size()) {
+                    return this;
+                }
+                return new ArraySequence<T>(values, from + fromIndex, from + toIndex);
+        }
+    }
+    
+    @Override
+    public Iterator<TypedValue<T>> iterator() {
+        return new Iterator<TypedValue<T>>() {
+            private int index = from;
+            
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public TypedValue<T> next() {
+                if(index >= to) {
+                    throw new NoSuchElementException();
+                }
+                return values[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("You cannot remove Items from an immutable Sequence.");
+            }
+        };
+    }
+
+    @Override
+    public TypedValue<T> head() {
+        if(from >= to) {
+            throw new IndexOutOfBoundsException("The sequence is empty!");
+        }
+        return values[from];
+    }
+
+    /**
+     * Gets the tail of the Sequence
+     * 
+     * The tail shares the array of this Sequence, no items are copied,
+     * and is only created on the first call.
+     * 
+     * @return The Sequence without the first Item
+     */
+    @Override
+    public Sequence<T> tail() {
+        Sequence<T> t = tail;
+        if(t == null) {
+            t = from + 1 >= to ? ArraySequence.<T>emptySequence() : subSequence(1, size());
+            tail = t;
+        }
+        return t;
+    }
+    
+    /**
+     * Builds an immutable Sequence
+     * 
+     * The items are added to an array which is handed to the Sequence
+     * without copying, so the Builder should be pre-sized with the number
+     * of items that are expected. The Builder must not be used after
+     * {@link #build()}.
+     * 
+     * @param <T> The Type of the items in the Sequence
+     */
+    public static class Builder<T> {
+        private final static int DEFAULT_SIZE = 8;
+        
+        private TypedValue<T>[] values;
+        private int size = 0;
+        
+        /**
+         * @param expectedSize The number of items expected to be added
+         */
+        public Builder(final int expectedSize) {
+            this.values = newArray(Math.max(expectedSize, 0));
+        }
+        
+        /**
+         * @param cardinality The Cardinality of the Sequence to be built,
+         * used to size the Builder
+         */
+        public Builder(final Cardinality cardinality) {
+            this(expectedSize(cardinality));
+        }
+        
+        private static int expectedSize(final Cardinality cardinality) {
+            switch(cardinality) {
+                case ZERO:
+                    return 0;
+                    
+                case ONE:
+                case ZERO_OR_ONE:
+                    return 1;
+                    
+                default:
+                    return DEFAULT_SIZE;
+            }
+        }
+        
+        /**
+         * Add an item to the Sequence
+         * 
+         * @param value The item to add
+         * 
+         * @return this Builder
+         */
+        public Builder<T> add(final TypedValue<T> value) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, Math.max(DEFAULT_SIZE, size * 2));
+            }
+            values[size++] = value;
+            return this;
+        }
+        
+        /**
+         * Builds the Sequence from the items added
+         * 
+         * @return The immutable Sequence
+         */
+        public Sequence<T> build() {
+            final TypedValue<T>[] built = values;
+            values = null;
+            
+            switch(size) {
+                case 0:
+                    return emptySequence();
+                    
+                case 1:
+                    return new SingletonSequence<T>(built[0]);
+                    
+                default:
+                    return new ArraySequence<T>(built, 0, size);
+            }
+        }
+    }
+    
+    /**
+     * Gets the Empty Sequence as a Sequence of T
+     * 
+     * @param <T> The Type of the items in the Sequence
+     * 
+     * @return {@link Sequence#EMPTY_SEQUENCE}
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Sequence<T> emptySequence() {
+        //safe, as the Empty Sequence has no items
+        return EMPTY_SEQUENCE;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> TypedValue<T>[] newArray(final int size) {
+        //safe, as the array is only ever given items of T and never escapes as another type
+        return new TypedValue[size];
+    }
+}
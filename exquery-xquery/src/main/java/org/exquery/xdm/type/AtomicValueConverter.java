@@ -0,0 +1,336 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.Map;
+import org.exquery.xquery.FunctionArgument;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Converts the lexical (string) form of an atomic value,
+ * such as a value taken from a HTTP request, into a Typed Value
+ * 
+ * A Converter is looked up once for a Type, e.g. for the declared type
+ * of a function argument, and then reused for every value. Numeric
+ * and boolean values are converted to primitive Typed Values
+ * such as {@link LongTypedValue} to avoid boxing.
+ * 
+ * Converters are stateless and may be shared between threads.
+ *
+ * @author Adam Retter
+ */
+public abstract class AtomicValueConverter {
+    
+    private final static Map<Type, AtomicValueConverter> CONVERTERS = new EnumMap<Type, AtomicValueConverter>(Type.class);
+    static {
+        final AtomicValueConverter stringConverter = new StringConverter(Type.STRING);
+        CONVERTERS.put(Type.STRING, stringConverter);
+        CONVERTERS.put(Type.ANY_ATOMIC_TYPE, stringConverter);
+        CONVERTERS.put(Type.ANY_SIMPLE_TYPE, stringConverter);
+        CONVERTERS.put(Type.ITEM, stringConverter);
+        CONVERTERS.put(Type.ANY_TYPE, stringConverter);
+        CONVERTERS.put(Type.UNTYPED_ATOMIC, new StringConverter(Type.UNTYPED_ATOMIC));
+        
+        final BigInteger zero = BigInteger.ZERO;
+        CONVERTERS.put(Type.INTEGER, new IntegerConverter(Type.INTEGER, null, null));
+        CONVERTERS.put(Type.NON_POSITIVE_INTEGER, new IntegerConverter(Type.NON_POSITIVE_INTEGER, null, zero));
+        CONVERTERS.put(Type.NEGATIVE_INTEGER, new IntegerConverter(Type.NEGATIVE_INTEGER, null, BigInteger.ONE.negate()));
+        CONVERTERS.put(Type.NON_NEGATIVE_INTEGER, new IntegerConverter(Type.NON_NEGATIVE_INTEGER, zero, null));
+        CONVERTERS.put(Type.POSITIVE_INTEGER, new IntegerConverter(Type.POSITIVE_INTEGER, BigInteger.ONE, null));
+        CONVERTERS.put(Type.LONG, new IntegerConverter(Type.LONG, BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MAX_VALUE)));
+        CONVERTERS.put(Type.INT, new IntegerConverter(Type.INT, BigInteger.valueOf(Integer.MIN_VALUE), BigInteger.valueOf(Integer.MAX_VALUE)));
+        CONVERTERS.put(Type.SHORT, new IntegerConverter(Type.SHORT, BigInteger.valueOf(Short.MIN_VALUE), BigInteger.valueOf(Short.MAX_VALUE)));
+        CONVERTERS.put(Type.BYTE, new IntegerConverter(Type.BYTE, BigInteger.valueOf(Byte.MIN_VALUE), BigInteger.valueOf(Byte.MAX_VALUE)));
+        CONVERTERS.put(Type.UNSIGNED_LONG, new IntegerConverter(Type.UNSIGNED_LONG, zero, BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE)));
+        CONVERTERS.put(Type.UNSIGNED_INT, new IntegerConverter(Type.UNSIGNED_INT, zero, BigInteger.valueOf(0xFFFFFFFFl)));
+        CONVERTERS.put(Type.UNSIGNED_SHORT, new IntegerConverter(Type.UNSIGNED_SHORT, zero, BigInteger.valueOf(0xFFFF)));
+        CONVERTERS.put(Type.UNSIGNED_BYTE, new IntegerConverter(Type.UNSIGNED_BYTE, zero, BigInteger.valueOf(0xFF)));
+        
+        CONVERTERS.put(Type.DECIMAL, new DecimalConverter());
+        CONVERTERS.put(Type.DOUBLE, new DoubleConverter(Type.DOUBLE));
+        CONVERTERS.put(Type.FLOAT, new FloatConverter());
+        CONVERTERS.put(Type.BOOLEAN, new BooleanConverter());
+    }
+    
+    private final Type type;
+    
+    protected AtomicValueConverter(final Type type) {
+        this.type = type;
+    }
+    
+    /**
+     * Get the Converter for a Type
+     * 
+     * @param type The Type to convert lexical values to
+     * 
+     * @return The Converter, or null if lexical values cannot be converted to the Type
+     */
+    public static AtomicValueConverter forType(final Type type) {
+        return CONVERTERS.get(type);
+    }
+    
+    /**
+     * Get the Converter for the declared Type of a Function Argument
+     * 
+     * @param argument The Function Argument whose values will be converted
+     * 
+     * @return The Converter, or null if lexical values cannot be converted to the Type
+     */
+    public static AtomicValueConverter forArgument(final FunctionArgument argument) {
+        return forType(argument.getType());
+    }
+    
+    /**
+     * Get the Type which this Converter produces
+     * 
+     * @return The Type of the converted values
+     */
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Converts a lexical value
+     * 
+     * @param lexicalValue The lexical value to convert
+     * 
+     * @return The Typed Value
+     * 
+     * @throws TypeConversionException If the lexical value is not valid for the Type
+     */
+    public abstract TypedValue<?> convert(final String lexicalValue) throws TypeConversionException;
+    
+    /**
+     * Determines if the characters in a range are all ASCII digits
+     * 
+     * @return true if the range is not empty and all its characters are digits
+     */
+    private static boolean isDigits(final String s, final int from, final int to) {
+        if(from >= to) {
+            return false;
+        }
+        for(int i = from; i < to; i++) {
+            final char c = s.charAt(i);
+            if(c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Determines if the characters in a range are a
+     * lexical xs:decimal without the sign, i.e. digits
+     * with an optional decimal point
+     */
+    private static boolean isUnsignedDecimal(final String s, final int from, final int to) {
+        final int point = s.indexOf('.', from);
+        if(point == -1 || point >= to) {
+            return isDigits(s, from, to);
+        }
+        
+        final boolean hasIntegerPart = point > from;
+        final boolean hasFractionPart = point + 1 < to;
+        return (hasIntegerPart || hasFractionPart)
+            && (!hasIntegerPart || isDigits(s, from, point))
+            && (!hasFractionPart || isDigits(s, point + 1, to));
+    }
+    
+    private static int signLength(final String s) {
+        if(s.length() > 0) {
+            final char c = s.charAt(0);
+            if(c == '+' || c == '-') {
+                return 1;
+            }
+        }
+        return 0;
+    }
+    
+    private static class StringConverter extends AtomicValueConverter {
+        public StringConverter(final Type type) {
+            super(type);
+        }
+
+        @Override
+        public TypedValue<String> convert(final String lexicalValue) {
+            if(getType() == Type.STRING) {
+                return new StringTypedValue(lexicalValue);
+            }
+            return new AbstractTypedValue<String>(getType(), lexicalValue);
+        }
+    }
+    
+    private static class IntegerConverter extends AtomicValueConverter {
+        private final static int MAX_LONG_DIGITS = 18;
+        
+        private final BigInteger min;
+        private final BigInteger max;
+        private final long minLong;
+        private final long maxLong;
+
+        public IntegerConverter(final Type type, final BigInteger min, final BigInteger max) {
+            super(type);
+            this.min = min;
+            this.max = max;
+            this.minLong = min == null || min.bitLength() > 63 ? Long.MIN_VALUE : min.longValue();
+            this.maxLong = max == null || max.bitLength() > 63 ? Long.MAX_VALUE : max.longValue();
+        }
+
+        @Override
+        public TypedValue<?> convert(final String lexicalValue) throws TypeConversionException {
+            final String s = lexicalValue.trim();
+            final int sign = signLength(s);
+            if(!isDigits(s, sign, s.length())) {
+                throw new TypeConversionException(getType(), lexicalValue);
+            }
+            
+            //fast path for values which must fit in a long
+            if(s.length() - sign <= MAX_LONG_DIGITS) {
+                final long value = Long.parseLong(sign == 1 && s.charAt(0) == '+' ? s.substring(1) : s);
+                if(value < minLong || value > maxLong) {
+                    throw new TypeConversionException(getType(), lexicalValue);
+                }
+                return new LongTypedValue(getType(), value);
+            }
+            
+            final BigInteger value = new BigInteger(sign == 1 && s.charAt(0) == '+' ? s.substring(1) : s);
+            if((min != null && value.compareTo(min) < 0) || (max != null && value.compareTo(max) > 0)) {
+                throw new TypeConversionException(getType(), lexicalValue);
+            }
+            if(value.bitLength() <= 63) {
+                return new LongTypedValue(getType(), value.longValue());
+            }
+            return new DecimalTypedValue(getType(), new BigDecimal(value));
+        }
+    }
+    
+    private static class DecimalConverter extends AtomicValueConverter {
+        public DecimalConverter() {
+            super(Type.DECIMAL);
+        }
+
+        @Override
+        public DecimalTypedValue convert(final String lexicalValue) throws TypeConversionException {
+            final String s = lexicalValue.trim();
+            if(!isUnsignedDecimal(s, signLength(s), s.length())) {
+                throw new TypeConversionException(getType(), lexicalValue);
+            }
+            return new DecimalTypedValue(new BigDecimal(s));
+        }
+    }
+    
+    private static class DoubleConverter extends AtomicValueConverter {
+        public DoubleConverter(final Type type) {
+            super(type);
+        }
+
+        @Override
+        public DoubleTypedValue convert(final String lexicalValue) throws TypeConversionException {
+            final String s = lexicalValue.trim();
+            
+            final double value;
+            if(s.equals("INF") || s.equals("+INF")) {
+                value = Double.POSITIVE_INFINITY;
+            } else if(s.equals("-INF")) {
+                value = Double.NEGATIVE_INFINITY;
+            } else if(s.equals("NaN")) {
+                value = Double.NaN;
+            } else {
+                //Double.parseDouble also accepts hex, 'Infinity' and type suffixes, so check the lexical form first
+                final int sign = signLength(s);
+                int exponent = s.indexOf('e', sign);
+                if(exponent == -1) {
+                    exponent = s.indexOf('E', sign);
+                }
+                
+                final boolean valid;
+                if(exponent == -1) {
+                    valid = isUnsignedDecimal(s, sign, s.length());
+                } else {
+                    final int exponentSign = exponent + 1 < s.length() ? signLength(s.substring(exponent + 1, exponent + 2)) : 0;
+                    valid = isUnsignedDecimal(s, sign, exponent) && isDigits(s, exponent + 1 + exponentSign, s.length());
+                }
+                
+                if(!valid) {
+                    throw new TypeConversionException(getType(), lexicalValue);
+                }
+                value = parse(s);
+            }
+            
+            return new DoubleTypedValue(getType(), value);
+        }
+        
+        /**
+         * Parses a valid lexical numeric value (can be overridden!)
+         * 
+         * @param s The lexical value, without whitespace
+         * 
+         * @return The value
+         */
+        protected double parse(final String s) {
+            return Double.parseDouble(s);
+        }
+    }
+    
+    /**
+     * Converts to xs:float by rounding the lexical value directly
+     * to the nearest float, rather than rounding it first to a double.
+     * Values beyond the range of xs:float become INF or -INF
+     */
+    private static class FloatConverter extends DoubleConverter {
+        public FloatConverter() {
+            super(Type.FLOAT);
+        }
+
+        @Override
+        protected double parse(final String s) {
+            //Float.parseFloat rounds to the nearest float, and overflows to +/-Infinity
+            return Float.parseFloat(s);
+        }
+    }
+    
+    private static class BooleanConverter extends AtomicValueConverter {
+        public BooleanConverter() {
+            super(Type.BOOLEAN);
+        }
+
+        @Override
+        public BooleanTypedValue convert(final String lexicalValue) throws TypeConversionException {
+            final String s = lexicalValue.trim();
+            if(s.equals("true") || s.equals("1")) {
+                return BooleanTypedValue.TRUE;
+            } else if(s.equals("false") || s.equals("0")) {
+                return BooleanTypedValue.FALSE;
+            }
+            throw new TypeConversionException(getType(), lexicalValue);
+        }
+    }
+}
@@ -28,15 +28,52 @@ package org.exquery.xdm.type;
 
 import java.io.InputStream;
 import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
 
 /**
  * Default Binary Value Type for xs:base64Binary
  * 
+ * The value is backed by {@link BinaryContent}, so that
+ * content held in a file or buffer can be serialized without
+ * being copied through the heap.
+ * 
  * @author Adam Retter
  */
-public class Base64BinaryTypedValue extends AbstractTypedValue<InputStream> {
+public class Base64BinaryTypedValue implements TypedValue<InputStream> {
 
+    private final BinaryContent content;
+    
     public Base64BinaryTypedValue(final InputStream value) {
-        super(Type.BASE64_BINARY, value);
+        this(BinaryContent.fromStream(value));
+    }
+    
+    public Base64BinaryTypedValue(final BinaryContent content) {
+        this.content = content;
+    }
+    
+    @Override
+    public Type getType() {
+        return Type.BASE64_BINARY;
+    }
+    
+    /**
+     * Get the value as an InputStream
+     * 
+     * @return The value
+     * 
+     * @see #getContent()
+     */
+    @Override
+    public InputStream getValue() {
+        return content.getInputStream();
+    }
+    
+    /**
+     * Get the content of the value
+     * 
+     * @return The binary content
+     */
+    public BinaryContent getContent() {
+        return content;
     }
 }
@@ -0,0 +1,277 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The content of a binary value
+ * 
+ * The content may be backed by a region of a FileChannel, by a ByteBuffer
+ * or by an InputStream. Content backed by a channel or buffer is written
+ * to a target channel by {@link #transferTo(WritableByteChannel)} without
+ * being copied through a byte array on the heap, e.g. using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ *
+ * @author Adam Retter
+ */
+public abstract class BinaryContent implements Closeable {
+    
+    private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Creates content from a region of a FileChannel
+     * 
+     * The position of the channel is not changed
+     * 
+     * @param channel The file channel
+     * @param position The position of the content in the channel
+     * @param count The length of the content
+     * 
+     * @return The binary content
+     */
+    public static BinaryContent fromChannel(final FileChannel channel, final long position, final long count) {
+        return new FileChannelContent(channel, position, count);
+    }
+    
+    /**
+     * Creates content from the remaining bytes of a ByteBuffer
+     * 
+     * The position of the buffer is not changed, so the content may be written more than once
+     * 
+     * @param buffer The buffer, which may be direct
+     * 
+     * @return The binary content
+     */
+    public static BinaryContent fromByteBuffer(final ByteBuffer buffer) {
+        return new ByteBufferContent(buffer);
+    }
+    
+    /**
+     * Creates content from an InputStream
+     * 
+     * The content may only be written once
+     * 
+     * @param is The input stream
+     * 
+     * @return The binary content
+     */
+    public static BinaryContent fromStream(final InputStream is) {
+        return new StreamContent(is);
+    }
+    
+    /**
+     * Gets the length of the content
+     * 
+     * @return The length in bytes, or -1 if the length is not known
+     */
+    public abstract long getLength();
+    
+    /**
+     * Gets the content as an InputStream
+     * 
+     * @return An InputStream of the content
+     */
+    public abstract InputStream getInputStream();
+    
+    /**
+     * Writes the content to a channel
+     * 
+     * @param target The channel to write the content to
+     * 
+     * @return The number of bytes written
+     * 
+     * @throws IOException If an error occurs whilst reading or writing the content
+     */
+    public abstract long transferTo(final WritableByteChannel target) throws IOException;
+    
+    /**
+     * Releases the source of the content
+     * 
+     * @throws IOException If an error occurs whilst closing the source
+     */
+    @Override
+    public void close() throws IOException {
+    }
+    
+    private static class FileChannelContent extends BinaryContent {
+        private final FileChannel channel;
+        private final long position;
+        private final long count;
+
+        public FileChannelContent(final FileChannel channel, final long position, final long count) {
+            this.channel = channel;
+            this.position = position;
+            this.count = count;
+        }
+        
+        @Override
+        public long getLength() {
+            return count;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private long offset = 0;
+                
+                @Override
+                public int read() throws IOException {
+                    final byte b[] = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    if(offset >= count) {
+                        return -1;
+                    }
+                    
+                    //positional reads, so the position of the channel is not changed
+                    final ByteBuffer buf = ByteBuffer.wrap(b, off, (int)Math.min(len, count - offset));
+                    final int read = channel.read(buf, position + offset);
+                    if(read > 0) {
+                        offset += read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public long transferTo(final WritableByteChannel target) throws IOException {
+            long transferred = 0;
+            while(transferred < count) {
+                final long written = channel.transferTo(position + transferred, count - transferred, target);
+                if(written <= 0) {
+                    //end of file
+                    break;
+                }
+                transferred += written;
+            }
+            return transferred;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+    
+    private static class ByteBufferContent extends BinaryContent {
+        private final ByteBuffer buffer;
+
+        public ByteBufferContent(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long getLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            final ByteBuffer buf = buffer.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) {
+                    if(!buf.hasRemaining()) {
+                        return -1;
+                    }
+                    final int read = Math.min(len, buf.remaining());
+                    buf.get(b, off, read);
+                    return read;
+                }
+                
+                @Override
+                public int available() {
+                    return buf.remaining();
+                }
+            };
+        }
+
+        @Override
+        public long transferTo(final WritableByteChannel target) throws IOException {
+            final ByteBuffer buf = buffer.duplicate();
+            long transferred = 0;
+            while(buf.hasRemaining()) {
+                transferred += target.write(buf);
+            }
+            return transferred;
+        }
+    }
+    
+    private static class StreamContent extends BinaryContent {
+        private final InputStream is;
+
+        public StreamContent(final InputStream is) {
+            this.is = is;
+        }
+
+        @Override
+        public long getLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return is;
+        }
+
+        @Override
+        public long transferTo(final WritableByteChannel target) throws IOException {
+            final byte b[] = new byte[STREAM_BUFFER_SIZE];
+            final ByteBuffer buf = ByteBuffer.wrap(b);
+            long transferred = 0;
+            int read;
+            while((read = is.read(b)) != -1) {
+                buf.clear().limit(read);
+                while(buf.hasRemaining()) {
+                    target.write(buf);
+                }
+                transferred += read;
+            }
+            return transferred;
+        }
+
+        @Override
+        public void close() throws IOException {
+            is.close();
+        }
+    }
+}
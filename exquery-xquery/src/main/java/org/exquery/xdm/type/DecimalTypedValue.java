@@ -0,0 +1,66 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.math.BigDecimal;
+import org.exquery.xquery.Type;
+
+/**
+ * Typed Value for xs:decimal, and for xs:integer
+ * values which are too large to be held in a long
+ *
+ * @author Adam Retter
+ */
+public class DecimalTypedValue extends AbstractTypedValue<BigDecimal> {
+    
+    /**
+     * @param value The xs:decimal value
+     */
+    public DecimalTypedValue(final BigDecimal value) {
+        super(Type.DECIMAL, value);
+    }
+    
+    /**
+     * @param type The Type of the value, must be xs:decimal or a sub-type of xs:decimal
+     * @param value The value
+     */
+    public DecimalTypedValue(final Type type, final BigDecimal value) {
+        super(checkType(type), value);
+    }
+    
+    private static Type checkType(final Type type) {
+        if(!type.isSubTypeOf(Type.DECIMAL)) {
+            throw new IllegalArgumentException("Type must be a sub-type of xs:decimal: " + type);
+        }
+        return type;
+    }
+    
+    @Override
+    public String toString() {
+        return getValue().toPlainString();
+    }
+}
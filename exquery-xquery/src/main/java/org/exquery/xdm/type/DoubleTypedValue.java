@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Typed Value for xs:double and xs:float, whose
+ * value is held as a primitive double to avoid boxing
+ *
+ * @author Adam Retter
+ */
+public class DoubleTypedValue implements TypedValue<Double> {
+    
+    private final Type type;
+    private final double value;
+    
+    /**
+     * @param value The xs:double value
+     */
+    public DoubleTypedValue(final double value) {
+        this(Type.DOUBLE, value);
+    }
+    
+    /**
+     * @param type The Type of the value, either xs:double or xs:float
+     * @param value The value
+     */
+    public DoubleTypedValue(final Type type, final double value) {
+        if(type != Type.DOUBLE && type != Type.FLOAT) {
+            throw new IllegalArgumentException("Type must be xs:double or xs:float: " + type);
+        }
+        this.type = type;
+        this.value = type == Type.FLOAT ? (float)value : value;
+    }
+    
+    @Override
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Get the value, boxing it
+     * 
+     * @return The value
+     * 
+     * @see #doubleValue()
+     */
+    @Override
+    public Double getValue() {
+        return Double.valueOf(value);
+    }
+    
+    /**
+     * Get the value, without boxing
+     * 
+     * @return The value
+     */
+    public double doubleValue() {
+        return value;
+    }
+    
+    @Override
+    public String toString() {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.StreamingSequence;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Base class for implementations of a Streaming Sequence
+ * 
+ * Items are pulled from the underlying source one at a time
+ * by {@link #computeNext()}, at most one item is buffered
+ * to support {@link #head()} and {@link #isEmpty()}. The tail
+ * of the Sequence shares the same source.
+ * 
+ * When the source is exhausted or the Sequence is closed,
+ * {@link #release()} is called exactly once.
+ *
+ * @param <T> The Type of the items in the Sequence, if they are all of the same type
+ * 
+ * @author Adam Retter
+ */
+public abstract class LazySequence<T> implements StreamingSequence<T> {
+    
+    private final View root = new View();
+    
+    private TypedValue<T> lookahead = null;
+    private boolean exhausted = false;
+    private boolean closed = false;
+    
+    /**
+     * Computes the next item from the underlying source
+     * 
+     * @return The next item, or null if there are no more items
+     */
+    protected abstract TypedValue<T> computeNext();
+    
+    /**
+     * Releases any resources held by the underlying source
+     * 
+     * Called exactly once, when the source is exhausted or the Sequence is closed
+     */
+    protected void release() {
+    }
+    
+    @Override
+    public Iterator<TypedValue<T>> iterator() {
+        return root.iterator();
+    }
+
+    @Override
+    public TypedValue<T> head() {
+        return root.head();
+    }
+
+    @Override
+    public Sequence<T> tail() {
+        return root.tail();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return root.isEmpty();
+    }
+
+    @Override
+    public void close() {
+        if(!closed) {
+            closed = true;
+            exhausted = true;
+            lookahead = null;
+            release();
+        }
+    }
+    
+    /**
+     * Looks ahead to the next item without consuming it
+     * 
+     * @return The next item, or null if there are no more items
+     */
+    private TypedValue<T> peek() {
+        if(lookahead == null && !exhausted) {
+            lookahead = computeNext();
+            if(lookahead == null) {
+                //release resources as soon as the source is exhausted
+                close();
+            }
+        }
+        return lookahead;
+    }
+    
+    /**
+     * Consumes the next item
+     * 
+     * @return The next item, or null if there are no more items
+     */
+    private TypedValue<T> poll() {
+        final TypedValue<T> next = peek();
+        lookahead = null;
+        return next;
+    }
+    
+    /**
+     * A view of the Sequence from the current position of the source,
+     * each view may be consumed only once
+     */
+    private class View implements StreamingSequence<T> {
+        private boolean consumed = false;
+        
+        private void consume() {
+            if(consumed) {
+                throw new IllegalStateException("A Streaming Sequence may only be consumed once.");
+            }
+            consumed = true;
+        }
+        
+        @Override
+        public Iterator<TypedValue<T>> iterator() {
+            consume();
+            return new Iterator<TypedValue<T>>() {
+                @Override
+                public boolean hasNext() {
+                    return peek() != null;
+                }
+
+                @Override
+                public TypedValue<T> next() {
+                    final TypedValue<T> next = poll();
+                    if(next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    return next;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("You cannot remove Items from a Streaming Sequence.");
+                }
+            };
+        }
+
+        @Override
+        public TypedValue<T> head() {
+            if(consumed) {
+                throw new IllegalStateException("A Streaming Sequence may only be consumed once.");
+            }
+            
+            final TypedValue<T> head = peek();
+            if(head == null) {
+                throw new IndexOutOfBoundsException("The sequence is empty!");
+            }
+            return head;
+        }
+
+        @Override
+        public Sequence<T> tail() {
+            consume();
+            poll();
+            return new View();
+        }
+        
+        @Override
+        public boolean isEmpty() {
+            if(consumed) {
+                throw new IllegalStateException("A Streaming Sequence may only be consumed once.");
+            }
+            return peek() == null;
+        }
+
+        @Override
+        public void close() {
+            LazySequence.this.close();
+        }
+    }
+}
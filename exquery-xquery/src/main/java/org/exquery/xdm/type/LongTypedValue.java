@@ -0,0 +1,92 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Typed Value for xs:integer and its sub-types, whose
+ * value is held as a primitive long to avoid boxing
+ *
+ * @author Adam Retter
+ */
+public class LongTypedValue implements TypedValue<Long> {
+    
+    private final Type type;
+    private final long value;
+    
+    /**
+     * @param value The xs:integer value
+     */
+    public LongTypedValue(final long value) {
+        this(Type.INTEGER, value);
+    }
+    
+    /**
+     * @param type The Type of the value, must be xs:integer or a sub-type of xs:integer
+     * @param value The value
+     */
+    public LongTypedValue(final Type type, final long value) {
+        if(!type.isSubTypeOf(Type.INTEGER)) {
+            throw new IllegalArgumentException("Type must be a sub-type of xs:integer: " + type);
+        }
+        this.type = type;
+        this.value = value;
+    }
+    
+    @Override
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Get the value, boxing it
+     * 
+     * @return The value
+     * 
+     * @see #longValue()
+     */
+    @Override
+    public Long getValue() {
+        return Long.valueOf(value);
+    }
+    
+    /**
+     * Get the value, without boxing
+     * 
+     * @return The value
+     */
+    public long longValue() {
+        return value;
+    }
+    
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
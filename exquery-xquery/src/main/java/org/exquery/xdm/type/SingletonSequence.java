@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.TypedValue;
+
+/**
+ * Immutable Implementation of a Sequence of exactly one item
+ * 
+ * May be cached and safely shared between threads.
+ *
+ * @param <T> The Type of the item in the Sequence
+ * 
+ * @author Adam Retter
+ */
+public class SingletonSequence<T> implements Sequence<T> {
+    
+    private final TypedValue<T> value;
+
+    public SingletonSequence(final TypedValue<T> value) {
+        this.value = value;
+    }
+    
+    @Override
+    public Iterator<TypedValue<T>> iterator() {
+        return new Iterator<TypedValue<T>>() {
+            private boolean hasNext = true;
+            
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public TypedValue<T> next() {
+                if(!hasNext) {
+                    throw new NoSuchElementException();
+                }
+                hasNext = false;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("You cannot remove Items from an immutable Sequence.");
+            }
+        };
+    }
+
+    @Override
+    public TypedValue<T> head() {
+        return value;
+    }
+
+    @Override
+    public Sequence<T> tail() {
+        return ArraySequence.emptySequence();
+    }
+}
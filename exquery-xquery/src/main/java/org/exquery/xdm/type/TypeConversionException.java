@@ -0,0 +1,66 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import org.exquery.ExQueryException;
+import org.exquery.xquery.Type;
+
+/**
+ * Exception thrown when a lexical value cannot
+ * be converted to the requested XDM Type
+ *
+ * @author Adam Retter
+ */
+public class TypeConversionException extends ExQueryException {
+    
+    private final Type type;
+    private final String lexicalValue;
+
+    public TypeConversionException(final Type type, final String lexicalValue) {
+        super("Invalid lexical value for " + type + ": '" + lexicalValue + "'");
+        this.type = type;
+        this.lexicalValue = lexicalValue;
+    }
+
+    /**
+     * Get the Type which the value could not be converted to
+     * 
+     * @return The target Type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the lexical value which could not be converted
+     * 
+     * @return The lexical value
+     */
+    public String getLexicalValue() {
+        return lexicalValue;
+    }
+}
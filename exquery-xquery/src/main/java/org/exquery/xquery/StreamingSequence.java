@@ -0,0 +1,67 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xquery;
+
+import java.io.Closeable;
+
+/**
+ * A Sequence whose items are produced on demand as it is iterated
+ * 
+ * A Streaming Sequence may only be consumed once, either by a single call
+ * to {@link #iterator()} or by taking its {@link #tail()}, this allows
+ * the items of a large result to be produced and released one at a time
+ * rather than buffered in memory. {@link #head()} and {@link #isEmpty()}
+ * only look ahead to the first item and do not consume the Sequence.
+ * 
+ * Any resources held by the Sequence are released when iteration
+ * finishes, or when the Sequence is closed, whichever happens first.
+ * A consumer which may not iterate to the end should close the Sequence.
+ * 
+ * Streaming Sequences are not thread safe.
+ * 
+ * @param <T> The Type of the items in the Sequence, if they are all of the same type
+ * 
+ * @author Adam Retter
+ */
+public interface StreamingSequence<T> extends Sequence<T>, Closeable {
+    
+    /**
+     * Determines if the Sequence is empty, without consuming it
+     * 
+     * @return true if the Sequence has no items
+     */
+    public boolean isEmpty();
+    
+    /**
+     * Releases any resources held by the Sequence,
+     * after which no further items will be produced
+     * 
+     * Closing a closed Sequence has no effect.
+     */
+    @Override
+    public void close();
+}
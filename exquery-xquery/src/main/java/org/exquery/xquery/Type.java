@@ -26,6 +26,8 @@
  */
 package org.exquery.xquery;
 
+import java.util.BitSet;
+
 /**
  * Model of W3C XQuery 1.0 and XPath 2.0 XDM Types
  * 
@@ -118,6 +120,36 @@ public enum Type {
     
     final Type subTypes[];
     
+    /**
+     * Bitmask of this type and all of its sub-types, i.e. its descendants
+     */
+    private final BitSet descendants = new BitSet();
+    
+    /**
+     * Bitmask of this type and all of the types that it is a sub-type of, i.e. its ancestors
+     */
+    private final BitSet ancestors = new BitSet();
+    
+    /**
+     * Precompute the type hierarchy as bitmasks,
+     * so that sub-type checks are a single bit lookup
+     */
+    static {
+        final Type types[] = values();
+        
+        for(final Type type : types) {
+            descendantsOf(type, type.descendants);
+        }
+        
+        for(final Type type : types) {
+            for(final Type other : types) {
+                if(other.descendants.get(type.ordinal())) {
+                    type.ancestors.set(other.ordinal());
+                }
+            }
+        }
+    }
+    
     /**
      * Type
      */
@@ -134,6 +166,22 @@ public enum Type {
         this.subTypes = subTypes;
     }
     
+    /**
+     * Calculates the bitmask of a type and all of its
+     * sub-types by recursively examining all sub-types
+     * 
+     * @param type The type
+     * @param mask The bitmask to set the bits of the type and its descendants in
+     */
+    private static void descendantsOf(final Type type, final BitSet mask) {
+        mask.set(type.ordinal());
+        if(type.subTypes != null) {
+            for(final Type subType : type.subTypes) {
+                descendantsOf(subType, mask);
+            }
+        }
+    }
+    
     /**
      * Determines if this type is a sub-type of the other type
      * 
@@ -142,11 +190,7 @@ public enum Type {
      * @return true if this type is a sub-type of other or if this is equal to other, false otherwise
      */
     public boolean isSubTypeOf(final Type other) {
-        if(this == other) {
-            return true;
-        }
-        
-        return other.hasSubType(this);
+        return ancestors.get(other.ordinal());
     }
     
     /**
@@ -157,34 +201,6 @@ public enum Type {
      * @return true if other is a sub-type of this type or if this is equal to other, false otherwise
      */
     public boolean hasSubType(final Type other) {
-        if(this == other) {
-            return true;
-        } else {
-            return hasSubType(subTypes, other);
-        }
-    }
-
-    /**
-     * Determines if the type to match is a sub-type of the provides types
-     * by recursively examining all sub-types
-     * 
-     * @param types
-     * @param toMatch 
-     * 
-     * @return true if the type to match is a sub-type of the types, false otherwise
-     */
-    private boolean hasSubType(final Type types[], final Type toMatch) {
-        if(types != null) {
-            for(final Type type : types) {
-                if(type.equals(toMatch)) {
-                    return true;
-                }
-                
-                if(hasSubType(type.subTypes, toMatch)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return descendants.get(other.ordinal());
     }
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.util.Iterator;
+import org.exquery.xquery.Cardinality;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.TypedValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class ArraySequenceTest {
+    
+    @Test
+    public void tail_sharesItems() {
+        final ArraySequence<String> sequence = new ArraySequence<String>(values("a", "b", "c"));
+        
+        assertEquals("a", sequence.head().getValue());
+        
+        final Sequence<String> tail = sequence.tail();
+        assertSame(tail, sequence.tail());
+        assertEquals("b", tail.head().getValue());
+        assertEquals("c", tail.tail().head().getValue());
+        assertTrue(tail.tail() instanceof SingletonSequence);
+        assertSame(Sequence.EMPTY_SEQUENCE, tail.tail().tail());
+    }
+    
+    @Test
+    public void constructor_copiesItems() {
+        final TypedValue<String>[] values = values("a", "b");
+        final ArraySequence<String> sequence = new ArraySequence<String>(values);
+        values[0] = new StringTypedValue("z");
+        
+        assertEquals("a", sequence.head().getValue());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void iterator_immutable() {
+        final Iterator<TypedValue<String>> it = new ArraySequence<String>(values("a", "b")).iterator();
+        it.next();
+        it.remove();
+    }
+    
+    @Test
+    public void subSequence() {
+        final ArraySequence<String> sequence = new ArraySequence<String>(values("a", "b", "c", "d"));
+        
+        final Sequence<String> slice = sequence.subSequence(1, 3);
+        final Iterator<TypedValue<String>> it = slice.iterator();
+        assertEquals("b", it.next().getValue());
+        assertEquals("c", it.next().getValue());
+        assertFalse(it.hasNext());
+        
+        assertSame(Sequence.EMPTY_SEQUENCE, sequence.subSequence(2, 2));
+        assertSame(sequence, sequence.subSequence(0, 4));
+    }
+    
+    @Test
+    public void builder() {
+        assertSame(Sequence.EMPTY_SEQUENCE, new ArraySequence.Builder<String>(Cardinality.ZERO_OR_MORE).build());
+        
+        final Sequence<String> singleton = new ArraySequence.Builder<String>(Cardinality.ONE)
+            .add(new StringTypedValue("a"))
+            .build();
+        assertTrue(singleton instanceof SingletonSequence);
+        assertEquals("a", singleton.head().getValue());
+        
+        //grows beyond the expected size
+        final ArraySequence.Builder<String> builder = new ArraySequence.Builder<String>(1);
+        for(int i = 0; i < 20; i++) {
+            builder.add(new StringTypedValue(String.valueOf(i)));
+        }
+        final ArraySequence<String> sequence = (ArraySequence<String>)builder.build();
+        assertEquals(20, sequence.size());
+        for(int i = 0; i < 20; i++) {
+            assertEquals(String.valueOf(i), sequence.get(i).getValue());
+        }
+    }
+    
+    private TypedValue<String>[] values(final String... strings) {
+        final TypedValue<String>[] values = new StringTypedValue[strings.length];
+        for(int i = 0; i < strings.length; i++) {
+            values[i] = new StringTypedValue(strings[i]);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.math.BigDecimal;
+import org.exquery.xquery.Type;
+import org.exquery.xquery.TypedValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class AtomicValueConverterTest {
+    
+    @Test
+    public void integer() throws TypeConversionException {
+        final AtomicValueConverter converter = AtomicValueConverter.forType(Type.INTEGER);
+        
+        assertEquals(123, ((LongTypedValue)converter.convert(" +123 ")).longValue());
+        assertEquals(-42, ((LongTypedValue)converter.convert("-42")).longValue());
+        assertEquals(Type.INTEGER, converter.convert("1").getType());
+        assertEquals(Long.MAX_VALUE, ((LongTypedValue)converter.convert(Long.toString(Long.MAX_VALUE))).longValue());
+        assertEquals(new BigDecimal("123456789012345678901234567890"), ((DecimalTypedValue)converter.convert("123456789012345678901234567890")).getValue());
+        
+        assertInvalid(converter, "");
+        assertInvalid(converter, "-");
+        assertInvalid(converter, "1.0");
+        assertInvalid(converter, "1e2");
+        assertInvalid(converter, "abc");
+    }
+    
+    @Test
+    public void integer_bounds() throws TypeConversionException {
+        assertEquals(127, ((LongTypedValue)AtomicValueConverter.forType(Type.BYTE).convert("127")).longValue());
+        assertInvalid(AtomicValueConverter.forType(Type.BYTE), "128");
+        assertInvalid(AtomicValueConverter.forType(Type.POSITIVE_INTEGER), "0");
+        assertInvalid(AtomicValueConverter.forType(Type.NEGATIVE_INTEGER), "0");
+        assertInvalid(AtomicValueConverter.forType(Type.UNSIGNED_SHORT), "-1");
+        assertInvalid(AtomicValueConverter.forType(Type.LONG), "9223372036854775808");
+        
+        final TypedValue<?> unsignedLongMax = AtomicValueConverter.forType(Type.UNSIGNED_LONG).convert("18446744073709551615");
+        assertEquals(Type.UNSIGNED_LONG, unsignedLongMax.getType());
+        assertEquals(new BigDecimal("18446744073709551615"), unsignedLongMax.getValue());
+        assertInvalid(AtomicValueConverter.forType(Type.UNSIGNED_LONG), "18446744073709551616");
+    }
+    
+    @Test
+    public void decimal() throws TypeConversionException {
+        final AtomicValueConverter converter = AtomicValueConverter.forType(Type.DECIMAL);
+        
+        assertEquals(new BigDecimal("1.5"), converter.convert("1.5").getValue());
+        assertEquals(new BigDecimal("0.5"), converter.convert(".5").getValue());
+        assertEquals(new BigDecimal("-2"), converter.convert("-2.").getValue());
+        
+        assertInvalid(converter, ".");
+        assertInvalid(converter, "1e2");
+        assertInvalid(converter, "1.2.3");
+    }
+    
+    @Test
+    public void double_() throws TypeConversionException {
+        final AtomicValueConverter converter = AtomicValueConverter.forType(Type.DOUBLE);
+        
+        assertEquals(1.5e3, ((DoubleTypedValue)converter.convert("1.5E3")).doubleValue(), 0);
+        assertEquals(-0.25, ((DoubleTypedValue)converter.convert("-.25")).doubleValue(), 0);
+        assertEquals(100, ((DoubleTypedValue)converter.convert("1e+2")).doubleValue(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, ((DoubleTypedValue)converter.convert("-INF")).doubleValue(), 0);
+        assertTrue(Double.isNaN(((DoubleTypedValue)converter.convert("NaN")).doubleValue()));
+        
+        assertInvalid(converter, "Infinity");
+        assertInvalid(converter, "0x1p3");
+        assertInvalid(converter, "1d");
+        assertInvalid(converter, "1e");
+        
+    }
+    
+    @Test
+    public void float_() throws TypeConversionException {
+        final AtomicValueConverter converter = AtomicValueConverter.forType(Type.FLOAT);
+        
+        assertEquals(Type.FLOAT, converter.convert("0.1").getType());
+        assertEquals((double)0.1f, ((DoubleTypedValue)converter.convert("0.1")).doubleValue(), 0);
+        assertEquals((double)Float.MAX_VALUE, ((DoubleTypedValue)converter.convert("3.4028235E38")).doubleValue(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, ((DoubleTypedValue)converter.convert("1e39")).doubleValue(), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, ((DoubleTypedValue)converter.convert("-1e39")).doubleValue(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, ((DoubleTypedValue)converter.convert("INF")).doubleValue(), 0);
+        
+        assertInvalid(converter, "1f");
+    }
+    
+    @Test
+    public void boolean_() throws TypeConversionException {
+        final AtomicValueConverter converter = AtomicValueConverter.forType(Type.BOOLEAN);
+        
+        assertSame(BooleanTypedValue.TRUE, converter.convert("true"));
+        assertSame(BooleanTypedValue.TRUE, converter.convert("1"));
+        assertSame(BooleanTypedValue.FALSE, converter.convert(" false "));
+        assertSame(BooleanTypedValue.FALSE, converter.convert("0"));
+        
+        assertInvalid(converter, "TRUE");
+        assertInvalid(converter, "yes");
+    }
+    
+    @Test
+    public void string() throws TypeConversionException {
+        assertEquals(" a ", AtomicValueConverter.forType(Type.STRING).convert(" a ").getValue());
+        assertEquals(Type.STRING, AtomicValueConverter.forType(Type.ANY_ATOMIC_TYPE).convert("a").getType());
+        assertEquals(Type.UNTYPED_ATOMIC, AtomicValueConverter.forType(Type.UNTYPED_ATOMIC).convert("a").getType());
+    }
+    
+    @Test
+    public void unsupported() {
+        assertNull(AtomicValueConverter.forType(Type.DATE_TIME));
+        assertNull(AtomicValueConverter.forType(Type.ELEMENT));
+    }
+    
+    private void assertInvalid(final AtomicValueConverter converter, final String lexicalValue) {
+        try {
+            converter.convert(lexicalValue);
+            fail("Expected TypeConversionException for '" + lexicalValue + "'");
+        } catch(final TypeConversionException tce) {
+            assertEquals(converter.getType(), tce.getType());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class BinaryContentTest {
+    
+    private final static byte[] DATA = "0123456789abcdef".getBytes();
+    
+    @Test
+    public void fromChannel_region() throws IOException {
+        final File file = File.createTempFile("binary-content", ".bin");
+        try {
+            final FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(DATA);
+            } finally {
+                fos.close();
+            }
+            
+            final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+            final BinaryContent content = BinaryContent.fromChannel(channel, 4, 8);
+            try {
+                assertEquals(8, content.getLength());
+                assertArrayEquals("456789ab".getBytes(), transfer(content));
+                assertArrayEquals("456789ab".getBytes(), read(content.getInputStream()));
+                assertEquals(0, channel.position());
+            } finally {
+                content.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void fromByteBuffer_repeatable() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length);
+        buffer.put(DATA).flip();
+        
+        final BinaryContent content = BinaryContent.fromByteBuffer(buffer);
+        assertEquals(DATA.length, content.getLength());
+        assertArrayEquals(DATA, transfer(content));
+        assertArrayEquals(DATA, transfer(content));
+        assertArrayEquals(DATA, read(content.getInputStream()));
+        assertEquals(0, buffer.position());
+    }
+    
+    @Test
+    public void fromStream() throws IOException {
+        final BinaryContent content = BinaryContent.fromStream(new ByteArrayInputStream(DATA));
+        assertEquals(-1, content.getLength());
+        assertArrayEquals(DATA, transfer(content));
+    }
+    
+    private byte[] transfer(final BinaryContent content) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(content.getLength() == -1 ? DATA.length : content.getLength(), content.transferTo(Channels.newChannel(baos)));
+        return baos.toByteArray();
+    }
+    
+    private byte[] read(final InputStream is) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[3];
+        int read;
+        while((read = is.read(buf)) != -1) {
+            baos.write(buf, 0, read);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright © 2012, Adam Retter / EXQuery
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exquery.xdm.type;
+
+import java.util.Iterator;
+import org.exquery.xquery.Sequence;
+import org.exquery.xquery.StreamingSequence;
+import org.exquery.xquery.TypedValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Adam Retter
+ */
+public class LazySequenceTest {
+    
+    @Test
+    public void head_doesNotConsume() {
+        final CountingSequence sequence = new CountingSequence(3);
+        
+        assertFalse(sequence.isEmpty());
+        assertEquals("0", sequence.head().getValue());
+        assertEquals(1, sequence.computed);
+        
+        final Iterator<TypedValue<String>> it = sequence.iterator();
+        assertEquals("0", it.next().getValue());
+        assertEquals("1", it.next().getValue());
+        assertEquals("2", it.next().getValue());
+        assertFalse(sequence.released);
+        assertFalse(it.hasNext());
+        assertTrue(sequence.released);
+    }
+    
+    @Test
+    public void tail_continuesFromSource() {
+        final CountingSequence sequence = new CountingSequence(3);
+        
+        final Sequence<String> tail = sequence.tail();
+        assertFalse(((StreamingSequence)tail).isEmpty());
+        
+        int i = 1;
+        for(final TypedValue<String> value : tail) {
+            assertEquals(String.valueOf(i++), value.getValue());
+        }
+        assertEquals(3, i);
+        assertEquals(3, sequence.computed);
+        assertTrue(sequence.released);
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void iterator_singlePass() {
+        final CountingSequence sequence = new CountingSequence(3);
+        sequence.iterator();
+        sequence.iterator();
+    }
+    
+    @Test
+    public void close_releasesOnce() {
+        final CountingSequence sequence = new CountingSequence(1000);
+        
+        final Iterator<TypedValue<String>> it = sequence.iterator();
+        it.next();
+        sequence.close();
+        sequence.close();
+        
+        assertFalse(it.hasNext());
+        assertEquals(1, sequence.computed);
+        assertEquals(1, sequence.releases);
+    }
+    
+    @Test
+    public void empty() {
+        final CountingSequence sequence = new CountingSequence(0);
+        
+        assertTrue(sequence.isEmpty());
+        assertTrue(sequence.released);
+    }
+    
+    private static class CountingSequence extends LazySequence<String> {
+        private final int size;
+        int computed = 0;
+        int releases = 0;
+        boolean released = false;
+
+        public CountingSequence(final int size) {
+            this.size = size;
+        }
+        
+        @Override
+        protected TypedValue<String> computeNext() {
+            if(computed == size) {
+                return null;
+            }
+            return new StringTypedValue(String.valueOf(computed++));
+        }
+
+        @Override
+        protected void release() {
+            released = true;
+            releases++;
+        }
+    }
+}
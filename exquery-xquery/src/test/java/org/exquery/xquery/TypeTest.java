@@ -27,6 +27,8 @@
 package org.exquery.xquery;
 
 import static org.exquery.xquery.Type.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -65,4 +67,46 @@ public class TypeTest {
     public void STRING_isSubTypeOf_ITEM() {
         assertTrue(STRING.isSubTypeOf(ITEM));
     }
+    
+    @Test
+    public void STRING_isSubTypeOf_NODE() {
+        assertFalse(STRING.isSubTypeOf(NODE));
+    }
+    
+    @Test
+    public void INTEGER_hasSubType_DECIMAL() {
+        assertFalse(INTEGER.hasSubType(DECIMAL));
+    }
+    
+    /**
+     * Compares the bitmask sub-type checks against
+     * a recursive walk of the sub-types, for every pair of types
+     */
+    @Test
+    public void subTypes_matchRecursiveHierarchy() {
+        for(final Type type : Type.values()) {
+            for(final Type other : Type.values()) {
+                final boolean expectedHasSubType = type == other || recursiveHasSubType(type.subTypes, other);
+                assertEquals(type + " hasSubType " + other, expectedHasSubType, type.hasSubType(other));
+                
+                final boolean expectedIsSubTypeOf = type == other || recursiveHasSubType(other.subTypes, type);
+                assertEquals(type + " isSubTypeOf " + other, expectedIsSubTypeOf, type.isSubTypeOf(other));
+            }
+        }
+    }
+    
+    private boolean recursiveHasSubType(final Type types[], final Type toMatch) {
+        if(types != null) {
+            for(final Type type : types) {
+                if(type.equals(toMatch)) {
+                    return true;
+                }
+                
+                if(recursiveHasSubType(type.subTypes, toMatch)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }